@@ -0,0 +1,62 @@
+package org.opentripplanner.benchmark;
+
+import com.google.common.collect.Iterables;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+/**
+ * Graphs shared by the benchmarks. They are built from the Columbus, OH extract and the generated transit used by the
+ * unit tests, so the benchmarks need no data beyond what is checked into src/test/resources.
+ */
+public class BenchmarkGraphs {
+
+    /** A date on which the trips generated by FakeGraph are running. */
+    public static final LocalDate DATE = new LocalDate(2015, 6, 10);
+
+    /** Coordinates near the south-west and north-east corners of the generated grid of transit routes. */
+    public static final double FROM_LAT = 39.92, FROM_LON = -83.10, TO_LAT = 40.01, TO_LON = -82.90;
+
+    /** Build the indexed Columbus street graph, with no transit. */
+    public static Graph streets () throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        graph.index(new DefaultStreetVertexIndexFactory());
+        return graph;
+    }
+
+    /**
+     * Build the Columbus street graph with a grid of perpendicular bus and tram routes running every ten minutes all
+     * day, giving about 1300 stops and 6000 trips, linked and indexed.
+     */
+    public static Graph streetsAndTransit () throws Exception {
+        Graph graph = FakeGraph.buildGraphNoTransit();
+        FakeGraph.addPerpendicularRoutes(graph);
+        FakeGraph.link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        return graph;
+    }
+
+    /** @return the intersection closest to the given coordinates, found by a linear scan over all vertices. */
+    public static IntersectionVertex closestIntersection (Graph graph, double lat, double lon) {
+        IntersectionVertex closest = null;
+        double closestDistance = Double.POSITIVE_INFINITY;
+        for (IntersectionVertex v : Iterables.filter(graph.getVertices(), IntersectionVertex.class)) {
+            double distance = SphericalDistanceLibrary.fastDistance(lat, lon, v.getLat(), v.getLon());
+            if (distance < closestDistance) {
+                closest = v;
+                closestDistance = distance;
+            }
+        }
+        return closest;
+    }
+
+    /** @return midnight at the start of DATE in the time zone of the graph, in seconds since the epoch. */
+    public static long midnight (Graph graph) {
+        return DATE.toDateTimeAtStartOfDay(DateTimeZone.forTimeZone(graph.getTimeZone())).getMillis() / 1000;
+    }
+
+}
@@ -0,0 +1,72 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.graph_builder.linking.SimpleStreetSplitter;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations performed once per graph rather than once per search: linking transit stops to the street network, and
+ * loading a serialized graph. Each one takes long enough to be timed individually, so they are run as single shots.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GraphBuildBenchmark {
+
+    /** A fresh Columbus street graph with 10000 unlinked transit stops, rebuilt before every call to link. */
+    @State(Scope.Thread)
+    public static class UnlinkedGraph {
+
+        private Graph graph;
+
+        @Setup(Level.Invocation)
+        public void setup () throws Exception {
+            graph = FakeGraph.buildGraphNoTransit();
+            FakeGraph.addTransitMultipleLines(graph);
+        }
+    }
+
+    /** The serialized Columbus graph with transit, as it would be read from Graph.obj. */
+    @State(Scope.Benchmark)
+    public static class SerializedGraph {
+
+        private byte[] bytes;
+
+        @Setup
+        public void setup () throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            BenchmarkGraphs.streetsAndTransit().save(out);
+            bytes = out.toByteArray();
+        }
+    }
+
+    @Benchmark
+    public Graph link (UnlinkedGraph unlinked) {
+        new SimpleStreetSplitter(unlinked.graph).link();
+        return unlinked.graph;
+    }
+
+    /** Deserialize the graph and build its indexes, as done when a router starts. */
+    @Benchmark
+    public Graph load (SerializedGraph serialized) {
+        return Graph.load(new ByteArrayInputStream(serialized.bytes));
+    }
+
+}
@@ -0,0 +1,74 @@
+package org.opentripplanner.benchmark;
+
+import gnu.trove.map.TIntIntMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.profile.PropagatedTimesStore;
+import org.opentripplanner.profile.RaptorWorker;
+import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A two hour range-RAPTOR search over the generated grid of transit routes, from the center of Columbus. The RAPTOR
+ * data and the access times to transit stops are prepared once, so only the transit search and propagation to the
+ * street vertices are measured.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+public class RaptorWorkerBenchmark {
+
+    private Graph graph;
+
+    private ProfileRequest request;
+
+    private RaptorWorkerData data;
+
+    private TIntIntMap accessTimes;
+
+    private int[] nonTransitTimes;
+
+    @Setup
+    public void setup () throws Exception {
+        graph = BenchmarkGraphs.streetsAndTransit();
+        request = new ProfileRequest();
+        request.date = BenchmarkGraphs.DATE;
+        request.fromTime = 7 * 3600;
+        request.toTime = 9 * 3600;
+        request.fromLat = request.toLat = 39.9621;
+        request.fromLon = request.toLon = -83.0007;
+        request.accessModes = request.egressModes = request.directModes = new QualifiedModeSet("WALK");
+        request.transitModes = new TraverseModeSet("TRANSIT");
+
+        data = RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, null, new TaskStatistics());
+        accessTimes = new RepeatedRaptorProfileRouter(graph, request).findInitialStops(false, data);
+        // Targets that can only be reached by transit, so every search does the full amount of propagation.
+        nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PropagatedTimesStore runRaptor () {
+        return new RaptorWorker(data, request).runRaptor(graph, accessTimes, nonTransitTimes, new TaskStatistics());
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Street routing: complete AStar searches across Columbus, and traversal of single street edges, which is the
+ * innermost operation of those searches.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class StreetSearchBenchmark {
+
+    /** The number of edges traversed by one call to traverseStreetEdges. */
+    private static final int N_EDGES = 10000;
+
+    @Param({ "WALK", "BICYCLE", "CAR" })
+    public String mode;
+
+    private Graph graph;
+
+    private RoutingRequest options;
+
+    private StreetEdge[] edges;
+
+    private org.opentripplanner.routing.core.State[] states;
+
+    @Setup
+    public void setup () throws Exception {
+        graph = BenchmarkGraphs.streets();
+        IntersectionVertex from = BenchmarkGraphs.closestIntersection(graph,
+                BenchmarkGraphs.FROM_LAT, BenchmarkGraphs.FROM_LON);
+        IntersectionVertex to = BenchmarkGraphs.closestIntersection(graph,
+                BenchmarkGraphs.TO_LAT, BenchmarkGraphs.TO_LON);
+        options = new RoutingRequest();
+        options.setMode(TraverseMode.valueOf(mode));
+        options.setRoutingContext(graph, from, to);
+
+        edges = new StreetEdge[N_EDGES];
+        states = new org.opentripplanner.routing.core.State[N_EDGES];
+        Iterator<StreetEdge> streetEdges = graph.getStreetEdges().iterator();
+        for (int i = 0; i < N_EDGES; i++) {
+            edges[i] = streetEdges.next();
+            states[i] = new org.opentripplanner.routing.core.State(edges[i].getFromVertex(), options);
+        }
+    }
+
+    /** A point to point search between opposite corners of the transit grid, about 20 km apart. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ShortestPathTree aStarSearch () {
+        return new AStar().getShortestPathTree(options);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(N_EDGES)
+    public void traverseStreetEdges (Blackhole blackhole) {
+        for (int i = 0; i < N_EDGES; i++) {
+            blackhole.consume(edges[i].traverse(states[i]));
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+package org.opentripplanner.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opentripplanner.model.calendar.ServiceDate;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.edgetype.Timetable;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the next departure and previous arrival in the scheduled timetable of a pattern, as done for each boarding
+ * and alighting during a transit search.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4G")
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class TimetableBenchmark {
+
+    /** The number of searches made by one benchmark call, at one minute intervals starting at 6AM. */
+    private static final int N_SEARCHES = 16 * 60;
+
+    private Timetable timetable;
+
+    private ServiceDay serviceDay;
+
+    private int stopIndex;
+
+    private org.opentripplanner.routing.core.State[] states;
+
+    @Setup
+    public void setup () throws Exception {
+        Graph graph = BenchmarkGraphs.streetsAndTransit();
+        // Pick the pattern with the most trips.
+        TripPattern pattern = null;
+        for (TripPattern p : graph.index.patternForId.values()) {
+            if (pattern == null || p.getTrips().size() > pattern.getTrips().size()) {
+                pattern = p;
+            }
+        }
+        timetable = pattern.scheduledTimetable;
+        stopIndex = pattern.getStops().size() / 2;
+
+        TransitStop from = graph.index.stopVertexForStop.get(pattern.getStop(0));
+        TransitStop to = graph.index.stopVertexForStop.get(pattern.getStop(pattern.getStops().size() - 1));
+        long midnight = BenchmarkGraphs.midnight(graph);
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = midnight;
+        options.setRoutingContext(graph, from, to);
+        ServiceDate date = new ServiceDate(BenchmarkGraphs.DATE.getYear(), BenchmarkGraphs.DATE.getMonthOfYear(),
+                BenchmarkGraphs.DATE.getDayOfMonth());
+        for (ServiceDay day : options.rctx.serviceDays) {
+            if (day.getServiceDate().equals(date)) {
+                serviceDay = day;
+            }
+        }
+        states = new org.opentripplanner.routing.core.State[N_SEARCHES];
+        for (int i = 0; i < N_SEARCHES; i++) {
+            states[i] = new org.opentripplanner.routing.core.State(from, midnight + 6 * 3600 + i * 60, options);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(N_SEARCHES)
+    public void nextDeparture (Blackhole blackhole) {
+        for (int i = 0; i < N_SEARCHES; i++) {
+            blackhole.consume(timetable.getNextTrip(states[i], serviceDay, stopIndex, true));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(N_SEARCHES)
+    public void previousArrival (Blackhole blackhole) {
+        for (int i = 0; i < N_SEARCHES; i++) {
+            blackhole.consume(timetable.getNextTrip(states[i], serviceDay, stopIndex, false));
+        }
+    }
+
+}
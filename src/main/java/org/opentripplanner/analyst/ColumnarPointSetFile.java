@@ -0,0 +1,327 @@
+package org.opentripplanner.analyst;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+import com.vividsolutions.jts.io.WKBWriter;
+import org.opentripplanner.analyst.pointset.PropertyMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes PointSets in a binary column store format, so that large pointsets only have to be parsed from
+ * CSV, GeoJSON or shapefiles once. Loading the binary file memory-maps it and copies each column into the PointSet's
+ * arrays in bulk, which for pointsets with millions of features is orders of magnitude faster than parsing.
+ *
+ * The file starts with the magic bytes "OTPPSET", a version byte and the length of a JSON header. The header holds the
+ * pointset metadata and the type, position and length of each column. The columns follow, each aligned on eight bytes
+ * so that it can be read as a typed buffer: the latitudes and longitudes as doubles, the feature IDs and polygons
+ * (as WKB) as variable-length byte strings, and each property as ints. All numbers are big-endian.
+ */
+public class ColumnarPointSetFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnarPointSetFile.class);
+
+    /** The file extension used for columnar pointsets. */
+    public static final String EXTENSION = ".pset";
+
+    private static final byte[] MAGIC = "OTPPSET".getBytes(StandardCharsets.US_ASCII);
+
+    /** Increment this when the format changes, so that files in the old format are rebuilt rather than misread. */
+    private static final byte VERSION = 1;
+
+    /** Magic bytes, version byte and header length. */
+    private static final int PREAMBLE_BYTES = MAGIC.length + 1 + 4;
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public enum ColumnType {
+        DOUBLE, INT, BYTES
+    }
+
+    /** Describes one column of the file. Serialized in the JSON header. */
+    public static class Column {
+        public String name;
+        public ColumnType type;
+        /** Position of the column in the file, in bytes. */
+        public long offset;
+        /** Length of the column, in bytes. */
+        public long length;
+        /** The property metadata, for property columns. */
+        public String label;
+        public Map<String, String> style;
+    }
+
+    /** The JSON header of the file. */
+    public static class Header {
+        public String id;
+        public String label;
+        public String description;
+        public int capacity;
+        public List<Column> columns = new ArrayList<>();
+    }
+
+    private static final String LATS = "lats", LONS = "lons", IDS = "ids", POLYGONS = "polygons";
+
+    /** Prefix of the names of property columns, keeping them apart from the fixed columns. */
+    private static final String PROPERTY_PREFIX = "property:";
+
+    /**
+     * Write the given pointset to the given file. The file is first written under a temporary name then moved into
+     * place, so that other processes never see a partially written file.
+     */
+    public static void write (PointSet pointSet, File file) throws IOException {
+        // Encode the variable-length columns first, so that the lengths of all columns are known for the header.
+        int n = pointSet.capacity;
+        byte[][] ids = new byte[n][];
+        byte[][] polygons = new byte[n][];
+        WKBWriter wkbWriter = new WKBWriter();
+        boolean hasPolygons = false;
+        for (int i = 0; i < n; i++) {
+            if (pointSet.ids[i] != null) {
+                ids[i] = pointSet.ids[i].getBytes(StandardCharsets.UTF_8);
+            }
+            if (pointSet.polygons != null && pointSet.polygons[i] != null) {
+                polygons[i] = wkbWriter.write(pointSet.polygons[i]);
+                hasPolygons = true;
+            }
+        }
+
+        Header header = new Header();
+        header.id = pointSet.id;
+        header.label = pointSet.label;
+        header.description = pointSet.description;
+        header.capacity = n;
+        header.columns.add(column(LATS, ColumnType.DOUBLE, n * 8L));
+        header.columns.add(column(LONS, ColumnType.DOUBLE, n * 8L));
+        header.columns.add(column(IDS, ColumnType.BYTES, bytesLength(ids)));
+        if (hasPolygons) {
+            header.columns.add(column(POLYGONS, ColumnType.BYTES, bytesLength(polygons)));
+        }
+        List<String> propertyIds = new ArrayList<>(pointSet.properties.keySet());
+        for (String propertyId : propertyIds) {
+            Column column = column(PROPERTY_PREFIX + propertyId, ColumnType.INT, n * 4L);
+            PropertyMetadata metadata = pointSet.propMetadata.get(propertyId);
+            if (metadata != null) {
+                column.label = metadata.label;
+                column.style = metadata.style == null ? null : new HashMap<>(metadata.style.attributes);
+            }
+            header.columns.add(column);
+        }
+
+        // Lay out the columns after the header. The header contains the offsets, so its length changes with them:
+        // repeat until the header fits before the first column. The offsets only grow, so this ends quickly.
+        long headerEnd = PREAMBLE_BYTES;
+        byte[] headerBytes;
+        while (true) {
+            layOut(header, headerEnd);
+            headerBytes = mapper.writeValueAsBytes(header);
+            if (PREAMBLE_BYTES + headerBytes.length <= header.columns.get(0).offset) break;
+            headerEnd = PREAMBLE_BYTES + headerBytes.length;
+        }
+
+        File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(headerBytes.length);
+            out.write(headerBytes);
+            long position = PREAMBLE_BYTES + headerBytes.length;
+            for (Column column : header.columns) {
+                for (; position < column.offset; position++) {
+                    out.writeByte(0);
+                }
+                if (LATS.equals(column.name)) {
+                    for (int i = 0; i < n; i++) out.writeDouble(pointSet.lats[i]);
+                } else if (LONS.equals(column.name)) {
+                    for (int i = 0; i < n; i++) out.writeDouble(pointSet.lons[i]);
+                } else if (IDS.equals(column.name)) {
+                    writeBytes(out, ids);
+                } else if (POLYGONS.equals(column.name)) {
+                    writeBytes(out, polygons);
+                } else {
+                    int[] values = pointSet.properties.get(column.name.substring(PROPERTY_PREFIX.length()));
+                    for (int i = 0; i < n; i++) out.writeInt(values[i]);
+                }
+                position += column.length;
+            }
+        } catch (IOException | RuntimeException e) {
+            tempFile.delete();
+            throw e;
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        LOG.info("Wrote {} features of pointset {} to {}", n, pointSet.id, file);
+    }
+
+    /**
+     * Read a pointset from the given file.
+     * @throws IOException if the file cannot be read or is not a columnar pointset in the current format.
+     */
+    public static PointSet read (File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ByteBuffer preamble = channel.map(FileChannel.MapMode.READ_ONLY, 0, PREAMBLE_BYTES);
+            byte[] magic = new byte[MAGIC.length];
+            preamble.get(magic);
+            byte version = preamble.get();
+            if (!java.util.Arrays.equals(magic, MAGIC) || version != VERSION) {
+                throw new IOException(file + " is not a columnar pointset in format version " + VERSION);
+            }
+            byte[] headerBytes = new byte[preamble.getInt()];
+            channel.map(FileChannel.MapMode.READ_ONLY, PREAMBLE_BYTES, headerBytes.length).get(headerBytes);
+            Header header = mapper.readValue(headerBytes, Header.class);
+
+            int n = header.capacity;
+            PointSet pointSet = new PointSet(n);
+            pointSet.id = header.id;
+            pointSet.label = header.label;
+            pointSet.description = header.description;
+            for (Column column : header.columns) {
+                // Each column is mapped separately, so the file as a whole may exceed the 2GB limit of one mapping.
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, column.offset, column.length);
+                if (LATS.equals(column.name)) {
+                    buffer.asDoubleBuffer().get(pointSet.lats);
+                } else if (LONS.equals(column.name)) {
+                    buffer.asDoubleBuffer().get(pointSet.lons);
+                } else if (IDS.equals(column.name)) {
+                    byte[][] ids = readBytes(buffer, n);
+                    for (int i = 0; i < n; i++) {
+                        if (ids[i] != null) pointSet.ids[i] = new String(ids[i], StandardCharsets.UTF_8);
+                    }
+                } else if (POLYGONS.equals(column.name)) {
+                    byte[][] polygons = readBytes(buffer, n);
+                    WKBReader wkbReader = new WKBReader();
+                    for (int i = 0; i < n; i++) {
+                        if (polygons[i] == null) continue;
+                        try {
+                            Geometry geometry = wkbReader.read(polygons[i]);
+                            pointSet.polygons[i] = (Polygon) geometry;
+                        } catch (ParseException e) {
+                            throw new IOException("Invalid polygon for feature " + i + " in " + file, e);
+                        }
+                    }
+                } else if (column.name.startsWith(PROPERTY_PREFIX)) {
+                    String propertyId = column.name.substring(PROPERTY_PREFIX.length());
+                    PropertyMetadata metadata = pointSet.getOrCreatePropertyForId(propertyId);
+                    metadata.label = column.label;
+                    if (column.style != null) metadata.style.attributes.putAll(column.style);
+                    buffer.asIntBuffer().get(pointSet.properties.get(propertyId));
+                } else {
+                    LOG.warn("Skipping unknown column {} in {}", column.name, file);
+                }
+            }
+            return pointSet;
+        }
+    }
+
+    private static Column column (String name, ColumnType type, long length) {
+        Column column = new Column();
+        column.name = name;
+        column.type = type;
+        column.length = length;
+        return column;
+    }
+
+    /** Set the offsets of the columns so that they follow each other from the given position, aligned on 8 bytes. */
+    private static void layOut (Header header, long position) {
+        for (Column column : header.columns) {
+            position = (position + 7) & ~7L;
+            column.offset = position;
+            position += column.length;
+        }
+    }
+
+    /** Byte strings are stored as their lengths (-1 for null) followed by their concatenated contents. */
+    private static long bytesLength (byte[][] values) {
+        long length = values.length * 4L;
+        for (byte[] value : values) {
+            if (value != null) length += value.length;
+        }
+        return length;
+    }
+
+    private static void writeBytes (DataOutputStream out, byte[][] values) throws IOException {
+        for (byte[] value : values) {
+            out.writeInt(value == null ? -1 : value.length);
+        }
+        for (byte[] value : values) {
+            if (value != null) out.write(value);
+        }
+    }
+
+    private static byte[][] readBytes (ByteBuffer buffer, int n) {
+        int[] lengths = new int[n];
+        buffer.asIntBuffer().get(lengths);
+        buffer.position(n * 4);
+        byte[][] values = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            if (lengths[i] >= 0) {
+                values[i] = new byte[lengths[i]];
+                buffer.get(values[i]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return the columnar file caching the given pointset source file, in the same directory with the same base
+     * name. It is not checked whether it exists.
+     */
+    public static File cacheFileFor (File sourceFile) {
+        String name = sourceFile.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot < 0 ? name : name.substring(0, dot);
+        return new File(sourceFile.getAbsoluteFile().getParentFile(), baseName + EXTENSION);
+    }
+
+    /**
+     * Load a pointset from the columnar file caching the given source file if it exists and is newer than the source.
+     * Otherwise load the source file with the given loader, and write the columnar file for next time.
+     */
+    public static PointSet loadCached (File sourceFile, PointSetLoader loader) throws IOException {
+        File cacheFile = cacheFileFor(sourceFile);
+        if (cacheFile.exists() && cacheFile.lastModified() >= sourceFile.lastModified()) {
+            try {
+                long t0 = System.currentTimeMillis();
+                PointSet pointSet = read(cacheFile);
+                LOG.info("Loaded pointset from {} in {} msec.", cacheFile, System.currentTimeMillis() - t0);
+                return pointSet;
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Could not read cached pointset {}, reloading from source.", cacheFile, e);
+            }
+        }
+        PointSet pointSet = loader.load(sourceFile);
+        if (pointSet != null) {
+            try {
+                write(pointSet, cacheFile);
+            } catch (IOException e) {
+                LOG.warn("Could not write cached pointset {}.", cacheFile, e);
+            }
+        }
+        return pointSet;
+    }
+
+    /** Loads a pointset from a source file in some other format. */
+    public interface PointSetLoader {
+        PointSet load (File file) throws IOException;
+    }
+
+}
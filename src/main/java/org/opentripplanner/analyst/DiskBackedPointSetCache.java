@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 
 public class DiskBackedPointSetCache extends PointSetCache {
 	
@@ -23,8 +24,14 @@ public class DiskBackedPointSetCache extends PointSetCache {
                 LOG.error("'{}' is not a readable directory.", pointSetPath);
                 return null;
             }
+			File columnarFile = null;
     		for (File file : pointSetPath.listFiles()) {
                 if(file.getName().toLowerCase().startsWith(pointSetId.toLowerCase())) {
+					// Columnar files cache the source files, and are only used directly if the source is gone.
+					if (file.getName().endsWith(ColumnarPointSetFile.EXTENSION)) {
+						columnarFile = file;
+						continue;
+					}
 					LOG.info("Attempting to load pointset from '{}'.", file);
                 	PointSet pointSet = this.loadFromFile(file);
                 	if(pointSet == null) {
@@ -35,11 +42,32 @@ public class DiskBackedPointSetCache extends PointSetCache {
 					}
                 }
             }
+			if (columnarFile != null) {
+				LOG.info("Loading pointset from '{}'.", columnarFile);
+				return ColumnarPointSetFile.read(columnarFile);
+			}
 			LOG.error("No file was found with the given pointset name.");
 			return null;
 		}
 		
+		/**
+		 * Load the pointset from the given source file, or from the columnar file caching it if that is up to date.
+		 * The columnar file is written after parsing the source, so each source file is only parsed once.
+		 */
 		public PointSet loadFromFile(File pointSetData) {
+			String name = pointSetData.getName();
+			if (!name.endsWith(".csv") && !name.endsWith(".json")) {
+				return null;
+			}
+			try {
+				return ColumnarPointSetFile.loadCached(pointSetData, this::parseFile);
+			} catch (IOException ioex) {
+				LOG.warn("Exception while loading pointset.", ioex);
+				return null;
+			}
+		}
+
+		private PointSet parseFile(File pointSetData) {
 			
 			String name = pointSetData.getName();
 			
@@ -98,8 +126,15 @@ public class DiskBackedPointSetCache extends PointSetCache {
 		        String baseName = name.substring(0, name.length() - 5);
 		        ids.add(baseName);
 			}
+			else if (name.endsWith(ColumnarPointSetFile.EXTENSION)) {
+				String baseName = name.substring(0, name.length() - ColumnarPointSetFile.EXTENSION.length());
+				ids.add(baseName);
+			}
 		}
 
+		// A source file and the columnar file caching it have the same base name.
+		ids = new ArrayList<String>(new LinkedHashSet<String>(ids));
+
 		return ids;
 	}
 	
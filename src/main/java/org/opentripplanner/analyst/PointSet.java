@@ -492,6 +492,36 @@ public class PointSet implements Serializable {
         return sampleSet;
     }
 
+    /**
+     * Like getOrCreateSampleSet(Graph), but first tries to load the linkage from the given directory, where it is
+     * saved after linking for use by later processes. Pointsets without an ID are linked but not saved.
+     */
+    public SampleSet getOrCreateSampleSet(Graph graph, File linkageDirectory) {
+        SampleSet sampleSet = this.samples.get(graph.routerId);
+        if (sampleSet != null) return sampleSet;
+        if (this.id == null || linkageDirectory == null) return getOrCreateSampleSet(graph);
+
+        File linkageFile = new File(linkageDirectory, this.id + SampleSet.EXTENSION);
+        if (linkageFile.exists()) {
+            try {
+                sampleSet = SampleSet.read(linkageFile, this, graph);
+            } catch (IOException e) {
+                LOG.warn("Could not read linkage {}, relinking.", linkageFile, e);
+            }
+        }
+        if (sampleSet == null) {
+            sampleSet = new SampleSet(this, graph.getSampleFactory());
+            try {
+                linkageDirectory.mkdirs();
+                sampleSet.write(linkageFile, graph);
+            } catch (IOException e) {
+                LOG.warn("Could not save linkage {}.", linkageFile, e);
+            }
+        }
+        this.samples.put(graph.routerId, sampleSet);
+        return sampleSet;
+    }
+
     /** 
      * gets a sample set for a graph object -- does not require graph service to be set 
      * @param g a graph objects
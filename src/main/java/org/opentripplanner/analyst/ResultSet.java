@@ -11,6 +11,7 @@ import org.opentripplanner.api.resource.LIsochrone;
 import org.opentripplanner.api.resource.SurfaceResource;
 import org.opentripplanner.common.geometry.ZSampleGrid;
 import org.opentripplanner.profile.IsochroneGenerator;
+import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,11 +58,14 @@ public class ResultSet implements Serializable{
 
     /** Build a new ResultSet by evaluating the given TimeSurface at all the given sample points, not including times. */
     public ResultSet(SampleSet samples, TimeSurface surface){
-        this(samples, surface, false, false);
+        this(samples, surface, null, false, false);
     }
 
-    /** Build a new ResultSet by evaluating the given TimeSurface at all the given sample points, optionally including times. */
-    public ResultSet(SampleSet samples, TimeSurface surface, boolean includeTimes, boolean includeIsochrones){
+    /**
+     * Build a new ResultSet by evaluating the given TimeSurface at all the given sample points, optionally including
+     * times. The graph on which the surface was made is only needed when including isochrones.
+     */
+    public ResultSet(SampleSet samples, TimeSurface surface, Graph graph, boolean includeTimes, boolean includeIsochrones){
         id = samples.pset.id + "_" + surface.id;
 
         PointSet targets = samples.pset;
@@ -73,11 +77,11 @@ public class ResultSet implements Serializable{
             this.times = times;
 
         if (includeIsochrones)
-            buildIsochrones(surface);
+            buildIsochrones(surface, graph);
     }
 
-    private void buildIsochrones(TimeSurface surface) {
-        List<IsochroneData> id = SurfaceResource.getIsochronesAccumulative(surface, 5, 24);
+    private void buildIsochrones(TimeSurface surface, Graph graph) {
+        List<IsochroneData> id = SurfaceResource.getIsochronesAccumulative(surface, graph, 5, 24);
         this.isochrones = new IsochroneData[id.size()];
         id.toArray(this.isochrones);
     }
@@ -94,8 +98,8 @@ public class ResultSet implements Serializable{
      * Build a new ResultSet that contains only isochrones, built by accumulating the times at all street vertices
      * into a regular grid without an intermediate pointSet.
      */
-    public ResultSet (TimeSurface surface) {
-        buildIsochrones(surface);
+    public ResultSet (TimeSurface surface, Graph graph) {
+        buildIsochrones(surface, graph);
     }
 
     /** Build a new ResultSet directly from times at point features, optionally including histograms or interpolating isochrones */
@@ -1,14 +1,49 @@
 package org.opentripplanner.analyst;
 
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import org.opentripplanner.analyst.core.Sample;
 import org.opentripplanner.analyst.request.SampleFactory;
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
 
 /**
  * We never use samples in isolation, so let's store them as a column store.
+ *
+ * Linking a large pointset to the street network takes minutes, so a SampleSet can be saved to a linkage file and
+ * loaded again by later processes using the same graph. Vertex indexes are assigned anew each time a graph is built or
+ * loaded, so the file refers to vertices by label. It also records what it was made from (the OTP version, the graph
+ * and the pointset coordinates) and is ignored when any of those have changed.
  */
 public class SampleSet {
 
+    private static final Logger LOG = LoggerFactory.getLogger(SampleSet.class);
+
+    /** The file extension used for saved linkages. */
+    public static final String EXTENSION = ".linkage";
+
+    private static final int MAGIC = 0x4f54504c; // "OTPL"
+
+    /** Increment this when the linkage file format or the way points are linked changes. */
+    private static final int VERSION = 1;
+
     public final PointSet pset;
 
     /* Vertices at the two ends of a road, one per sample. */
@@ -25,18 +60,139 @@ public class SampleSet {
         v1s = new Vertex[pset.capacity];
         d0s = new float[pset.capacity];
         d1s = new float[pset.capacity];
+        if (pset.capacity == 0) return;
+        long startTime = System.currentTimeMillis();
+        // Link the first point on its own, as some spatial indexes build themselves lazily on the first query and
+        // that is not thread safe. Queries are read-only after that, and every point is independent of the others.
+        link(sfac, 0);
+        IntStream.range(1, pset.capacity).parallel().forEach(i -> link(sfac, i));
+        LOG.info("Linked {} points in {} msec.", pset.capacity, System.currentTimeMillis() - startTime);
+    }
+
+    /** Make an empty SampleSet to be filled in from a linkage file. */
+    private SampleSet (PointSet pset) {
+        this.pset = pset;
+        v0s = new Vertex[pset.capacity];
+        v1s = new Vertex[pset.capacity];
+        d0s = new float[pset.capacity];
+        d1s = new float[pset.capacity];
+    }
+
+    private void link (SampleFactory sfac, int i) {
+        Sample sample = sfac.getSample(pset.lons[i], pset.lats[i]);
+        if (sample == null) {
+            d0s[i] = Float.NaN;
+            d1s[i] = Float.NaN;
+            return;
+        }
+        v0s[i] = sample.v0;
+        v1s[i] = sample.v1;
+        d0s[i] = sample.d0;
+        d1s[i] = sample.d1;
+    }
+
+    /**
+     * Save this linkage to the given file, to be loaded with read() by later processes using the same graph. The
+     * labels of the linked vertices are written once each, and the samples refer to them by their position in that
+     * table. The file is written under a temporary name then moved into place, so readers never see partial files.
+     */
+    public void write (File file, Graph graph) throws IOException {
+        TObjectIntMap<String> labelIndex = new TObjectIntHashMap<>(16, 0.5f, -1);
+        List<String> labels = new ArrayList<>();
+        int[] l0s = new int[pset.capacity];
+        int[] l1s = new int[pset.capacity];
         for (int i = 0; i < pset.capacity; i++) {
-            Sample sample = sfac.getSample(pset.lons[i], pset.lats[i]);
-            if (sample == null) {
-                d0s[i] = Float.NaN;
-                d1s[i] = Float.NaN;
-                continue;
+            l0s[i] = labelIndex(v0s[i], labelIndex, labels);
+            l1s[i] = labelIndex(v1s[i], labelIndex, labels);
+        }
+
+        File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(MavenVersion.VERSION.getUID());
+            out.writeUTF(String.valueOf(graph.routerId));
+            out.writeInt(graph.countVertices());
+            out.writeInt(pset.capacity);
+            out.writeLong(coordinateHash(pset));
+            out.writeInt(labels.size());
+            for (String label : labels) {
+                out.writeUTF(label);
+            }
+            for (int i = 0; i < pset.capacity; i++) {
+                out.writeInt(l0s[i]);
+                out.writeInt(l1s[i]);
+                out.writeFloat(d0s[i]);
+                out.writeFloat(d1s[i]);
+            }
+        } catch (IOException | RuntimeException e) {
+            tempFile.delete();
+            throw e;
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        LOG.info("Saved linkage of {} points to {}", pset.capacity, file);
+    }
+
+    private static int labelIndex (Vertex vertex, TObjectIntMap<String> labelIndex, List<String> labels) {
+        if (vertex == null) return -1;
+        int index = labelIndex.get(vertex.getLabel());
+        if (index == -1) {
+            index = labels.size();
+            labels.add(vertex.getLabel());
+            labelIndex.put(vertex.getLabel(), index);
+        }
+        return index;
+    }
+
+    /**
+     * Load a linkage of the given pointset to the given graph saved with write().
+     * @return the SampleSet, or null if the file was made with another version of OTP, another graph or another
+     * pointset, or refers to vertices that are not in the graph.
+     */
+    public static SampleSet read (File file, PointSet pset, Graph graph) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != MavenVersion.VERSION.getUID()) {
+                LOG.info("Linkage {} was saved by another version of OTP.", file);
+                return null;
             }
-            v0s[i] = sample.v0;
-            v1s[i] = sample.v1;
-            d0s[i] = sample.d0;
-            d1s[i] = sample.d1;
+            if (!String.valueOf(graph.routerId).equals(in.readUTF()) || in.readInt() != graph.countVertices()) {
+                LOG.info("Linkage {} was made for another graph.", file);
+                return null;
+            }
+            if (in.readInt() != pset.capacity || in.readLong() != coordinateHash(pset)) {
+                LOG.info("Linkage {} was made for another pointset.", file);
+                return null;
+            }
+            Vertex[] vertices = new Vertex[in.readInt()];
+            for (int v = 0; v < vertices.length; v++) {
+                String label = in.readUTF();
+                vertices[v] = graph.getVertex(label);
+                if (vertices[v] == null) {
+                    LOG.info("Linkage {} refers to vertex {} which is not in the graph.", file, label);
+                    return null;
+                }
+            }
+            SampleSet sampleSet = new SampleSet(pset);
+            for (int i = 0; i < pset.capacity; i++) {
+                int l0 = in.readInt();
+                int l1 = in.readInt();
+                sampleSet.v0s[i] = l0 == -1 ? null : vertices[l0];
+                sampleSet.v1s[i] = l1 == -1 ? null : vertices[l1];
+                sampleSet.d0s[i] = in.readFloat();
+                sampleSet.d1s[i] = in.readFloat();
+            }
+            return sampleSet;
+        }
+    }
+
+    /** A hash of the coordinates of all the points, to detect linkages made for a changed pointset. */
+    private static long coordinateHash (PointSet pset) {
+        long hash = 17;
+        for (int i = 0; i < pset.capacity; i++) {
+            hash = hash * 31 + Double.doubleToLongBits(pset.lats[i]);
+            hash = hash * 31 + Double.doubleToLongBits(pset.lons[i]);
         }
+        return hash;
     }
 
     public int[] eval (TimeSurface surf) {
@@ -1,9 +1,6 @@
 package org.opentripplanner.analyst;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import gnu.trove.iterator.TObjectIntIterator;
-import gnu.trove.map.TObjectIntMap;
-import gnu.trove.map.hash.TObjectIntHashMap;
 import org.apache.commons.math3.util.FastMath;
 import org.opentripplanner.analyst.request.SampleGridRenderer;
 import org.opentripplanner.analyst.request.SampleGridRenderer.WTWD;
@@ -18,6 +15,7 @@ import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
 import org.opentripplanner.profile.RoundBasedProfileRouter;
 import org.opentripplanner.profile.TimeRange;
 import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.vertextype.StreetVertex;
@@ -41,7 +39,7 @@ public class TimeSurface implements Serializable {
 
     public final String routerId;
     public final int id;
-    public final TObjectIntMap<Vertex> times = new TObjectIntHashMap<Vertex>(500000, 0.5f, UNREACHABLE);
+    public final VertexTimes times;
     public final double lat, lon;
     public int cutoffMinutes = 90; // this should really be copied from the data source but the new repeated raptor does not do so
     public long dateTime;
@@ -69,6 +67,7 @@ public class TimeSurface implements Serializable {
         // We don't want to keep that default in sync across two modules.
         this.routerId = routerId;
         long t0 = System.currentTimeMillis();
+        times = VertexTimes.forExpectedSize(spt.getVertexCount());
         for (State state : spt.getAllStates()) {
             Vertex vertex = state.getVertex();
             if (vertex instanceof StreetVertex || vertex instanceof TransitStop) {
@@ -79,6 +78,7 @@ public class TimeSurface implements Serializable {
                 }
             }
         }
+        times.trimToSize();
         // TODO make this work as either to or from query
         GenericLocation from = spt.getOptions().from;
         this.lon = from.lng;
@@ -99,6 +99,7 @@ public class TimeSurface implements Serializable {
         lat = req.fromLat;
         id = makeUniqueId();
         dateTime = req.fromTime; // FIXME
+        times = new VertexTimes();
         routerId = profileRouter.graph.routerId;
         cutoffMinutes = profileRouter.MAX_DURATION / 60;
         walkSpeed = profileRouter.request.walkSpeed;
@@ -113,6 +114,7 @@ public class TimeSurface implements Serializable {
         lat = req.fromLat;
         id = makeUniqueId();
         dateTime = req.fromTime; // FIXME
+        times = new VertexTimes();
         routerId = profileRouter.graph.routerId;
         cutoffMinutes = profileRouter.MAX_DURATION / 60;
         walkSpeed = profileRouter.request.walkSpeed;
@@ -125,6 +127,7 @@ public class TimeSurface implements Serializable {
         lat = req.fromLat;
         id = makeUniqueId();
         dateTime = req.fromTime; // FIXME
+        times = new VertexTimes();
         routerId = profileRouter.graph.routerId;
     }
 
@@ -134,6 +137,7 @@ public class TimeSurface implements Serializable {
         lat = req.fromLat;
         id = makeUniqueId();
         dateTime = req.fromTime; // FIXME
+        times = new VertexTimes();
         routerId = profileRouter.graph.routerId;
         cutoffMinutes = 120; // FIXME is there any well-defined cutoff? This is needed for generating isochrone curves.
     }
@@ -149,6 +153,9 @@ public class TimeSurface implements Serializable {
             avgSurface.times.put(v, tr.avg);
             maxSurface.times.put(v, tr.max);
         }
+        minSurface.times.trimToSize();
+        avgSurface.times.trimToSize();
+        maxSurface.times.trimToSize();
         RangeSet result = new RangeSet();
         minSurface.description = "Travel times assuming best luck (never waiting for a transfer).";
         avgSurface.description = "Expected travel times (average wait for every transfer).";
@@ -170,6 +177,11 @@ public class TimeSurface implements Serializable {
         return times.get(v);
     }
 
+    /** @return the time at the vertex with the given index, or UNREACHABLE. */
+    public int getTime(int vertexIndex) {
+        return times.get(vertexIndex);
+    }
+
     private synchronized int makeUniqueId() {
         int id = nextId++;
         return id;
@@ -197,8 +209,9 @@ public class TimeSurface implements Serializable {
     /**
      * Create the SampleGrid from whatever values are already in the TimeSurface, rather than looking at the SPT.
      * This is not really ideal since it includes only intersection nodes, and no points along the road segments.
+     * The times are keyed on vertex index, so the graph the surface was made on is needed to find their coordinates.
      */
-    public void makeSampleGridWithoutSPT () {
+    public void makeSampleGridWithoutSPT (Graph graph) {
         long t0 = System.currentTimeMillis();
         final double gridSizeMeters = 300; // Todo: set dynamically and make sure this matches isoline builder params
         // Off-road max distance MUST be APPROX EQUALS to the grid precision
@@ -215,10 +228,10 @@ public class TimeSurface implements Serializable {
         AccumulativeGridSampler<WTWD> sampler = new AccumulativeGridSampler<WTWD>(sampleGrid, metric);
         // Iterate over every vertex in this timesurface, adding it to the ZSampleGrid
         // TODO propagation along street geometries could happen at this stage, rather than when the SPT is still available.
-        for (TObjectIntIterator<Vertex> iter = times.iterator(); iter.hasNext(); ) {
-            iter.advance();
-            Vertex vertex = iter.key();
-            int time = iter.value();
+        for (Vertex vertex : graph.getVertices()) {
+            int time = times.get(vertex);
+            if (time == UNREACHABLE)
+                continue;
             WTWD z = new WTWD();
             z.w = 1.0;
             z.d = 0.0;
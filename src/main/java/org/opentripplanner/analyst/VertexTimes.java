@@ -0,0 +1,162 @@
+package org.opentripplanner.analyst;
+
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.opentripplanner.routing.graph.Vertex;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Travel times in seconds to the vertices of a graph, keyed on Vertex.getIndex(). This replaces a hash map from Vertex
+ * objects to times, which for a surface covering a city used several times as much memory as the times themselves.
+ *
+ * Times are normally stored in a dense array with one slot per vertex index, up to the highest index that has a
+ * time. The array grows as times are added and can be trimmed once the surface is complete, so a surface does not
+ * hold a slot for every vertex in the graph unless it reaches the vertices with the highest indexes. As long as all
+ * times are under 65535 seconds (over 18 hours, far beyond any analysis cutoff) the array holds chars, i.e. two bytes
+ * per slot. The first longer time switches the storage to an int array. Surfaces expected to reach only a small part
+ * of the graph (short street searches) use a sparse primitive hash map instead.
+ */
+public class VertexTimes implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Returned for vertices that have no time. This is the same value as TimeSurface.UNREACHABLE. */
+    public static final int UNREACHABLE = -1;
+
+    /** Marks vertices that have no time in the char array. */
+    private static final char NO_TIME = Character.MAX_VALUE;
+
+    /**
+     * Below this fraction of the vertices in the graph, a sparse map uses less memory than a dense char array. Each
+     * map entry takes an int key and an int value in arrays kept less than half full.
+     */
+    private static final double SPARSE_FRACTION = 1.0 / 10;
+
+    /** Dense storage of times that all fit in a char, or null if another storage is in use. */
+    private char[] charTimes;
+
+    /** Dense storage of times once one of them does not fit in a char, or null if another storage is in use. */
+    private int[] intTimes;
+
+    /** Sparse storage, or null if times are stored densely. */
+    private TIntIntHashMap sparseTimes;
+
+    /** The number of vertices that have a time. */
+    private int size = 0;
+
+    /** Create dense storage, which grows to cover the highest vertex index given a time. */
+    public VertexTimes () {
+        this(false);
+    }
+
+    private VertexTimes (boolean sparse) {
+        if (sparse) {
+            sparseTimes = new TIntIntHashMap(16, 0.5f, -1, UNREACHABLE);
+        } else {
+            charTimes = new char[0];
+        }
+    }
+
+    /** Create storage suited to a surface that will hold times for about the given number of vertices. */
+    public static VertexTimes forExpectedSize (int expectedSize) {
+        return new VertexTimes(expectedSize < Vertex.getMaxIndex() * SPARSE_FRACTION);
+    }
+
+    public int get (Vertex vertex) {
+        return get(vertex.getIndex());
+    }
+
+    /** @return the time at the vertex with the given index, or UNREACHABLE. */
+    public int get (int index) {
+        if (charTimes != null) {
+            if (index >= charTimes.length) return UNREACHABLE;
+            char time = charTimes[index];
+            return time == NO_TIME ? UNREACHABLE : time;
+        } else if (intTimes != null) {
+            return index < intTimes.length ? intTimes[index] : UNREACHABLE;
+        } else {
+            return sparseTimes.get(index);
+        }
+    }
+
+    public void put (Vertex vertex, int time) {
+        put(vertex.getIndex(), time);
+    }
+
+    /** Set the time at the vertex with the given index. Times must not be negative. */
+    public void put (int index, int time) {
+        if (time < 0) {
+            throw new IllegalArgumentException("Negative travel time " + time);
+        }
+        if (sparseTimes != null) {
+            if (sparseTimes.put(index, time) == UNREACHABLE) size++;
+            return;
+        }
+        if (charTimes != null && time >= NO_TIME) {
+            // This time does not fit in a char, switch to ints.
+            intTimes = new int[charTimes.length];
+            for (int i = 0; i < charTimes.length; i++) {
+                intTimes[i] = charTimes[i] == NO_TIME ? UNREACHABLE : charTimes[i];
+            }
+            charTimes = null;
+        }
+        if (charTimes != null) {
+            if (index >= charTimes.length) {
+                int oldLength = charTimes.length;
+                charTimes = Arrays.copyOf(charTimes, grownLength(oldLength, index));
+                Arrays.fill(charTimes, oldLength, charTimes.length, NO_TIME);
+            }
+            if (charTimes[index] == NO_TIME) size++;
+            charTimes[index] = (char) time;
+        } else {
+            if (index >= intTimes.length) {
+                int oldLength = intTimes.length;
+                intTimes = Arrays.copyOf(intTimes, grownLength(oldLength, index));
+                Arrays.fill(intTimes, oldLength, intTimes.length, UNREACHABLE);
+            }
+            if (intTimes[index] == UNREACHABLE) size++;
+            intTimes[index] = time;
+        }
+    }
+
+    /**
+     * @return the length to grow a dense array to so that it covers the given index. Arrays grow by half again so
+     * that filling a surface copies them a bounded number of times, but not past the number of vertices in the graph
+     * unless the index is beyond them (vertices may be created after this storage, e.g. temporary vertices).
+     */
+    private static int grownLength (int oldLength, int index) {
+        return Math.max(index + 1, Math.min(oldLength + (oldLength >> 1), Vertex.getMaxIndex()));
+    }
+
+    /**
+     * Shrink dense storage to end at the highest vertex index that has a time, dropping the slack left by growing it.
+     * This should be called once all the times of a surface have been added.
+     */
+    public void trimToSize () {
+        if (charTimes != null) {
+            int length = charTimes.length;
+            while (length > 0 && charTimes[length - 1] == NO_TIME) length--;
+            if (length < charTimes.length) charTimes = Arrays.copyOf(charTimes, length);
+        } else if (intTimes != null) {
+            int length = intTimes.length;
+            while (length > 0 && intTimes[length - 1] == UNREACHABLE) length--;
+            if (length < intTimes.length) intTimes = Arrays.copyOf(intTimes, length);
+        }
+    }
+
+    /** @return the number of slots in the dense storage, or zero if times are stored sparsely. */
+    int capacity () {
+        return charTimes != null ? charTimes.length : intTimes != null ? intTimes.length : 0;
+    }
+
+    /** @return the number of vertices that have a time. */
+    public int size () {
+        return size;
+    }
+
+    public boolean isSparse () {
+        return sparseTimes != null;
+    }
+
+}
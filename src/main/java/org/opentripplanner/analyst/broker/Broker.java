@@ -5,15 +5,9 @@ import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
-import com.google.common.collect.TreeMultimap;
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TObjectLongMap;
-import gnu.trove.map.hash.TIntIntHashMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
 import org.glassfish.grizzly.http.server.Request;
 import org.glassfish.grizzly.http.server.Response;
@@ -31,6 +25,14 @@ import java.io.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class tracks incoming requests from workers to consume Analyst tasks, and attempts to match those
@@ -53,6 +55,12 @@ import java.util.*;
  *
  * It may also be helpful to mark jobs every time they are skipped in the LRU queue. Each time a job is serviced,
  * it is taken out of the queue and put at its end. Jobs that have not been serviced float to the top.
+ *
+ * The HTTP threads registering workers, enqueueing tasks and acknowledging completed tasks do not share a lock: jobs,
+ * waiting workers and tasks are kept in concurrent collections, grouped by graph, and each Job guards its own task
+ * bookkeeping. A single delivery thread matches tasks to waiting workers. It sleeps until one of the other threads
+ * signals that something has changed, or until the next redelivery check is due. Each worker is handed a batch of
+ * tasks sized to its throughput, as measured from its completion acknowledgements (see WorkerThroughput).
  */
 public class Broker implements Runnable {
 
@@ -63,9 +71,22 @@ public class Broker implements Runnable {
     /* How often we should check for delivered tasks that have timed out. */
     private static final int REDELIVERY_INTERVAL_SEC = 10;
 
-    public final CircularList<Job> jobs = new CircularList<>();
+    /** All jobs keyed on their job ID. */
+    private final Map<String, Job> jobsById = new ConcurrentHashMap<>();
 
-    /** the most tasks to deliver to a worker at a time */
+    /**
+     * Jobs grouped by the graph they need. The delivery thread cycles through each queue, taking a job off the front
+     * and putting it back on the end, so that the jobs on a graph are served fairly.
+     */
+    private final Map<String, Queue<Job>> jobsByGraph = new ConcurrentHashMap<>();
+
+    /**
+     * Each batch of enqueued tasks receives a contiguous range of task IDs, so the job for a task is found by looking
+     * up the batch with the greatest first task ID not above it, rather than searching all jobs.
+     */
+    private final ConcurrentSkipListMap<Integer, Job> jobsByFirstTaskId = new ConcurrentSkipListMap<>();
+
+    /** the most high-priority tasks to deliver to a worker at a time */
     public final int MAX_TASKS_PER_WORKER = 8;
 
     /**
@@ -74,11 +95,11 @@ public class Broker implements Runnable {
      */
     public static final long WORKER_STARTUP_TIME = 60 * 60 * 1000;
 
-    private int nUndeliveredTasks = 0; // Including normal priority jobs and high-priority tasks.
+    private final AtomicInteger nUndeliveredTasks = new AtomicInteger(); // Including normal priority jobs and high-priority tasks.
 
-    private int nWaitingConsumers = 0; // including some that might be closed
+    private final AtomicInteger nWaitingConsumers = new AtomicInteger(); // including some that might be closed
 
-    private int nextTaskId = 0;
+    private final AtomicInteger nextTaskId = new AtomicInteger();
 
     /** Maximum number of workers allowed */
     private int maxWorkers;
@@ -87,6 +108,9 @@ public class Broker implements Runnable {
 
     private long nextRedeliveryCheckTime = System.currentTimeMillis();
 
+    /** Released by any thread that adds tasks or consumers, to wake up the delivery thread. */
+    private final Semaphore deliverySignal = new Semaphore(0);
+
     static {
         mapper.registerModule(FeedScopedIdSerializer.makeModule());
         mapper.registerModule(QualifiedModeSetSerializer.makeModule());
@@ -102,8 +126,8 @@ public class Broker implements Runnable {
 
     private WorkerCatalog workerCatalog = new WorkerCatalog();
 
-    /** The time at which each task was delivered to a worker, to allow re-delivery. */
-    TIntIntMap deliveryTimes = new TIntIntHashMap();
+    /** The measured throughput of each worker, keyed on worker ID. */
+    private final Map<String, WorkerThroughput> throughputByWorkerId = new ConcurrentHashMap<>();
 
     /**
      * Requests that are not part of a job and can "cut in line" in front of jobs for immediate execution.
@@ -111,7 +135,7 @@ public class Broker implements Runnable {
      * the side channels. If that doesn't work, we put them here to be picked up the next time a worker
      * is available via normal task distribution channels.
      */
-    private ArrayListMultimap<String, AnalystClusterRequest> stalledHighPriorityTasks = ArrayListMultimap.create();
+    private final Map<String, Queue<AnalystClusterRequest>> stalledHighPriorityTasks = new ConcurrentHashMap<>();
 
     /**
      * High priority requests that have just come and are about to be sent down a single point channel.
@@ -120,21 +144,21 @@ public class Broker implements Runnable {
      * two different workers because the second came in in between closing the side channel and the worker
      * reopening it.
      */
-    private Multimap<String, AnalystClusterRequest> newHighPriorityTasks = ArrayListMultimap.create();
+    private final Map<String, Queue<AnalystClusterRequest>> newHighPriorityTasks = new ConcurrentHashMap<>();
 
     /** Priority requests that have already been farmed out to workers, and are awaiting a response. */
-    private TIntObjectMap<Response> highPriorityResponses = new TIntObjectHashMap<>();
+    private final Map<Integer, Response> highPriorityResponses = new ConcurrentHashMap<>();
 
     /** Outstanding requests from workers for tasks, grouped by worker graph affinity. */
-    Map<String, Deque<Response>> consumersByGraph = new HashMap<>();
+    final Map<String, Deque<Response>> consumersByGraph = new ConcurrentHashMap<>();
 
     /**
      * Side channels used to send single point requests to workers, cutting in front of any other work on said workers.
-     * We use a TreeMultimap because it is ordered, and the wrapped response defines an order based on
+     * We use sorted sets because the wrapped response defines an order based on
      * machine ID. This way, the same machine will tend to get all single point work for a graph,
      * so multiple machines won't stay alive to do single point work.
      */
-    private Multimap<String, WrappedResponse> singlePointChannels = TreeMultimap.create();
+    private final Map<String, NavigableSet<WrappedResponse>> singlePointChannels = new ConcurrentHashMap<>();
 
     /** should we work offline */
     private boolean workOffline;
@@ -207,7 +231,7 @@ public class Broker implements Runnable {
      * Enqueue a task for execution ASAP, planning to return the response over the same HTTP connection.
      * Low-reliability, no re-delivery.
      */
-    public synchronized void enqueuePriorityTask (AnalystClusterRequest task, Response response) {
+    public void enqueuePriorityTask (AnalystClusterRequest task, Response response) {
         boolean workersAvailable = workersAvailableForGraph(task.graphId);
 
         if (!workersAvailable) {
@@ -226,9 +250,9 @@ public class Broker implements Runnable {
         // note that this will mean that requests get delivered multiple times in offline mode,
         // so some unnecessary computation takes place
         if (workersAvailable || workOffline) {
-            task.taskId = nextTaskId++;
-            newHighPriorityTasks.put(task.graphId, task);
+            task.taskId = nextTaskId.getAndIncrement();
             highPriorityResponses.put(task.taskId, response);
+            newHighPriorityTasks.computeIfAbsent(task.graphId, g -> new ConcurrentLinkedQueue<>()).add(task);
 
             // wait 100ms to deliver to workers in case another request comes in almost simultaneously
             timer.schedule(new TimerTask() {
@@ -243,80 +267,81 @@ public class Broker implements Runnable {
     }
 
     /** attempt to deliver high priority tasks via side channels, or move them into normal channels if need be */
-    public synchronized void deliverHighPriorityTasks (String graphId) {
-        Collection<AnalystClusterRequest> tasks = newHighPriorityTasks.get(graphId);
+    public void deliverHighPriorityTasks (String graphId) {
+        List<AnalystClusterRequest> tasks = new ArrayList<>();
+        Queue<AnalystClusterRequest> newTasks = newHighPriorityTasks.get(graphId);
+        for (AnalystClusterRequest task; newTasks != null && (task = newTasks.poll()) != null; ) {
+            tasks.add(task);
+        }
 
         if (tasks.isEmpty())
             // someone got here first
             return;
 
-        // try to deliver via side channels
-        Collection<WrappedResponse> wrs = singlePointChannels.get(graphId);
+        // try to deliver via side channels, removing the channel whether it is dead or alive
+        NavigableSet<WrappedResponse> wrs = singlePointChannels.get(graphId);
+        WrappedResponse wr = wrs == null ? null : wrs.pollFirst();
 
-        if (!wrs.isEmpty()) {
+        if (wr != null) {
             // there is (probably) a single point machine waiting to receive this
-            WrappedResponse wr = wrs.iterator().next();
-
             try {
                 wr.response.setContentType("application/json");
                 OutputStream os = wr.response.getOutputStream();
                 mapper.writeValue(os, tasks);
                 os.close();
                 wr.response.resume();
-
-                newHighPriorityTasks.removeAll(graphId);
-
                 return;
             } catch (Exception e) {
                 LOG.info("Failed to deliver single point job via side channel, reverting to normal channel", e);
-            } finally {
-                // remove responses whether they are dead or alive
-                removeSinglePointChannel(graphId, wr);
             }
         }
 
         // if we got here we didn't manage to send it via side channel, put it in the rotation for normal channels
-        // not using putAll as it retains a link to the original collection and then we get a concurrent modification exception later.
-        tasks.forEach(t -> stalledHighPriorityTasks.put(graphId, t));
+        stalledHighPriorityTasks.computeIfAbsent(graphId, g -> new ConcurrentLinkedQueue<>()).addAll(tasks);
         LOG.info("No side channel available for graph {}, delivering {} tasks via normal channel",
                 graphId, tasks.size());
-        nUndeliveredTasks += tasks.size();
-        newHighPriorityTasks.removeAll(graphId);
+        nUndeliveredTasks.addAndGet(tasks.size());
 
         // wake up delivery thread
-        notify();
+        deliverySignal.release();
     }
 
     /** Enqueue some tasks for queued execution possibly much later. Results will be saved to S3. */
-    public synchronized void enqueueTasks (List<AnalystClusterRequest> tasks) {
+    public void enqueueTasks (List<AnalystClusterRequest> tasks) {
         Job job = findJob(tasks.get(0)); // creates one if it doesn't exist
 
         if (!workersAvailableForGraph(job.graphId))
             createWorkersForGraph(job.graphId);
 
+        // Reserve a contiguous range of task IDs for this batch, so the job can be found from any of them.
+        int taskId = nextTaskId.getAndAdd(tasks.size());
+        jobsByFirstTaskId.put(taskId, job);
         for (AnalystClusterRequest task : tasks) {
-            task.taskId = nextTaskId++;
+            task.taskId = taskId++;
             job.addTask(task);
-            nUndeliveredTasks += 1;
             LOG.debug("Enqueued task id {} in job {}", task.taskId, job.jobId);
             if ( ! task.graphId.equals(job.graphId)) {
                 LOG.warn("Task graph ID {} does not match job graph ID {}.", task.graphId, job.graphId);
             }
         }
+        nUndeliveredTasks.addAndGet(tasks.size());
         // Wake up the delivery thread if it's waiting on input.
-        // This wakes whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
+        deliverySignal.release();
     }
 
     public boolean workersAvailableForGraph (String graphId) {
         // make sure that we don't assign work to dead workers
         workerCatalog.purgeDeadWorkers();
 
-        return !workerCatalog.workersByGraph.get(graphId).isEmpty();
+        return workerCatalog.hasWorkers(graphId);
     }
 
-    /** Create workers for a given job, if need be */
-    public void createWorkersForGraph (String graphId) {
+    /**
+     * Create workers for a given job, if need be. This is synchronized as it modifies the shared worker config, and
+     * so that concurrent requests on the same graph do not all start workers. It is only called when there are no
+     * workers on a graph, so it does not slow down task handling on a running cluster.
+     */
+    public synchronized void createWorkersForGraph (String graphId) {
         String clientToken = UUID.randomUUID().toString().replaceAll("-", "");
 
         if (workOffline) {
@@ -324,7 +349,7 @@ public class Broker implements Runnable {
             return;
         }
 
-        if (workerCatalog.observationsByWorkerId.size() >= maxWorkers) {
+        if (workerCatalog.size() >= maxWorkers) {
             LOG.warn("{} workers already started, not starting more; jobs on graph {} will not complete", maxWorkers, graphId);
             return;
         }
@@ -390,36 +415,32 @@ public class Broker implements Runnable {
     }
 
     /** Consumer long-poll operations are enqueued here. */
-    public synchronized void registerSuspendedResponse(String graphId, Response response) {
+    public void registerSuspendedResponse(String graphId, Response response) {
         // Add this worker to our catalog, tracking its graph affinity and the last time it was seen.
         String workerId = response.getRequest().getHeader(AnalystWorker.WORKER_ID_HEADER);
         if (workerId != null && !workerId.isEmpty()) {
             workerCatalog.catalog(workerId, graphId);
+            WorkerThroughput throughput = throughputByWorkerId.get(workerId);
+            if (throughput != null) throughput.recordPoll();
         } else {
             LOG.error("Worker did not supply a unique ID for itself . Ignoring it.");
             return;
         }
         // Shelf this suspended response in a queue grouped by graph affinity.
-        Deque<Response> deque = consumersByGraph.get(graphId);
-        if (deque == null) {
-            deque = new ArrayDeque<>();
-            consumersByGraph.put(graphId, deque);
-        }
-        deque.addLast(response);
-        nWaitingConsumers += 1;
+        consumersByGraph.computeIfAbsent(graphId, g -> new ConcurrentLinkedDeque<>()).addLast(response);
+        nWaitingConsumers.incrementAndGet();
         // Wake up the delivery thread if it's waiting on consumers.
-        // This is whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
+        deliverySignal.release();
     }
 
     /** When we notice that a long poll connection has closed, we remove it here. */
-    public synchronized boolean removeSuspendedResponse(String graphId, Response response) {
+    public boolean removeSuspendedResponse(String graphId, Response response) {
         Deque<Response> deque = consumersByGraph.get(graphId);
         if (deque == null) {
             return false;
         }
         if (deque.remove(response)) {
-            nWaitingConsumers -= 1;
+            nWaitingConsumers.decrementAndGet();
             LOG.debug("Removed closed connection from queue.");
             logQueueStatus();
             return true;
@@ -431,22 +452,23 @@ public class Broker implements Runnable {
      * Register an HTTP connection that can be used to send single point requests directly to
      * workers, bypassing normal task distribution channels.
      */
-    public synchronized void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
-        singlePointChannels.put(graphAffinity, response);
+    public void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
+        singlePointChannels.computeIfAbsent(graphAffinity, g -> new ConcurrentSkipListSet<>()).add(response);
         // no need to notify as the side channels are not used by the normal task delivery loop
     }
 
     /**
      * Remove a single point channel because the connection was closed.
      */
-    public synchronized boolean removeSinglePointChannel (String graphAffinity, WrappedResponse response) {
-        return singlePointChannels.remove(graphAffinity, response);
+    public boolean removeSinglePointChannel (String graphAffinity, WrappedResponse response) {
+        NavigableSet<WrappedResponse> channels = singlePointChannels.get(graphAffinity);
+        return channels != null && channels.remove(response);
     }
 
     private void logQueueStatus() {
-        LOG.info("{} undelivered, of which {} high-priority", nUndeliveredTasks,
-                stalledHighPriorityTasks.size());
-        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nWaitingConsumers);
+        int nStalledHighPriority = stalledHighPriorityTasks.values().stream().mapToInt(Queue::size).sum();
+        LOG.info("{} undelivered, of which {} high-priority", nUndeliveredTasks.get(), nStalledHighPriority);
+        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nWaitingConsumers.get());
         LOG.info("{} total workers", workerCatalog.size());
     }
 
@@ -460,135 +482,154 @@ public class Broker implements Runnable {
             LOG.info("Scanning for redelivery...");
             int nRedelivered = 0;
             int nInvisible = 0;
-            for (Job job : jobs) {
-                nInvisible += job.invisibleUntil.size();
+            for (Job job : jobsById.values()) {
+                nInvisible += job.getInFlightTaskCount();
                 nRedelivered += job.redeliver();
             }
             LOG.info("{} tasks enqueued for redelivery out of {} invisible tasks.", nRedelivered, nInvisible);
-            nUndeliveredTasks += nRedelivered;
+            nUndeliveredTasks.addAndGet(nRedelivered);
+            // Forget the throughput of workers that have gone away, as the worker catalog does. Their tasks have
+            // either been redelivered above or will be once they reach the invisibility timeout.
+            throughputByWorkerId.values().removeIf(WorkerThroughput::isSilent);
         }
     }
 
     /**
      * This method checks whether there are any high-priority tasks or normal job tasks and attempts to match them with
-     * waiting workers. It blocks until there are tasks or workers available.
+     * waiting workers. It blocks until something changes or a redelivery check is due, so it must only be called
+     * from the single delivery thread.
      */
-    public synchronized void deliverTasks() throws InterruptedException {
+    public void deliverTasks() throws InterruptedException {
+
+        // Sleep until tasks or consumers are added, waking up regularly to redeliver timed-out tasks.
+        // Several changes may have been signalled while we were delivering; they are all handled in this pass.
+        deliverySignal.tryAcquire(REDELIVERY_INTERVAL_SEC, TimeUnit.SECONDS);
+        deliverySignal.drainPermits();
+        redeliver();
 
-        // Wait until there are some undelivered tasks.
-        while (nUndeliveredTasks == 0) {
+        if (nUndeliveredTasks.get() == 0) {
             LOG.debug("Task delivery thread is going to sleep, there are no tasks waiting for delivery.");
-            logQueueStatus();
-            wait();
-            redeliver();
+            return;
         }
-        LOG.debug("Task delivery thread is awake and there are some undelivered tasks.");
-        logQueueStatus();
-
-        while (nWaitingConsumers == 0) {
+        if (nWaitingConsumers.get() == 0) {
             LOG.debug("Task delivery thread is going to sleep, there are no consumers waiting.");
-            // Thread will be notified when there are new incoming consumer connections.
-            wait();
+            return;
         }
 
         LOG.debug("Task delivery thread awake; consumers are waiting and tasks are available");
+        logQueueStatus();
 
         // Loop over all jobs and send them to consumers
         // This makes for an as-fair-as-possible allocation: jobs are fairly allocated between
         // workers on their graph.
 
         // start with high-priority tasks
-        HIGHPRIORITY: for (Map.Entry<String, Collection<AnalystClusterRequest>> e : stalledHighPriorityTasks
-                .asMap().entrySet()) {
-            // the collection is an arraylist with the most recently added at the end
+        for (Map.Entry<String, Queue<AnalystClusterRequest>> e : stalledHighPriorityTasks.entrySet()) {
             String graphId = e.getKey();
-            Collection<AnalystClusterRequest> tasks = e.getValue();
-
-            // see if there are any consumers for this
-            // don't respect graph affinity when working offline; we can't arbitrarily start more workers
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
-            }
-
-            if (consumers == null || consumers.isEmpty()) {
-                LOG.warn("No consumer found for graph {}, needed for {} high-priority tasks", graphId, tasks.size());
-                continue HIGHPRIORITY;
-            }
-
-            Iterator<AnalystClusterRequest> taskIt = tasks.iterator();
-            while (taskIt.hasNext() && !consumers.isEmpty()) {
-                Response consumer = consumers.pop();
+            Queue<AnalystClusterRequest> tasks = e.getValue();
+
+            while (!tasks.isEmpty()) {
+                // see if there are any consumers for this
+                Response consumer = pollConsumer(graphId, false);
+                if (consumer == null) {
+                    LOG.warn("No consumer found for graph {}, needed for {} high-priority tasks", graphId, tasks.size());
+                    break;
+                }
 
                 // package tasks into a job
                 Job job = new Job("HIGH PRIORITY");
                 job.graphId = graphId;
-                for (int i = 0; i < MAX_TASKS_PER_WORKER && taskIt.hasNext(); i++) {
-                    job.addTask(taskIt.next());
-                    taskIt.remove();
+                for (int i = 0; i < MAX_TASKS_PER_WORKER && !tasks.isEmpty(); i++) {
+                    job.addTask(tasks.poll());
                 }
 
                 // TODO inefficiency here: we should mix single point and multipoint in the same response
-                deliver(job, consumer);
-                nWaitingConsumers--;
+                // Priority tasks are not acknowledged through the broker, so they do not measure worker throughput.
+                if (!deliver(job, consumer, MAX_TASKS_PER_WORKER, false)) {
+                    // put the tasks back in line for the next consumer
+                    tasks.addAll(job.pollTasks(MAX_TASKS_PER_WORKER));
+                }
             }
         }
 
         // deliver low priority tasks
-        while (nWaitingConsumers > 0) {
-            // ensure we advance at least one; advanceToElement will not advance if the predicate passes
-            // for the first element.
-            jobs.advance();
-
-            // find a job that both has visible tasks and has available workers
-            // We don't respect graph affinity when working offline, because we can't start more workers
-            Job current;
-            if (!workOffline) {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty() &&
-                        consumersByGraph.containsKey(e.graphId) &&
-                        !consumersByGraph.get(e.graphId).isEmpty());
-            }
-            else {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty());
+        for (Map.Entry<String, Queue<Job>> e : jobsByGraph.entrySet()) {
+            String graphId = e.getKey();
+            Queue<Job> graphJobs = e.getValue();
+            while (true) {
+                Job current = nextJobWithTasks(graphJobs);
+                // nothing to see here
+                if (current == null) break;
+                // deliver this job to only one consumer
+                // This way if there are multiple workers and multiple jobs the jobs will be fairly distributed, more or less
+                Response consumer = pollConsumer(graphId, true);
+                if (consumer == null) break;
+                // The batch size cannot have dropped to zero since the consumer was chosen, except in the rare case
+                // that the worker's tasks timed out meanwhile.
+                deliver(current, consumer, Math.max(batchSize(consumer), 1));
             }
+        }
 
-            // nothing to see here
-            if (current == null) break;
+        // TODO: graph switching
+    }
 
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(current.graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
+    /**
+     * Take a waiting consumer for the given graph off its queue.
+     * We don't respect graph affinity when working offline, because we can't start more workers, so consumers for any
+     * graph are used.
+     * @param withRoom if true, skip consumers whose workers already hold as many tasks as they can finish before the
+     *                 tasks time out. Their requests wait until they acknowledge some tasks.
+     * @return the consumer, or null if there are none.
+     */
+    private Response pollConsumer (String graphId, boolean withRoom) {
+        Collection<Deque<Response>> candidates = workOffline ? consumersByGraph.values() :
+                consumersByGraph.containsKey(graphId) ? Collections.singleton(consumersByGraph.get(graphId)) :
+                Collections.emptySet();
+        for (Deque<Response> consumers : candidates) {
+            for (Response consumer : consumers) {
+                if (withRoom && batchSize(consumer) == 0) continue;
+                // The consumer may have been removed concurrently because its connection closed.
+                if (consumers.remove(consumer)) {
+                    nWaitingConsumers.decrementAndGet();
+                    return consumer;
+                }
             }
-            // deliver this job to only one consumer
-            // This way if there are multiple workers and multiple jobs the jobs will be fairly distributed, more or less
-            deliver(current, consumers.pop());
-            nWaitingConsumers--;
         }
+        return null;
+    }
 
-        // TODO: graph switching
+    /**
+     * Cycle through the jobs on a graph, at most once around, until one is found that has tasks awaiting delivery.
+     * Every job examined is moved to the end of the queue, so jobs take turns.
+     * @return the job, or null if no job on the graph has tasks awaiting delivery.
+     */
+    private static Job nextJobWithTasks (Queue<Job> graphJobs) {
+        for (int i = graphJobs.size(); i > 0; i--) {
+            Job job = graphJobs.poll();
+            if (job == null) return null;
+            if (job.deleted) continue;
+            graphJobs.add(job);
+            if (job.hasTasksAwaitingDelivery()) return job;
+        }
+        return null;
+    }
 
-        // we've delivered everything we can, prevent anything else from happening until something changes
-        wait();
+    /** @return the number of tasks to hand to the worker that made the given request. */
+    private int batchSize (Response consumer) {
+        String workerId = consumer.getRequest().getHeader(AnalystWorker.WORKER_ID_HEADER);
+        WorkerThroughput throughput = workerId == null ? null : throughputByWorkerId.get(workerId);
+        return throughput == null ? WorkerThroughput.INITIAL_BATCH_SIZE : throughput.getBatchSize();
     }
 
     /**
-     * This uses a linear search through jobs, which should not be problematic unless there are thousands of
-     * simultaneous jobs.
-     * @return a Job object that contains the given task ID.
+     * Find the job containing the given task. Task IDs are handed out in contiguous ranges per batch of tasks, so
+     * this is a lookup in a sorted map rather than a search through all jobs.
+     * @return a Job object that contains the given task ID, or null if there is none.
      */
     public Job getJobForTask (int taskId) {
-        for (Job job : jobs) {
-            if (job.containsTask(taskId)) {
-                return job;
-            }
+        Map.Entry<Integer, Job> entry = jobsByFirstTaskId.floorEntry(taskId);
+        if (entry != null && entry.getValue().containsTask(taskId)) {
+            return entry.getValue();
         }
         return null;
     }
@@ -596,11 +637,16 @@ public class Broker implements Runnable {
     /**
      * Attempt to hand some tasks from the given job to a waiting consumer connection.
      * The write will fail if the consumer has closed the connection but it hasn't been removed from the connection
-     * queue yet. This can happen because the Broker methods are synchronized, and the removal action may be waiting
-     * to get the monitor while we are trying to distribute tasks here.
+     * queue yet. This can happen because the removal action runs on another thread, and may not yet have happened
+     * when we are trying to distribute tasks here.
      * @return whether the handoff succeeded.
      */
-    public synchronized boolean deliver (Job job, Response response) {
+    public boolean deliver (Job job, Response response, int maxTasks) {
+        return deliver(job, response, maxTasks, true);
+    }
+
+    /** @param measureThroughput whether the completion of these tasks will be acknowledged and timed. */
+    private boolean deliver (Job job, Response response, int maxTasks, boolean measureThroughput) {
 
         // Check up-front whether the connection is still open.
         if (!response.getRequest().getRequest().getConnection().isOpen()) {
@@ -609,10 +655,7 @@ public class Broker implements Runnable {
         }
 
         // Get up to N tasks from the tasksAwaitingDelivery deque
-        List<AnalystClusterRequest> tasks = new ArrayList<>();
-        while (tasks.size() < MAX_TASKS_PER_WORKER && !job.tasksAwaitingDelivery.isEmpty()) {
-            tasks.add(job.tasksAwaitingDelivery.poll());
-        }
+        List<AnalystClusterRequest> tasks = job.pollTasks(maxTasks);
 
         // Attempt to deliver the tasks to the given consumer.
         try {
@@ -626,14 +669,19 @@ public class Broker implements Runnable {
             response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
             response.resume();
             // Delivery failed, put tasks back on (the end of) the queue.
-            job.tasksAwaitingDelivery.addAll(tasks);
+            job.requeueTasks(tasks);
             return false;
         }
 
         // Delivery succeeded, move tasks from undelivered to delivered status
         LOG.debug("Delivery of {} tasks succeeded.", tasks.size());
-        nUndeliveredTasks -= tasks.size();
-        job.markTasksDelivered(tasks);
+        nUndeliveredTasks.addAndGet(-tasks.size());
+        String workerId = measureThroughput ? response.getRequest().getHeader(AnalystWorker.WORKER_ID_HEADER) : null;
+        job.markTasksDelivered(tasks, workerId);
+        if (workerId != null) {
+            throughputByWorkerId.computeIfAbsent(workerId, w -> new WorkerThroughput())
+                    .recordDelivery(tasks.stream().mapToInt(task -> task.taskId).toArray());
+        }
 
         return true;
 
@@ -644,16 +692,32 @@ public class Broker implements Runnable {
      * TODO maybe use unique delivery receipts instead of task IDs to handle redelivered tasks independently
      * @return whether the task was found and removed.
      */
-    public synchronized boolean markTaskCompleted (int taskId) {
+    public boolean markTaskCompleted (int taskId) {
         Job job = getJobForTask(taskId);
         if (job == null) {
-            LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.");
+            LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.", taskId);
             return false;
         }
-        job.markTaskCompleted(taskId);
+        String workerId = job.markTaskCompleted(taskId);
+        if (workerId != null) {
+            WorkerThroughput throughput = throughputByWorkerId.get(workerId);
+            if (throughput != null) throughput.recordCompletion(taskId);
+        }
         return true;
     }
 
+    /**
+     * Mark several normal tasks as completed at once, so that workers can acknowledge a whole batch in one request.
+     * The tasks that are found are marked completed even if some others are not.
+     * @return the IDs of the tasks that were not found, which is empty if they were all marked completed.
+     */
+    public int[] markTasksCompleted (int[] taskIds) {
+        int[] notFound = Arrays.stream(taskIds).filter(taskId -> !markTaskCompleted(taskId)).toArray();
+        // The worker may now have room for more tasks.
+        if (notFound.length < taskIds.length) deliverySignal.release();
+        return notFound;
+    }
+
     /**
      * Marks the specified priority request as completed, and returns the suspended Response object for the connection
      * that submitted the priority request (the UI), which probably still waiting to receive a result back over the
@@ -661,7 +725,7 @@ public class Broker implements Runnable {
      * without blocking the broker thread.
      * TODO rename to "deregisterSuspendedProducer" and "deregisterSuspendedConsumer" ?
      */
-    public synchronized Response deletePriorityTask (int taskId) {
+    public Response deletePriorityTask (int taskId) {
         return highPriorityResponses.remove(taskId);
     }
 
@@ -682,49 +746,46 @@ public class Broker implements Runnable {
 
     /** find the job for a task, creating it if it does not exist */
     public Job findJob (AnalystClusterRequest task) {
-        Job job = findJob(task.jobId);
-
-        if (job != null)
+        return jobsById.computeIfAbsent(task.jobId, jobId -> {
+            Job job = new Job(jobId);
+            job.graphId = task.graphId;
+            jobsByGraph.computeIfAbsent(task.graphId, g -> new ConcurrentLinkedQueue<>()).add(job);
             return job;
-
-        job = new Job(task.jobId);
-        job.graphId = task.graphId;
-        jobs.insertAtTail(job);
-        return job;
+        });
     }
 
     /** find the job for a jobId, or null if it does not exist */
     public Job findJob (String jobId) {
-        for (Job job : jobs) {
-            if (job.jobId.equals(jobId)) {
-                return job;
-            }
-        }
-        return null;
+        return jobsById.get(jobId);
     }
 
     /** delete a job */
-    public synchronized boolean deleteJob (String jobId) {
-        Job job = findJob(jobId);
+    public boolean deleteJob (String jobId) {
+        Job job = jobsById.remove(jobId);
         if (job == null) return false;
-        nUndeliveredTasks -= job.tasksAwaitingDelivery.size();
-        return jobs.remove(job);
+        job.deleted = true;
+        Queue<Job> graphJobs = jobsByGraph.get(job.graphId);
+        if (graphJobs != null) graphJobs.remove(job);
+        jobsByFirstTaskId.values().removeIf(j -> j == job);
+        // Take the tasks out of the job, so the delivery thread cannot also deliver and count them.
+        nUndeliveredTasks.addAndGet(-job.pollTasks(Integer.MAX_VALUE).size());
+        return true;
     }
 
     private Multimap<String, String> activeJobsPerGraph = HashMultimap.create();
 
-    public synchronized boolean anyJobsActive() {
-        for (Job job : jobs) {
+    public boolean anyJobsActive() {
+        for (Job job : jobsById.values()) {
             if (!job.isComplete()) return true;
         }
         return false;
     }
 
-    void activateJob (Job job) {
+    synchronized void activateJob (Job job) {
         activeJobsPerGraph.put(job.graphId, job.jobId);
     }
 
-    void deactivateJob (Job job) {
+    synchronized void deactivateJob (Job job) {
         activeJobsPerGraph.remove(job.graphId, job.jobId);
     }
 
@@ -187,12 +187,16 @@ class BrokerHttpHandler extends HttpHandler {
             } else if (request.getMethod() == Method.DELETE) {
                 /* Acknowledge completion of a task and remove it from queues, avoiding re-delivery. */
                 if ("tasks".equalsIgnoreCase(pathComponents[1])) {
-                    int taskId = Integer.parseInt(pathComponents[2]);
-                    // This must not have been a priority task. Try to delete it as a normal job task.
-                    if (broker.markTaskCompleted(taskId)) {
+                    // One task ID, or several separated by commas to acknowledge a whole batch at once.
+                    int[] taskIds = Arrays.stream(pathComponents[2].split(",")).mapToInt(Integer::parseInt).toArray();
+                    // These must not have been priority tasks. Try to delete them as normal job tasks.
+                    int[] notFound = broker.markTasksCompleted(taskIds);
+                    if (notFound.length == 0) {
                         response.setStatus(HttpStatus.OK_200);
                     } else {
                         response.setStatus(HttpStatus.NOT_FOUND_404);
+                        response.setDetailMessage("tasks not found: " + Arrays.stream(notFound)
+                                .mapToObj(Integer::toString).collect(Collectors.joining(",")));
                     }
                 } else if ("jobs".equals((pathComponents[1]))) {
                     if (broker.deleteJob(pathComponents[2])) {
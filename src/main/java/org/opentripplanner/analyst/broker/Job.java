@@ -12,19 +12,25 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Queue;
 
 /**
  * FIXME delivered tasks map is oblivious to multiple tasks having the same ID.
  * In fact we just generate numeric queue task IDs. Origin point IDs will be handled at the application layer.
+ *
+ * A job is used concurrently by the broker's delivery thread and the HTTP threads enqueueing and completing its tasks,
+ * so its state is guarded by its own monitor. Each method does a small amount of work, so threads working on different
+ * jobs never wait for each other, and threads working on the same job wait only briefly.
  */
 public class Job {
 
     private static final Logger LOG = LoggerFactory.getLogger(Job.class);
 
     /* How long until tasks are eligible for re-delivery. */
-    private static final int INVISIBLE_DURATION_SEC = 30;
+    static final int INVISIBLE_DURATION_SEC = 30;
 
     /* A unique identifier for this job, usually a random UUID. */
     public final String jobId;
@@ -32,6 +38,9 @@ public class Job {
     /* The graph needed to handle all tasks contained in this job. */
     String graphId;
 
+    /* Set when the job is deleted, so that the broker stops cycling through it. */
+    volatile boolean deleted = false;
+
     /* Tasks in this job that have yet to be delivered, or that will be re-delivered due to completion timeout. */
     // maybe this should only be a list of IDs.
     Queue<AnalystClusterRequest> tasksAwaitingDelivery = new ArrayDeque<>();
@@ -46,6 +55,9 @@ public class Job {
      */
     TIntLongMap invisibleUntil = new TIntLongHashMap();
 
+    /* The IDs of the workers that delivered tasks were sent to, for the tasks in invisibleUntil. */
+    TIntObjectMap<String> workerForTask = new TIntObjectHashMap<>();
+
     /* The IDs of all tasks that have been marked completed. */
     TIntSet completedTasks = new TIntHashSet();
 
@@ -54,16 +66,47 @@ public class Job {
     }
 
     /** Adds a task to this Job, assigning it a task ID number. */
-    public void addTask (AnalystClusterRequest task) {
+    public synchronized void addTask (AnalystClusterRequest task) {
         tasksById.put(task.taskId, task);
         tasksAwaitingDelivery.add(task);
     }
 
-    public void markTasksDelivered(List<AnalystClusterRequest> tasks) {
-        long deliveryTime = System.currentTimeMillis();
+    /** Remove up to the given number of tasks from the front of the delivery queue. */
+    public synchronized List<AnalystClusterRequest> pollTasks (int maxTasks) {
+        List<AnalystClusterRequest> tasks = new ArrayList<>(Math.min(maxTasks, tasksAwaitingDelivery.size()));
+        while (tasks.size() < maxTasks && !tasksAwaitingDelivery.isEmpty()) {
+            tasks.add(tasksAwaitingDelivery.poll());
+        }
+        return tasks;
+    }
+
+    /** Put tasks that could not be delivered back on (the end of) the delivery queue. */
+    public synchronized void requeueTasks (Collection<AnalystClusterRequest> tasks) {
+        tasksAwaitingDelivery.addAll(tasks);
+    }
+
+    public synchronized boolean hasTasksAwaitingDelivery () {
+        return !tasksAwaitingDelivery.isEmpty();
+    }
+
+    public synchronized int getTasksAwaitingDeliveryCount () {
+        return tasksAwaitingDelivery.size();
+    }
+
+    public synchronized int getInFlightTaskCount () {
+        return invisibleUntil.size();
+    }
+
+    /** @param workerId the ID of the worker the tasks were sent to, or null if it is not known. */
+    public void markTasksDelivered(List<AnalystClusterRequest> tasks, String workerId) {
+        markTasksDelivered(tasks, workerId, System.currentTimeMillis());
+    }
+
+    synchronized void markTasksDelivered(List<AnalystClusterRequest> tasks, String workerId, long deliveryTime) {
         long visibleAt = deliveryTime + INVISIBLE_DURATION_SEC * 1000;
         for (AnalystClusterRequest task : tasks) {
             invisibleUntil.put(task.taskId, visibleAt);
+            if (workerId != null) workerForTask.put(task.taskId, workerId);
         }
     }
 
@@ -73,7 +116,10 @@ public class Job {
      * TODO maybe this should only be triggered when the awaiting delivery queue is empty to reduce double-delivery.
      */
     public int redeliver () {
-        long now = System.currentTimeMillis();
+        return redeliver(System.currentTimeMillis());
+    }
+
+    synchronized int redeliver (long now) {
         TIntLongIterator invisibleIterator = invisibleUntil.iterator();
         int nRedelivered = 0;
         while (invisibleIterator.hasNext()) {
@@ -82,6 +128,7 @@ public class Job {
             long timeout = invisibleIterator.value();
             if (now > timeout) {
                 invisibleIterator.remove();
+                workerForTask.remove(taskId);
                 tasksAwaitingDelivery.add(tasksById.get(taskId));
                 LOG.warn("Task {} of job {} was not completed in time, queueing it for re-delivery.", taskId, jobId);
                 nRedelivered += 1;
@@ -90,37 +137,43 @@ public class Job {
         return nRedelivered;
     }
 
-    public void markTaskCompleted (int taskId) {
+    /**
+     * @return the ID of the worker the task was delivered to, if the completion was accepted and that worker is known.
+     * Otherwise null.
+     */
+    public synchronized String markTaskCompleted (int taskId) {
         if (tasksById.get(taskId) == null) {
             LOG.error("Tried to mark task {} completed, but it was not in job {}.", taskId, jobId);
-            return;
+            return null;
         }
         if (invisibleUntil.remove(taskId) != 0) {
             // If the taskId was found in the invisibleUntil map, the task was delivered and has not been slated for
             // re-delivery.
             completedTasks.add(taskId);
+            return workerForTask.remove(taskId);
         } else {
             // If the taskId was not found in the invisibleUntil map, the task was never delivered, or timed out and was
             // slated for redelivery. We should ignore the completion message and let the re-delivery proceed to avoid
             // problems with redelivered tasks overwriting results in S3 after the job is considered finished.
             // TODO verify that there are no race conditions here.
-            LOG.warn("Ignoring late task completion message, task {} was queued for re-delivery.");
+            LOG.warn("Ignoring late task completion message, task {} was queued for re-delivery.", taskId);
+            return null;
         }
     }
 
-    public int getTotalTaskCount() {
+    public synchronized int getTotalTaskCount() {
         return tasksById.size();
     }
 
-    public int getCompletedTaskCount() {
+    public synchronized int getCompletedTaskCount() {
         return completedTasks.size();
     }
 
-    public boolean isComplete() {
+    public synchronized boolean isComplete() {
         return completedTasks.size() == tasksById.size();
     }
 
-    public boolean containsTask (int taskId) {
+    public synchronized boolean containsTask (int taskId) {
         AnalystClusterRequest req = tasksById.get(taskId);
         if (req != null) {
             if (!req.jobId.equals(this.jobId)) {
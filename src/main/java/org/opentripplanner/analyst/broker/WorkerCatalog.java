@@ -15,6 +15,9 @@ import java.util.stream.Collectors;
  */
 public class WorkerCatalog {
 
+    /** Workers that have not polled the broker for this long are considered dead. */
+    public static final long WORKER_TIMEOUT_MS = 2 * 60 * 1000;
+
     Map<String, WorkerObservation> observationsByWorkerId = new HashMap<>();
     Multimap<String, String> workersByGraph = HashMultimap.create();
 
@@ -38,7 +41,7 @@ public class WorkerCatalog {
 
     public synchronized void purgeDeadWorkers () {
         long now = System.currentTimeMillis();
-        long oldestAcceptable = now - 2 * 60 * 1000;
+        long oldestAcceptable = now - WORKER_TIMEOUT_MS;
         List<WorkerObservation> ancientObservations = observationsByWorkerId.values().stream()
                 .filter(o -> o.lastSeen < oldestAcceptable).collect(Collectors.toList());
         ancientObservations.forEach(o -> {
@@ -77,7 +80,11 @@ public class WorkerCatalog {
         return null;
     }
 
-    public int size () {
+    public synchronized boolean hasWorkers (String graphId) {
+        return !workersByGraph.get(graphId).isEmpty();
+    }
+
+    public synchronized int size () {
         return workersByGraph.size();
     }
 
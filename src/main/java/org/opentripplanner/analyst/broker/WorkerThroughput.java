@@ -0,0 +1,157 @@
+package org.opentripplanner.analyst.broker;
+
+import gnu.trove.iterator.TIntLongIterator;
+import gnu.trove.map.TIntLongMap;
+import gnu.trove.map.hash.TIntLongHashMap;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Estimates how fast a worker processes tasks, so that each worker can be handed as many tasks at once as it will
+ * get through in a few seconds, without holding so many that some are not finished before Job.INVISIBLE_DURATION_SEC
+ * and are delivered again to another worker.
+ *
+ * The estimate is made from the completion acknowledgements of the tasks delivered to the worker. Each acknowledgement
+ * measures the time the worker spent on that task: the time since its previous acknowledgement, or since the task was
+ * delivered if the worker was idle in between. Tasks handled in parallel show up as short intervals between
+ * acknowledgements, so this is the worker's time per task across all its threads.
+ *
+ * Small batches on fast workers mean many round trips per task for jobs with millions of origins, while large batches
+ * on slow workers leave tasks sitting on one machine until they hit the redelivery timeout.
+ */
+public class WorkerThroughput {
+
+    /**
+     * Workers we have not yet measured are given this many tasks, and no more until they acknowledge one. A single
+     * task is safe however slow the worker is, and its acknowledgement gives a first, pessimistic measurement.
+     */
+    public static final int INITIAL_BATCH_SIZE = 1;
+
+    /** Batch size for workers holding no tasks, however slow they are. */
+    public static final int MIN_BATCH_SIZE = 1;
+
+    public static final int MAX_BATCH_SIZE = 256;
+
+    /** Aim to give workers this much work at a time. */
+    private static final double TARGET_BATCH_SECONDS = 10;
+
+    /**
+     * All the tasks a worker holds should be finished within this fraction of the invisibility timeout, leaving room
+     * for tasks slower than average and for the time taken to upload results and acknowledge them.
+     */
+    private static final double SAFETY_MARGIN = 0.5;
+
+    /**
+     * Weight of the newest measurement in the moving average of the time per task. This is small because threads that
+     * finish together acknowledge tasks in bursts, with intervals of almost nothing between them.
+     */
+    private static final double SMOOTHING = 0.02;
+
+    private final LongSupplier clock;
+
+    /** Seconds the worker takes per task, or NaN if not yet measured. */
+    private double secondsPerTask = Double.NaN;
+
+    /** Delivery times of the tasks the worker holds, keyed on task ID. */
+    private final TIntLongMap deliveryTimes = new TIntLongHashMap();
+
+    private long lastCompletionTime = 0;
+
+    /** The last time the worker polled for tasks, was handed tasks or acknowledged one. */
+    private long lastSeenTime;
+
+    public WorkerThroughput () {
+        this(System::currentTimeMillis);
+    }
+
+    /** @param clock supplies the current time in milliseconds. */
+    WorkerThroughput (LongSupplier clock) {
+        this.clock = clock;
+        lastSeenTime = clock.getAsLong();
+    }
+
+    /** Record that the worker polled the broker for tasks. */
+    public synchronized void recordPoll () {
+        lastSeenTime = clock.getAsLong();
+    }
+
+    /** Record that the tasks with the given IDs were delivered to the worker. */
+    public synchronized void recordDelivery (int[] taskIds) {
+        long now = clock.getAsLong();
+        lastSeenTime = now;
+        for (int taskId : taskIds) {
+            deliveryTimes.put(taskId, now);
+        }
+    }
+
+    /** Record that the worker acknowledged completing the task with the given ID. */
+    public synchronized void recordCompletion (int taskId) {
+        long now = clock.getAsLong();
+        lastSeenTime = now;
+        if (!deliveryTimes.containsKey(taskId)) return;
+        long deliveryTime = deliveryTimes.remove(taskId);
+        double seconds = (now - Math.max(deliveryTime, lastCompletionTime)) / 1000.0;
+        lastCompletionTime = now;
+        secondsPerTask = Double.isNaN(secondsPerTask) ? seconds : SMOOTHING * seconds + (1 - SMOOTHING) * secondsPerTask;
+    }
+
+    /**
+     * @return how many tasks to hand the worker at once. This is zero if the worker already holds as many tasks as it
+     * can finish before they time out, in which case it should not be given more until it acknowledges some.
+     */
+    public synchronized int getBatchSize () {
+        expireTasks();
+        int held = deliveryTimes.size();
+        long batchSize;
+        if (Double.isNaN(secondsPerTask)) {
+            batchSize = INITIAL_BATCH_SIZE - held;
+        } else {
+            // Guard against a zero time per task, when a batch of acknowledgements arrives all at once.
+            double seconds = Math.max(secondsPerTask, 0.001);
+            batchSize = Math.round(TARGET_BATCH_SECONDS / seconds);
+            // The tasks the worker already holds and the new batch must all be done before the new batch times out.
+            long limit = Math.round(Job.INVISIBLE_DURATION_SEC * SAFETY_MARGIN / seconds) - held;
+            batchSize = Math.min(batchSize, limit);
+        }
+        batchSize = Math.min(MAX_BATCH_SIZE, batchSize);
+        return (int) Math.max(held == 0 ? MIN_BATCH_SIZE : 0, batchSize);
+    }
+
+    /**
+     * @return whether the worker has not been heard from for WorkerCatalog.WORKER_TIMEOUT_MS, in which case it is
+     * considered dead and its throughput can be forgotten.
+     */
+    public synchronized boolean isSilent () {
+        return clock.getAsLong() - lastSeenTime > WorkerCatalog.WORKER_TIMEOUT_MS;
+    }
+
+    /** @return the number of delivered tasks that are neither acknowledged nor timed out. */
+    public synchronized int getHeldTaskCount () {
+        expireTasks();
+        return deliveryTimes.size();
+    }
+
+    /**
+     * Forget tasks that have passed the invisibility timeout, since the job will deliver them again. A worker that did
+     * not finish a task in time while holding n tasks takes at least INVISIBLE_DURATION_SEC / n seconds per task, so
+     * the estimate is raised to at least that.
+     */
+    private void expireTasks () {
+        long expiredBefore = clock.getAsLong() - Job.INVISIBLE_DURATION_SEC * 1000L;
+        int held = deliveryTimes.size();
+        int expired = 0;
+        TIntLongIterator it = deliveryTimes.iterator();
+        while (it.hasNext()) {
+            it.advance();
+            if (it.value() < expiredBefore) {
+                it.remove();
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            double atLeast = (double) Job.INVISIBLE_DURATION_SEC / held;
+            secondsPerTask = Double.isNaN(secondsPerTask) ? atLeast : Math.max(secondsPerTask, atLeast);
+        }
+    }
+
+}
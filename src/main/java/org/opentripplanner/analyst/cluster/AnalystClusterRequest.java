@@ -52,6 +52,13 @@ public class AnalystClusterRequest implements Serializable {
 
 	/** Should times be included in the results (i.e. ResultSetWithTimes rather than ResultSet) */
 	public boolean includeTimes = false;
+
+	/**
+	 * Should the result of a job task be saved in CompactResultFormat rather than as JSON. Results are then encoded
+	 * as they are computed, which is much smaller and lighter on the worker for regional analyses.
+	 * Single-point requests always return JSON.
+	 */
+	public boolean compactResults = false;
 	
 	private AnalystClusterRequest(String destinationPointsetId, String graphId) {
 		this.destinationPointsetId = destinationPointsetId;
@@ -10,8 +10,6 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
@@ -33,7 +31,7 @@ import org.opentripplanner.api.model.JodaLocalDateSerializer;
 import org.opentripplanner.api.model.QualifiedModeSetSerializer;
 import org.opentripplanner.api.model.TraverseModeSetSerializer;
 import org.opentripplanner.common.MavenVersion;
-import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RaptorWorkerDataCache;
 import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
@@ -42,6 +40,7 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -99,6 +98,12 @@ public class AnalystWorker implements Runnable {
     /** should this worker shut down automatically */
     public final boolean autoShutdown;
 
+    /**
+     * The number of threads over which to spread the RAPTOR search of a single point request. Batch requests are
+     * already computed several at a time, so they are each searched on a single thread.
+     */
+    public final int singlePointParallelism;
+
     public static final Random random = new Random();
 
     private TaskStatisticsStore statsStore;
@@ -112,10 +117,17 @@ public class AnalystWorker implements Runnable {
 
     static final HttpClient httpClient;
 
-    /** Cache RAPTOR data by Job ID */
-    private Cache<String, RaptorWorkerData> workerDataCache = CacheBuilder.newBuilder()
-            .maximumSize(200)
-            .build();
+    /** Cache RAPTOR data by graph, time window, scenario and point set, so it is shared between tasks and jobs. */
+    private final RaptorWorkerDataCache workerDataCache;
+
+    /**
+     * A local directory standing in for S3, with graphs, pointsets and results subdirectories in place of the
+     * buckets. Null when running on AWS.
+     */
+    private final File localStorage;
+
+    /** The number of tasks processed at once. */
+    private final int workerThreads;
 
     static {
         PoolingHttpClientConnectionManager mgr = new PoolingHttpClientConnectionManager();
@@ -165,8 +177,11 @@ public class AnalystWorker implements Runnable {
         // parse the configuration
         // set up the stats store
         String statsQueue = config.getProperty("statistics-queue");
+        String statsFile = config.getProperty("statistics-file");
         if (statsQueue != null)
             this.statsStore = new SQSTaskStatisticsStore(statsQueue);
+        else if (statsFile != null)
+            this.statsStore = new LocalTaskStatisticsStore(new File(statsFile));
         else
             // a stats store that does nothing.
             this.statsStore = s -> {};
@@ -187,12 +202,31 @@ public class AnalystWorker implements Runnable {
         // graph this machine was intended to analyze.
         this.graphId = config.getProperty("initial-graph-id");
 
-        this.pointSetDatastore = new PointSetDatastore(10, null, false, config.getProperty("pointsets-bucket"));
-        this.clusterGraphBuilder = new ClusterGraphBuilder(config.getProperty("graphs-bucket"));
+        this.localStorage = config.getProperty("local-storage") != null ?
+                new File(config.getProperty("local-storage")) : null;
+        if (localStorage != null) {
+            LOG.info("Using local storage in {} instead of S3.", localStorage);
+            this.pointSetDatastore = new PointSetDatastore(10, null, false, null, new File(localStorage, "pointsets"));
+            this.clusterGraphBuilder = new ClusterGraphBuilder(null, new File(localStorage, "graphs"));
+        } else {
+            this.pointSetDatastore = new PointSetDatastore(10, null, false, config.getProperty("pointsets-bucket"));
+            this.clusterGraphBuilder = new ClusterGraphBuilder(config.getProperty("graphs-bucket"));
+        }
 
         Boolean autoShutdown = Boolean.parseBoolean(config.getProperty("auto-shutdown"));
         this.autoShutdown = autoShutdown == null ? false : autoShutdown;
 
+        this.workerDataCache = new RaptorWorkerDataCache(
+                Integer.parseInt(config.getProperty("raptor-data-cache-mb", "2048")));
+
+        this.singlePointParallelism = Integer.parseInt(config.getProperty("single-point-parallelism",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+        this.workerThreads = Integer.parseInt(config.getProperty("worker-threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+        this.dryRunFailureRate = Integer.parseInt(config.getProperty("dry-run-failure-rate", "-1"));
+
         // Consider shutting this worker down once per hour, starting 55 minutes after it started up.
         startupTime = System.currentTimeMillis();
         nextShutdownCheckTime = startupTime + 55 * 60 * 1000;
@@ -233,8 +267,8 @@ public class AnalystWorker implements Runnable {
      */
     @Override
     public void run() {
-        // create executors with up to one thread per processor
-        int nP = Runtime.getRuntime().availableProcessors();
+        // create executors with up to one thread per processor, or as many as configured
+        int nP = workerThreads;
         highPriorityExecutor = new ThreadPoolExecutor(1, nP, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(255));
         highPriorityExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
         batchExecutor = new ThreadPoolExecutor(1, nP, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(nP * 2));
@@ -380,7 +414,9 @@ public class AnalystWorker implements Runnable {
             } else {
                 // This is not an isochrone request. There is necessarily a destination point set supplied.
                 PointSet pointSet = pointSetDatastore.get(clusterRequest.destinationPointsetId);
-                sampleSet = pointSet.getOrCreateSampleSet(graph); // TODO this breaks if graph has been rebuilt
+                // The linkage is saved next to the graph inputs, so other workers and later runs can load it.
+                sampleSet = pointSet.getOrCreateSampleSet(graph, ClusterGraphBuilder.getGraphDirectory(graphId));
+                // TODO the in-memory linkage this returns breaks if graph has been rebuilt
             }
 
             // Note that all parameters to create the Raptor worker data are passed in the constructor except ts.
@@ -392,26 +428,57 @@ public class AnalystWorker implements Runnable {
             // Produce RAPTOR data tables, going through a cache where relevant.
             // This is only used for multi-point requests. Single-point requests are assumed to be continually
             // changing, so we create throw-away RAPTOR tables for them.
-            // Ideally we'd want this cacheing to happen transparently inside the RepeatedRaptorProfileRouter,
-            // but the RepeatedRaptorProfileRouter doesn't know the job ID or other information from the cluster request.
-            // It would be possible to just supply the cache _key_ as a way of saying that the cache should be used.
-            // But then we'd need to pass in both the cache and the key, which is weird.
+            // The tables are keyed on the inputs they are built from rather than the job ID, so jobs on the same
+            // graph, time window, scenario and point set share them, and tasks arriving together build them only once.
             if (transit && !singlePoint) {
                 long dataStart = System.currentTimeMillis();
-                router.raptorWorkerData = workerDataCache.get(clusterRequest.jobId, () -> RepeatedRaptorProfileRouter
-                        .getRaptorWorkerData(clusterRequest.profileRequest, graph, sampleSet, ts));
+                router.raptorWorkerData = workerDataCache.get(clusterRequest.profileRequest, graph, sampleSet, ts);
                 ts.raptorData = (int) (System.currentTimeMillis() - dataStart);
             } else {
                 // The worker will generate a one-time throw-away table.
                 router.raptorWorkerData = null;
             }
 
+            // Regional results can be streamed out in a compact binary format instead of being built up as a
+            // ResultEnvelope and serialized to JSON.
+            boolean compact = clusterRequest.compactResults && !singlePoint && !isochrone;
+            router.includeTimes = clusterRequest.includeTimes;
+            if (singlePoint) router.raptorParallelism = singlePointParallelism;
+
+            if (compact) {
+                CompactResultFormat.Writer writer = new CompactResultFormat.Writer(clusterRequest.jobId,
+                        clusterRequest.id, clusterRequest.destinationPointsetId);
+                String error = null;
+                try {
+                    router.route(writer);
+                    ts.success = true;
+                } catch (Exception ex) {
+                    LOG.error("Error occurred in profile request", ex);
+                    ts.success = false;
+                    error = ex.toString();
+                }
+                // The writer holds the result sets until here, so a failed task saves only a record of its failure.
+                try (OutputStream outputStream = openResultStream(clusterRequest, CompactResultFormat.EXTENSION)) {
+                    if (ts.success) {
+                        writer.finish(outputStream);
+                    } else {
+                        writer.fail(outputStream, error);
+                    }
+                }
+                // Save the statistics before acknowledging the task, so that anything waiting for the job to be
+                // complete (e.g. LocalCluster) finds statistics for all of its tasks.
+                ts.total = (int) (System.currentTimeMillis() - startTime);
+                statsStore.store(ts);
+                // Tell the broker the task has been handled and should not be re-delivered to another worker.
+                deleteRequest(clusterRequest);
+                return;
+            }
+
             // Run the core repeated-raptor analysis.
             // This result envelope will contain the results of the one-to-many profile or single-departure-time search.
             ResultEnvelope envelope = new ResultEnvelope();
             try {
                 // TODO when router runs, if there are no transit modes defined it should just skip the transit work.
-                router.includeTimes = clusterRequest.includeTimes;
                 envelope = router.route();
                 envelope.id = clusterRequest.id;
                 ts.success = true;
@@ -429,36 +496,53 @@ public class AnalystWorker implements Runnable {
             envelope.destinationPointsetId = clusterRequest.destinationPointsetId;
             if (clusterRequest.outputLocation != null) {
                 // Convert the result envelope and its contents to JSON and gzip it in this thread.
-                // Transfer the results to Amazon S3 in another thread, piping between the two.
-                String s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + ".json.gz");
-                PipedInputStream inPipe = new PipedInputStream();
-                PipedOutputStream outPipe = new PipedOutputStream(inPipe);
-                new Thread(() -> {
-                    s3.putObject(clusterRequest.outputLocation, s3key, inPipe, null);
-                }).start();
-                OutputStream gzipOutputStream = new GZIPOutputStream(outPipe);
+                OutputStream gzipOutputStream = openResultStream(clusterRequest, ".json");
                 // We could do the writeValue() in a thread instead, in which case both the DELETE and S3 options
                 // could consume it in the same way.
                 objectMapper.writeValue(gzipOutputStream, envelope);
                 gzipOutputStream.close();
+                // Record information about the current task so we can analyze usage and efficiency over time.
+                // This is done before acknowledging the task, as for compact results above.
+                ts.total = (int) (System.currentTimeMillis() - startTime);
+                statsStore.store(ts);
                 // Tell the broker the task has been handled and should not be re-delivered to another worker.
                 deleteRequest(clusterRequest);
             } else {
                 // No output location was provided. Instead of saving the result on S3,
                 // return the result immediately via a connection held open by the broker and mark the task completed.
                 finishPriorityTask(clusterRequest, envelope);
+                ts.total = (int) (System.currentTimeMillis() - startTime);
+                statsStore.store(ts);
             }
 
-            // Record information about the current task so we can analyze usage and efficiency over time.
-            ts.total = (int) (System.currentTimeMillis() - startTime);
-            statsStore.store(ts);
-
         } catch (Exception ex) {
             LOG.error("An error occurred while routing", ex);
         }
 
     }
 
+    /**
+     * Open a gzipped stream to save the result of a job task, at jobId/id followed by the given extension and .gz.
+     * Results are transferred to Amazon S3 in another thread, piping between the two, or saved under the results
+     * directory when using local storage.
+     */
+    private OutputStream openResultStream (AnalystClusterRequest clusterRequest, String extension) throws IOException {
+        String s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + extension + ".gz");
+        if (localStorage != null) {
+            // Save the result where it would be in the S3 bucket, under the results directory.
+            File resultFile = new File(new File(new File(localStorage, "results"), clusterRequest.outputLocation), s3key);
+            resultFile.getParentFile().mkdirs();
+            return new GZIPOutputStream(new FileOutputStream(resultFile));
+        } else {
+            PipedInputStream inPipe = new PipedInputStream();
+            PipedOutputStream outPipe = new PipedOutputStream(inPipe);
+            new Thread(() -> {
+                s3.putObject(clusterRequest.outputLocation, s3key, inPipe, null);
+            }).start();
+            return new GZIPOutputStream(outPipe);
+        }
+    }
+
     /** Open a single point channel to the broker to receive high-priority requests immediately */
     private synchronized void openSideChannel () {
         if (sideChannelOpen) {
@@ -618,6 +702,13 @@ public class AnalystWorker implements Runnable {
      * auto-shutdown                Should this worker shut down its machine if it is idle (e.g. on throwaway cloud instances)
      * statistics-queue             SQS queue to which to send statistics (optional)
      * initial-graph-id             The graph ID for this worker to start on
+     * raptor-data-cache-mb         Approximate memory used to cache RAPTOR data tables (optional, default 2048)
+     * single-point-parallelism     Threads used for each single point request (optional, defaults to the number of cores)
+     * worker-threads               Tasks processed at once (optional, defaults to the number of cores)
+     * local-storage                Directory used in place of S3, with graphs, pointsets and results subdirectories
+     *                              standing in for the buckets (optional, for running a cluster on one machine)
+     * statistics-file              File to which to append statistics, when there is no statistics-queue (optional)
+     * dry-run-failure-rate         Skip all work and fail this percentage of tasks, to test the broker (optional)
      */
     public static void main(String[] args) {
         LOG.info("Starting analyst worker");
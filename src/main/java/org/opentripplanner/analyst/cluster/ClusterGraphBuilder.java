@@ -11,7 +11,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -29,12 +31,24 @@ public class ClusterGraphBuilder {
 
     private final String graphBucket;
 
+    /** A local directory standing in for the S3 bucket, holding the same <graphId>.zip files. May be null. */
+    private final File localGraphBucket;
+
     String currGraphId = null;
 
     Graph currGraph = null;
 
     public ClusterGraphBuilder (String graphBucket) {
+        this(graphBucket, null);
+    }
+
+    /**
+     * @param localGraphBucket if not null, graph inputs are read from this directory instead of the S3 bucket. This
+     *                         allows running a whole cluster on one machine without AWS.
+     */
+    public ClusterGraphBuilder (String graphBucket, File localGraphBucket) {
         this.graphBucket = graphBucket;
+        this.localGraphBucket = localGraphBucket;
     }
 
     /**
@@ -52,15 +66,21 @@ public class ClusterGraphBuilder {
         }
 
         // The location of the inputs that will be used to build this graph
-        File graphDataDirectory = new File(GRAPH_CACHE_DIR, graphId);
+        File graphDataDirectory = getGraphDirectory(graphId);
 
         // If we don't have a local copy of the inputs, fetch graph data as a ZIP from S3 and unzip it
         if( ! graphDataDirectory.exists() || graphDataDirectory.list().length == 0) {
             LOG.info("Downloading graph input files.");
             graphDataDirectory.mkdirs();
-            S3Object graphDataZipObject = s3.getObject(graphBucket, graphId + ".zip");
-            ZipInputStream zis = new ZipInputStream(graphDataZipObject.getObjectContent());
             try {
+                InputStream graphDataZip;
+                if (localGraphBucket != null) {
+                    graphDataZip = new FileInputStream(new File(localGraphBucket, graphId + ".zip"));
+                } else {
+                    S3Object graphDataZipObject = s3.getObject(graphBucket, graphId + ".zip");
+                    graphDataZip = graphDataZipObject.getObjectContent();
+                }
+                ZipInputStream zis = new ZipInputStream(graphDataZip);
                 ZipEntry entry;
                 while ((entry = zis.getNextEntry()) != null) {
                     File entryDestination = new File(graphDataDirectory, entry.getName());
@@ -85,7 +105,7 @@ public class ClusterGraphBuilder {
 
         // Now we have a local copy of these graph inputs. Make a graph out of them.
         CommandLineParameters params = new CommandLineParameters();
-        params.build = new File(GRAPH_CACHE_DIR, graphId);
+        params.build = getGraphDirectory(graphId);
         params.inMemory = true;
         GraphBuilder graphBuilder = GraphBuilder.forDirectory(params, params.build);
         graphBuilder.run();
@@ -99,4 +119,12 @@ public class ClusterGraphBuilder {
 
     }
 
+    /**
+     * @return the local directory holding the inputs of the given graph. Files derived from the graph that are
+     * worth keeping between worker runs, such as pointset linkages, are saved here too.
+     */
+    public static File getGraphDirectory(String graphId) {
+        return new File(GRAPH_CACHE_DIR, graphId);
+    }
+
 }
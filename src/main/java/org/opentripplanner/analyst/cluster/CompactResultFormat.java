@@ -0,0 +1,226 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import org.opentripplanner.analyst.Histogram;
+import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.analyst.ResultSet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A compact binary alternative to serializing a ResultEnvelope as JSON, for regional analyses that save one result
+ * per origin. The results are encoded straight from the travel time arrays, so no ResultSets or JSON trees are built
+ * along the way.
+ *
+ * All numbers are variable-length integers as used by Protocol Buffers. Arrays of times and histogram values are
+ * delta coded (each value is stored as the difference from the previous one, zigzag encoded) because neighboring
+ * destinations tend to have similar travel times and histograms change smoothly from one minute to the next.
+ * Unreachable destinations are stored as a time of -1. The layout is:
+ *
+ * <pre>
+ * magic bytes "OTPR", version
+ * jobId, id, destinationPointsetId (strings, empty if null)
+ * status: 0 if the task succeeded, or 1 followed by an error message if it failed, in which case nothing follows
+ * zero or more result sets, each made of:
+ *   1 + the ordinal of its ResultEnvelope.Which
+ *   number of times, then the delta coded times (the number is 0 if times are not included)
+ *   number of histograms; if not zero, the number of bins and the delta coded counts, which are shared by all the
+ *   histograms, then for each histogram its property name and its delta coded sums
+ * 0, marking the end of the result sets
+ * </pre>
+ *
+ * The writer holds the result sets in memory until the task is finished, so that a task failing partway through does
+ * not leave a file with some of its result sets that would look like a complete result.
+ */
+public class CompactResultFormat {
+
+    /** File extension for results in this format, before any compression. */
+    public static final String EXTENSION = ".dat";
+
+    private static final byte[] MAGIC = "OTPR".getBytes(StandardCharsets.US_ASCII);
+
+    private static final int VERSION = 2;
+
+    private static final int SUCCEEDED = 0;
+
+    private static final int FAILED = 1;
+
+    private static final int UNREACHED = -1;
+
+    /**
+     * Encodes the result sets for a single origin into an in-memory buffer, then writes them out with finish() once
+     * they are all done, or writes a failure with fail() instead. Nothing reaches the output stream before finish(),
+     * so the buffer holds the encoded times and histograms of every result set for the origin: usually one to three
+     * bytes per destination per result set, plus the histogram sums. One Writer is used per origin, so this is much
+     * smaller than the ResultSets it replaces but does grow with the size of the destination pointset.
+     */
+    public static class Writer {
+
+        private final String jobId, id, destinationPointsetId;
+
+        private final ByteArrayOutputStream resultSets = new ByteArrayOutputStream();
+
+        private final CodedOutputStream out = CodedOutputStream.newInstance(resultSets);
+
+        /** Result sets are then added with writeResultSet. */
+        public Writer (String jobId, String id, String destinationPointsetId) {
+            this.jobId = jobId;
+            this.id = id;
+            this.destinationPointsetId = destinationPointsetId;
+        }
+
+        /**
+         * Write the results for one set of travel times to the points in the given pointset. This is equivalent to
+         * serializing new ResultSet(times, targets, includeTimes, includeHistograms, false).
+         */
+        public void writeResultSet (ResultEnvelope.Which which, int[] times, PointSet targets,
+                                    boolean includeTimes, boolean includeHistograms) throws IOException {
+            out.writeUInt32NoTag(which.ordinal() + 1);
+
+            if (includeTimes) {
+                out.writeUInt32NoTag(times.length);
+                int prev = 0;
+                for (int time : times) {
+                    if (time == Integer.MAX_VALUE) time = UNREACHED;
+                    out.writeSInt32NoTag(time - prev);
+                    prev = time;
+                }
+            } else {
+                out.writeUInt32NoTag(0);
+            }
+
+            Map<String, Histogram> histograms = includeHistograms ? Histogram.buildAll(times, targets) : null;
+            if (histograms == null || histograms.isEmpty()) {
+                out.writeUInt32NoTag(0);
+                return;
+            }
+            out.writeUInt32NoTag(histograms.size());
+            int[] counts = histograms.values().iterator().next().counts;
+            out.writeUInt32NoTag(counts.length);
+            writeDeltas(counts);
+            for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+                out.writeStringNoTag(e.getKey());
+                writeDeltas(e.getValue().sums);
+            }
+        }
+
+        private void writeDeltas (int[] values) throws IOException {
+            int prev = 0;
+            for (int value : values) {
+                out.writeSInt32NoTag(value - prev);
+                prev = value;
+            }
+        }
+
+        /** Write the header and all the result sets to the given stream, without closing it. */
+        public void finish (OutputStream outputStream) throws IOException {
+            out.writeUInt32NoTag(0);
+            out.flush();
+            CodedOutputStream header = writeHeader(outputStream, SUCCEEDED);
+            header.flush();
+            resultSets.writeTo(outputStream);
+            outputStream.flush();
+        }
+
+        /**
+         * Write a result recording that the task failed with the given message, without closing the stream. The result
+         * sets written so far are discarded.
+         */
+        public void fail (OutputStream outputStream, String message) throws IOException {
+            CodedOutputStream header = writeHeader(outputStream, FAILED);
+            header.writeStringNoTag(message == null ? "" : message);
+            header.flush();
+            outputStream.flush();
+        }
+
+        private CodedOutputStream writeHeader (OutputStream outputStream, int status) throws IOException {
+            CodedOutputStream header = CodedOutputStream.newInstance(outputStream);
+            header.writeRawBytes(MAGIC);
+            header.writeUInt32NoTag(VERSION);
+            header.writeStringNoTag(jobId == null ? "" : jobId);
+            header.writeStringNoTag(id == null ? "" : id);
+            header.writeStringNoTag(destinationPointsetId == null ? "" : destinationPointsetId);
+            header.writeUInt32NoTag(status);
+            return header;
+        }
+    }
+
+    /** Thrown when reading the result of a task that failed on the worker. */
+    public static class FailedTaskException extends IOException {
+        public FailedTaskException (String id, String message) {
+            super("Task " + id + " failed: " + message);
+        }
+    }
+
+    /**
+     * Read a result envelope back from a stream in this format.
+     * @throws FailedTaskException if the stream records that the task failed.
+     */
+    public static ResultEnvelope read (InputStream inputStream) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(inputStream);
+        // Results for large pointsets are bigger than the default protobuf message size limit.
+        in.setSizeLimit(Integer.MAX_VALUE);
+
+        if (!Arrays.equals(in.readRawBytes(MAGIC.length), MAGIC)) {
+            throw new IOException("Not a compact result file.");
+        }
+        int version = in.readUInt32();
+        if (version != VERSION) {
+            throw new IOException("Unsupported compact result version " + version);
+        }
+
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.jobId = emptyToNull(in.readString());
+        envelope.id = emptyToNull(in.readString());
+        envelope.destinationPointsetId = emptyToNull(in.readString());
+        if (in.readUInt32() == FAILED) {
+            throw new FailedTaskException(envelope.id, in.readString());
+        }
+
+        for (int which; (which = in.readUInt32()) != 0; ) {
+            ResultSet resultSet = new ResultSet();
+            int nTimes = in.readUInt32();
+            if (nTimes > 0) {
+                resultSet.times = readDeltas(in, nTimes);
+                for (int i = 0; i < nTimes; i++) {
+                    if (resultSet.times[i] == UNREACHED) resultSet.times[i] = Integer.MAX_VALUE;
+                }
+            }
+            int nHistograms = in.readUInt32();
+            if (nHistograms > 0) {
+                int[] counts = readDeltas(in, in.readUInt32());
+                for (int h = 0; h < nHistograms; h++) {
+                    Histogram histogram = new Histogram();
+                    String property = in.readString();
+                    histogram.counts = counts;
+                    histogram.sums = readDeltas(in, counts.length);
+                    resultSet.histograms.put(property, histogram);
+                }
+            }
+            envelope.put(ResultEnvelope.Which.values()[which - 1], resultSet);
+        }
+        return envelope;
+    }
+
+    private static int[] readDeltas (CodedInputStream in, int length) throws IOException {
+        int[] values = new int[length];
+        int prev = 0;
+        for (int i = 0; i < length; i++) {
+            prev += in.readSInt32();
+            values[i] = prev;
+        }
+        return values;
+    }
+
+    private static String emptyToNull (String s) {
+        return s.isEmpty() ? null : s;
+    }
+
+}
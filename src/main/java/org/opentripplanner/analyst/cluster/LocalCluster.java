@@ -0,0 +1,327 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.analyst.broker.BrokerMain;
+import org.opentripplanner.analyst.broker.JobStatus;
+import org.opentripplanner.api.model.FeedScopedIdSerializer;
+import org.opentripplanner.api.model.JodaLocalDateSerializer;
+import org.opentripplanner.api.model.QualifiedModeSetSerializer;
+import org.opentripplanner.api.model.TraverseModeSetSerializer;
+import org.opentripplanner.profile.ProfileRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * Runs an analyst cluster on a single machine and reports how fast it processes a regional job, so that the capacity
+ * needed for regional analyses can be planned without starting cloud instances.
+ *
+ * A broker is started in this JVM, and the requested number of workers each in their own JVM (workers identify
+ * themselves to the broker with a per-JVM machine ID). The workers use local storage in place of S3: graph inputs are
+ * read from local-storage/graphs/[graph-id].zip and pointsets from local-storage/pointsets/[pointset-id].json.gz, and
+ * results are saved under local-storage/results. A job with one origin per pointset feature (cycling through the
+ * features if more origins are requested) is submitted, and when it is complete the statistics saved by the workers are
+ * summarized: tasks per second, percentiles of task compute time and of time from job submission to task completion,
+ * and the fraction of each worker's threads that was busy.
+ *
+ * The configuration is a Java Properties file with the following attributes.
+ *
+ * local-storage            Directory holding the graphs and pointsets subdirectories (required)
+ * graph-id                 The graph to use (required)
+ * pointset-id              The pointset whose features are used as origins and destinations (required)
+ * workers                  Number of worker processes (optional, default 2)
+ * worker-threads           Tasks processed at once by each worker (optional, defaults to cores divided by workers)
+ * worker-heap              Maximum heap of each worker JVM, e.g. 4G (optional)
+ * origins                  Number of origins in the job (optional, default 1000)
+ * profile-request          JSON file holding the profile request to use for every origin (optional)
+ * broker-port              Port for the broker (optional, default 9001)
+ * dry-run-failure-rate     Have the workers skip all work, to measure the broker alone (optional)
+ */
+public class LocalCluster {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalCluster.class);
+
+    /** Stand-in for the S3 bucket name in the output location of tasks, used as a directory name for results. */
+    private static final String OUTPUT_LOCATION = "local-cluster";
+
+    private final Properties config;
+
+    private final File localStorage;
+
+    private final String graphId, pointSetId;
+
+    private final int nWorkers, workerThreads, nOrigins, brokerPort;
+
+    private final List<Process> workerProcesses = new ArrayList<>();
+
+    private final List<File> statisticsFiles = new ArrayList<>();
+
+    private final HttpClient httpClient = HttpClients.createDefault();
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public LocalCluster (Properties config) {
+        this.config = config;
+        this.localStorage = new File(required(config, "local-storage")).getAbsoluteFile();
+        this.graphId = required(config, "graph-id");
+        this.pointSetId = required(config, "pointset-id");
+        this.nWorkers = Integer.parseInt(config.getProperty("workers", "2"));
+        int defaultThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / nWorkers);
+        this.workerThreads = Integer.parseInt(config.getProperty("worker-threads", Integer.toString(defaultThreads)));
+        this.nOrigins = Integer.parseInt(config.getProperty("origins", "1000"));
+        this.brokerPort = Integer.parseInt(config.getProperty("broker-port", "9001"));
+
+        mapper.registerModule(FeedScopedIdSerializer.makeModule());
+        mapper.registerModule(QualifiedModeSetSerializer.makeModule());
+        mapper.registerModule(JodaLocalDateSerializer.makeModule());
+        mapper.registerModule(TraverseModeSetSerializer.makeModule());
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    private static String required (Properties config, String key) {
+        String value = config.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Local cluster configuration must include " + key);
+        }
+        return value;
+    }
+
+    /** Start the cluster, run one job, report on it and stop the workers. */
+    public void run () throws Exception {
+        startBroker();
+        try {
+            for (int i = 0; i < nWorkers; i++) {
+                startWorker(i);
+            }
+            List<AnalystClusterRequest> tasks = makeTasks();
+            String jobId = tasks.get(0).jobId;
+            long submitTime = System.currentTimeMillis();
+            submit(tasks);
+            waitForCompletion(jobId);
+            long endTime = System.currentTimeMillis();
+            report(jobId, submitTime, endTime);
+        } finally {
+            workerProcesses.forEach(Process::destroy);
+        }
+    }
+
+    private void startBroker () throws InterruptedException {
+        Properties brokerConfig = new Properties();
+        brokerConfig.setProperty("port", Integer.toString(brokerPort));
+        brokerConfig.setProperty("bind-address", "127.0.0.1");
+        // Offline mode keeps the broker from starting cloud instances and lets any worker take any task.
+        brokerConfig.setProperty("work-offline", "true");
+        brokerConfig.setProperty("graphs-bucket", "local");
+        brokerConfig.setProperty("pointsets-bucket", "local");
+        Thread brokerThread = new Thread(new BrokerMain(brokerConfig), "broker");
+        brokerThread.setDaemon(true);
+        brokerThread.start();
+        // Wait for the broker to accept connections.
+        while (true) {
+            try (Socket socket = new Socket("127.0.0.1", brokerPort)) {
+                return;
+            } catch (IOException e) {
+                Thread.sleep(200);
+            }
+        }
+    }
+
+    /**
+     * Start a worker in a new JVM with the same classpath as this one. Each worker runs in its own directory, as
+     * workers keep their graph and pointset caches in the working directory.
+     */
+    private void startWorker (int index) throws IOException {
+        File workerDirectory = new File(new File(localStorage, "workers"), Integer.toString(index));
+        workerDirectory.mkdirs();
+        File statisticsFile = new File(workerDirectory, "statistics.json");
+        statisticsFile.delete();
+        statisticsFiles.add(statisticsFile);
+
+        Properties workerConfig = new Properties();
+        workerConfig.setProperty("broker-address", "127.0.0.1");
+        workerConfig.setProperty("broker-port", Integer.toString(brokerPort));
+        workerConfig.setProperty("initial-graph-id", graphId);
+        workerConfig.setProperty("local-storage", localStorage.getPath());
+        workerConfig.setProperty("statistics-file", statisticsFile.getAbsolutePath());
+        workerConfig.setProperty("worker-threads", Integer.toString(workerThreads));
+        workerConfig.setProperty("single-point-parallelism", Integer.toString(workerThreads));
+        if (config.getProperty("dry-run-failure-rate") != null) {
+            workerConfig.setProperty("dry-run-failure-rate", config.getProperty("dry-run-failure-rate"));
+        }
+        File configFile = new File(workerDirectory, "worker.conf");
+        try (OutputStream out = new FileOutputStream(configFile)) {
+            workerConfig.store(out, "Local cluster worker " + index);
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        if (config.getProperty("worker-heap") != null) {
+            command.add("-Xmx" + config.getProperty("worker-heap"));
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                AnalystWorker.class.getName(), configFile.getAbsolutePath()));
+        Process process = new ProcessBuilder(command)
+                .directory(workerDirectory)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(workerDirectory, "worker.log"))
+                .start();
+        workerProcesses.add(process);
+        LOG.info("Started worker {} in {}", index, workerDirectory);
+    }
+
+    /** Make one task per origin, placing origins on the pointset features. */
+    private List<AnalystClusterRequest> makeTasks () throws IOException, CloneNotSupportedException {
+        PointSetDatastore pointSets = new PointSetDatastore(1, null, false, null, new File(localStorage, "pointsets"));
+        PointSet pointSet = pointSets.get(pointSetId);
+        if (pointSet == null || pointSet.capacity == 0) {
+            throw new IllegalArgumentException("Pointset " + pointSetId + " could not be loaded or has no features.");
+        }
+
+        ProfileRequest template;
+        if (config.getProperty("profile-request") != null) {
+            try (InputStream in = new FileInputStream(config.getProperty("profile-request"))) {
+                template = mapper.readValue(in, ProfileRequest.class);
+            }
+        } else {
+            template = new ProfileRequest();
+        }
+
+        String jobId = JobSimulator.compactUUID();
+        List<AnalystClusterRequest> tasks = new ArrayList<>(nOrigins);
+        for (int i = 0; i < nOrigins; i++) {
+            int feature = i % pointSet.capacity;
+            ProfileRequest profileRequest = template.clone();
+            profileRequest.fromLat = profileRequest.toLat = pointSet.getLat(feature);
+            profileRequest.fromLon = profileRequest.toLon = pointSet.getLon(feature);
+            AnalystClusterRequest task = new AnalystClusterRequest(pointSetId, graphId, profileRequest);
+            task.jobId = jobId;
+            task.id = Integer.toString(i);
+            task.outputLocation = OUTPUT_LOCATION;
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    private void submit (List<AnalystClusterRequest> tasks) throws IOException {
+        HttpPost post = new HttpPost(brokerUrl("/enqueue/jobs"));
+        post.setEntity(new ByteArrayEntity(mapper.writeValueAsBytes(tasks)));
+        HttpResponse response = httpClient.execute(post);
+        EntityUtils.consumeQuietly(response.getEntity());
+        LOG.info("Submitted job {} with {} origins to {} workers.", tasks.get(0).jobId, tasks.size(), nWorkers);
+    }
+
+    private void waitForCompletion (String jobId) throws IOException, InterruptedException {
+        while (true) {
+            Thread.sleep(1000);
+            HttpResponse response = httpClient.execute(new HttpGet(brokerUrl("/status/" + jobId)));
+            if (response.getStatusLine().getStatusCode() != 200) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                continue;
+            }
+            List<JobStatus> statuses = mapper.readValue(response.getEntity().getContent(),
+                    new TypeReference<List<JobStatus>>() { });
+            JobStatus status = statuses.get(0);
+            LOG.info("{} of {} tasks complete, {} in flight.", status.complete, nOrigins, status.inFlight);
+            if (status.complete >= nOrigins) return;
+            for (Process process : workerProcesses) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException("A worker exited before the job was complete, see its log.");
+                }
+            }
+        }
+    }
+
+    private void report (String jobId, long submitTime, long endTime) throws IOException {
+        double seconds = (endTime - submitTime) / 1000.0;
+        LOG.info("Job of {} tasks on {} workers with {} threads each finished in {} seconds: {} tasks per second.",
+                nOrigins, nWorkers, workerThreads, String.format("%.1f", seconds),
+                String.format("%.2f", nOrigins / seconds));
+
+        // Workers save the statistics of a task before acknowledging it, so they are all saved once the job is complete.
+        List<TaskStatistics> all = new ArrayList<>();
+        for (int w = 0; w < nWorkers; w++) {
+            List<TaskStatistics> stats = readStatistics(statisticsFiles.get(w), jobId);
+            all.addAll(stats);
+            if (stats.isEmpty()) continue;
+            LOG.info("Worker {}: {} tasks, utilization {}%", w, stats.size(),
+                    String.format("%.0f", utilization(stats, workerThreads, endTime) * 100));
+        }
+
+        if (all.isEmpty()) {
+            LOG.info("No task statistics were saved (workers save none in dry runs).");
+            return;
+        }
+        if (all.size() < nOrigins) {
+            LOG.warn("Statistics were saved for only {} of {} tasks.", all.size(), nOrigins);
+        }
+        int[] computeTimes = all.stream().mapToInt(ts -> ts.total).sorted().toArray();
+        int[] latencies = all.stream().mapToInt(ts -> (int) (ts.computeDate + ts.total - submitTime)).sorted().toArray();
+        LOG.info("Task compute time (msec): p50 {} p90 {} p99 {} max {}", percentile(computeTimes, 50),
+                percentile(computeTimes, 90), percentile(computeTimes, 99), computeTimes[computeTimes.length - 1]);
+        LOG.info("Time from submission to task completion (msec): p50 {} p90 {} p99 {} max {}", percentile(latencies, 50),
+                percentile(latencies, 90), percentile(latencies, 99), latencies[latencies.length - 1]);
+        long failures = all.stream().filter(ts -> !ts.success).count();
+        if (failures > 0) LOG.warn("{} tasks failed.", failures);
+    }
+
+    /** @return the statistics saved in the given file for tasks of the given job, or none if there is no file. */
+    static List<TaskStatistics> readStatistics (File file, String jobId) throws IOException {
+        if (!file.exists()) return new ArrayList<>();
+        return LocalTaskStatisticsStore.read(file).stream()
+                .filter(ts -> jobId.equals(ts.jobId)).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the fraction of the time a worker's threads were busy, from the start of its first task to the end of
+     * the job.
+     */
+    static double utilization (List<TaskStatistics> stats, int threads, long endTime) {
+        long firstStart = stats.stream().mapToLong(ts -> ts.computeDate).min().getAsLong();
+        long busy = stats.stream().mapToLong(ts -> ts.total).sum();
+        return busy / ((double) threads * Math.max(endTime - firstStart, 1));
+    }
+
+    /** @return the given percentile of the sorted values, by the nearest rank method. */
+    static int percentile (int[] sortedValues, int percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.length);
+        return sortedValues[Math.max(rank - 1, 0)];
+    }
+
+    private String brokerUrl (String path) {
+        return "http://127.0.0.1:" + brokerPort + path;
+    }
+
+    public static void main (String[] args) throws Exception {
+        Properties config = new Properties();
+        File cfg = new File(args.length > 0 ? args[0] : "local-cluster.conf");
+        try (InputStream in = new FileInputStream(cfg)) {
+            config.load(in);
+        }
+        new LocalCluster(config).run();
+        // The broker runs in a daemon thread, but Grizzly's threads would keep the JVM alive.
+        System.exit(0);
+    }
+
+}
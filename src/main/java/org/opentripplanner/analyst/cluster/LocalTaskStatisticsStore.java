@@ -0,0 +1,62 @@
+package org.opentripplanner.analyst.cluster;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Task Statistics Store that appends statistics to a local file, one JSON object per line. This stands in for
+ * SQSTaskStatisticsStore when running a cluster on a single machine, e.g. with LocalCluster.
+ */
+public class LocalTaskStatisticsStore implements TaskStatisticsStore {
+    private static final Logger LOG = LoggerFactory.getLogger(LocalTaskStatisticsStore.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final File file;
+
+    private Writer writer;
+
+    /** create a task statistics store appending to the given file */
+    public LocalTaskStatisticsStore(File file) {
+        this.file = file;
+        try {
+            writer = new FileWriter(file, true);
+        } catch (IOException e) {
+            LOG.error("Unable to initialize statistics store", e);
+        }
+        LOG.info("Saving statistics to file {}", file);
+    }
+
+    public synchronized void store (TaskStatistics ts) {
+        if (writer == null) return;
+        try {
+            writer.write(objectMapper.writeValueAsString(ts));
+            writer.write('\n');
+            // Flush each record so that statistics can be read while the worker is running.
+            writer.flush();
+        } catch (Exception e) {
+            LOG.error("Error saving stats to {}", file, e);
+        }
+    }
+
+    /** Read all the statistics saved in the given file. */
+    public static List<TaskStatistics> read (File file) throws IOException {
+        List<TaskStatistics> statistics = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            for (String line; (line = reader.readLine()) != null; ) {
+                if (!line.isEmpty()) statistics.add(objectMapper.readValue(line, TaskStatistics.class));
+            }
+        }
+        return statistics;
+    }
+}
@@ -10,6 +10,7 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.io.ByteStreams;
 import org.apache.commons.io.FileUtils;
+import org.opentripplanner.analyst.ColumnarPointSetFile;
 import org.opentripplanner.analyst.PointSet;
 import org.opentripplanner.analyst.PointSetCache;
 
@@ -17,6 +18,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
@@ -31,9 +33,19 @@ public class PointSetDatastore extends PointSetCache {
 	
 	private AmazonS3Client s3;
 	private final Boolean workOffline;
+	private final File localPointsetBucket;
 	
 	public PointSetDatastore(Integer maxCacheSize, String s3CredentialsFilename,
 			Boolean workOffline, String pointsetBucket){
+		this(maxCacheSize, s3CredentialsFilename, workOffline, pointsetBucket, null);
+	}
+
+	/**
+	 * @param localPointsetBucket if not null, pointsets are read from this directory instead of the S3 bucket. It
+	 *                            holds the same <pointSetId>.json.gz files as the bucket would.
+	 */
+	public PointSetDatastore(Integer maxCacheSize, String s3CredentialsFilename,
+			Boolean workOffline, String pointsetBucket, File localPointsetBucket){
 		
 		super();
 
@@ -41,8 +53,9 @@ public class PointSetDatastore extends PointSetCache {
 		this.workOffline = workOffline;
 		
 		this.pointsetBucket = pointsetBucket;
+		this.localPointsetBucket = localPointsetBucket;
 		
-		if(!this.workOffline) {
+		if(!this.workOffline && localPointsetBucket == null) {
 			if (s3CredentialsFilename != null) {
 				AWSCredentials creds = new ProfileCredentialsProvider(s3CredentialsFilename, "default").getCredentials();
 				s3 = new AmazonS3Client(creds);
@@ -56,7 +69,7 @@ public class PointSetDatastore extends PointSetCache {
 		// set up the cache
 		this.pointSets = CacheBuilder.newBuilder()
 			       .maximumSize(maxCacheSize)
-			       .build(new S3PointSetLoader(workOffline, s3, pointsetBucket));
+			       .build(new S3PointSetLoader(workOffline, s3, pointsetBucket, localPointsetBucket));
 	}
 	
 	// adds file to S3 Data store or offline cache (if working offline)
@@ -71,7 +84,16 @@ public class PointSetDatastore extends PointSetCache {
 		
 		FileUtils.copyFile(pointSetFile, renamedPointSetFile);
 		
-		if(!this.workOffline) {
+		if (localPointsetBucket != null) {
+			File storedFile = new File(localPointsetBucket, pointSetId + ".json.gz");
+			if (!storedFile.exists()) {
+				localPointsetBucket.mkdirs();
+				try (FileInputStream fis = new FileInputStream(pointSetFile);
+						GZIPOutputStream gos = new GZIPOutputStream(new FileOutputStream(storedFile))) {
+					ByteStreams.copy(fis, gos);
+				}
+			}
+		} else if(!this.workOffline) {
 			// only upload if it doesn't exist
 			try {
 				s3.getObjectMetadata(pointsetBucket, pointSetId + ".json.gz");
@@ -111,14 +133,16 @@ public class PointSetDatastore extends PointSetCache {
 		private Boolean workOffline;
 		private AmazonS3Client s3;
 		private String pointsetBucket;
+		private File localPointsetBucket;
 		
 		/**
 		 * Construct a new point set loader. S3 clients are generally threadsafe, so it's fine to share them.
 		 */
-		public S3PointSetLoader(Boolean workOffline, AmazonS3Client s3, String pointsetBucket) {
+		public S3PointSetLoader(Boolean workOffline, AmazonS3Client s3, String pointsetBucket, File localPointsetBucket) {
 			this.workOffline = workOffline;
 			this.s3 = s3;
 			this.pointsetBucket = pointsetBucket;
+			this.localPointsetBucket = localPointsetBucket;
 		}
 
 		@Override
@@ -132,10 +156,15 @@ public class PointSetDatastore extends PointSetCache {
 				if(!cachedFile.exists()){
 					POINT_DIR.mkdirs();
 					
-					S3Object obj = s3.getObject(pointsetBucket, pointSetId + ".json.gz");
-					ObjectMetadata objMet = obj.getObjectMetadata();
+					InputStream compressed;
+					if (localPointsetBucket != null) {
+						compressed = new FileInputStream(new File(localPointsetBucket, pointSetId + ".json.gz"));
+					} else {
+						S3Object obj = s3.getObject(pointsetBucket, pointSetId + ".json.gz");
+						compressed = obj.getObjectContent();
+					}
 					FileOutputStream fos = new FileOutputStream(cachedFile);
-					GZIPInputStream gis = new GZIPInputStream(obj.getObjectContent());
+					GZIPInputStream gis = new GZIPInputStream(compressed);
 					try {
 						ByteStreams.copy(gis, fos);
 					} finally {
@@ -149,9 +178,8 @@ public class PointSetDatastore extends PointSetCache {
 			
 			
 			
-			// grab it from the cache
-			
-			return PointSet.fromGeoJson(cachedFile);	
+			// grab it from the cache, parsing the GeoJSON only the first time and the columnar copy after that
+			return ColumnarPointSetFile.loadCached(cachedFile, PointSet::fromGeoJson);
 		}
 	}
 
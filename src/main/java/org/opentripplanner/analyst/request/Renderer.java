@@ -48,6 +48,26 @@ public class Renderer {
             RenderRequest renderRequest) throws Exception {
 
         Tile tile = tileCache.get(tileRequest);
+        BufferedImage image = renderImage(tile, surfA, surfB, renderRequest);
+
+        // geotiff kludge
+        if (renderRequest.format.toString().equals("image/geotiff")) {
+            GridCoverage2D gc = tile.getGridCoverage2D(image);
+            return generateStreamingGeotiffResponse(gc);
+        } else {
+            return generateStreamingImageResponse(image, renderRequest.format);
+        }
+    }
+
+    /** Render the given surface(s) into an image covering the requested tile, without encoding it. */
+    public BufferedImage getImage (
+            TileRequest tileRequest,
+            TimeSurface surfA, TimeSurface surfB,
+            RenderRequest renderRequest) throws Exception {
+        return renderImage(tileCache.get(tileRequest), surfA, surfB, renderRequest);
+    }
+
+    private BufferedImage renderImage (Tile tile, TimeSurface surfA, TimeSurface surfB, RenderRequest renderRequest) {
         BufferedImage image;
         switch (renderRequest.layer) {
         case DIFFERENCE :
@@ -75,14 +95,7 @@ public class Renderer {
             g2d.drawImage(legend, 0, image.getHeight()-50, null);
             g2d.dispose();
         }
-                
-        // geotiff kludge
-        if (renderRequest.format.toString().equals("image/geotiff")) {
-            GridCoverage2D gc = tile.getGridCoverage2D(image);
-            return generateStreamingGeotiffResponse(gc);
-        } else {
-            return generateStreamingImageResponse(image, renderRequest.format);
-        }
+        return image;
     }
     
     private void shadowWrite(BufferedImage image, String... strings) {
@@ -0,0 +1,125 @@
+package org.opentripplanner.analyst.request;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.geotools.geometry.Envelope2D;
+import org.opentripplanner.analyst.SurfaceCache;
+import org.opentripplanner.analyst.TimeSurface;
+import org.opentripplanner.analyst.core.SlippyTile;
+import org.opentripplanner.api.parameter.Layer;
+import org.opentripplanner.api.parameter.MIMEImageFormat;
+import org.opentripplanner.api.parameter.Style;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.ws.rs.core.EntityTag;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Caches rendered, PNG-encoded slippy map tiles of time surfaces. Each surface is rendered into a web mercator tile
+ * pyramid lazily, one tile at a time as clients ask for it, and the encoded bytes are kept until the total size of
+ * the cache exceeds its limit. Map clients request dozens of tiles at once: different tiles are rendered concurrently
+ * on the request threads, while simultaneous requests for the same tile wait for a single rendering.
+ *
+ * Time surfaces never change once they are made, so a tile can be identified by the surface(s) it was rendered from
+ * and its coordinates, and a single ETag per surface is enough for clients to revalidate their cached tiles.
+ */
+public class SurfaceTileCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SurfaceTileCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    public static final int TILE_SIZE = 256;
+
+    /** Surface IDs start over when the server restarts, so tag the surfaces made by this server instance. */
+    private static final String SERVER_INSTANCE = Long.toString(System.currentTimeMillis(), 36);
+
+    private static final MIMEImageFormat PNG = new MIMEImageFormat("image/png");
+
+    private final Cache<Key, byte[]> cache;
+
+    public SurfaceTileCache (long maxBytes) {
+        this.cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(16)
+                .maximumWeight(maxBytes)
+                .weigher((Key key, byte[] png) -> png.length)
+                .build();
+    }
+
+    /**
+     * Get the PNG-encoded tile at the given coordinates, rendering it if it is not cached.
+     * @param surfB the surface to combine with surfA for difference layers, or null.
+     */
+    public byte[] get (Renderer renderer, TimeSurface surfA, TimeSurface surfB, int x, int y, int z,
+                       Layer layer, Style style) throws ExecutionException {
+        Key key = new Key(surfA.id, surfB == null ? SurfaceCache.NONE : surfB.id, x, y, z, layer, style);
+        return cache.get(key, () -> render(renderer, surfA, surfB, key));
+    }
+
+    private static byte[] render (Renderer renderer, TimeSurface surfA, TimeSurface surfB, Key key) throws Exception {
+        long t0 = System.currentTimeMillis();
+        Envelope2D env = SlippyTile.tile2Envelope(key.x, key.y, key.z);
+        TileRequest tileRequest = new TileRequest(env, TILE_SIZE, TILE_SIZE);
+        RenderRequest renderRequest = new RenderRequest(PNG, key.layer, key.style, true, false);
+        BufferedImage image = renderer.getImage(tileRequest, surfA, surfB, renderRequest);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, PNG.type, out);
+        LOG.debug("rendered {} in {}msec", key, System.currentTimeMillis() - t0);
+        return out.toByteArray();
+    }
+
+    /** @return a tag identifying all the tiles rendered from the given surface(s), surfB may be null. */
+    public static EntityTag getEntityTag (TimeSurface surfA, TimeSurface surfB) {
+        String tag = SERVER_INSTANCE + "-" + surfA.id;
+        if (surfB != null) tag += "-" + surfB.id;
+        return new EntityTag(tag);
+    }
+
+    /** Identifies one rendered tile. */
+    private static class Key {
+        final int surfaceId, compareToSurfaceId, x, y, z;
+        final Layer layer;
+        final Style style;
+
+        Key (int surfaceId, int compareToSurfaceId, int x, int y, int z, Layer layer, Style style) {
+            this.surfaceId = surfaceId;
+            this.compareToSurfaceId = compareToSurfaceId;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.layer = layer;
+            this.style = style;
+        }
+
+        public int hashCode () {
+            int hash = surfaceId;
+            hash = hash * 31 + compareToSurfaceId;
+            hash = hash * 31 + x;
+            hash = hash * 31 + y;
+            hash = hash * 31 + z;
+            hash = hash * 31 + layer.hashCode();
+            return hash * 31 + style.hashCode();
+        }
+
+        public boolean equals (Object other) {
+            if (other instanceof Key) {
+                Key that = (Key) other;
+                return this.surfaceId == that.surfaceId &&
+                       this.compareToSurfaceId == that.compareToSurfaceId &&
+                       this.x == that.x && this.y == that.y && this.z == that.z &&
+                       this.layer == that.layer && this.style == that.style;
+            }
+            return false;
+        }
+
+        public String toString () {
+            return String.format("<surface tile %d/%d %d/%d/%d %s %s>",
+                    surfaceId, compareToSurfaceId, z, x, y, layer, style);
+        }
+    }
+
+}
@@ -27,6 +27,7 @@ import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.vertextype.*;
 import org.opentripplanner.util.PolylineEncoder;
+import org.opentripplanner.util.monitoring.RequestMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -47,6 +48,8 @@ public abstract class GraphPathToTripPlanConverter {
      */
     public static TripPlan generatePlan(List<GraphPath> paths, RoutingRequest request) {
 
+        long startTime = System.nanoTime();
+
         Locale requestedLocale = request.locale;
 
         GraphPath exemplar = paths.get(0);
@@ -107,6 +110,7 @@ public abstract class GraphPathToTripPlanConverter {
             }
         }
         request.rctx.debugOutput.finishedRendering();
+        RequestMetrics.ITINERARY_CONVERSION.observeSince(startTime);
         return plan;
     }
 
@@ -0,0 +1,28 @@
+package org.opentripplanner.api.resource;
+
+import org.opentripplanner.util.monitoring.RequestMetrics;
+
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+/**
+ * Expose the request metrics in the Prometheus text exposition format, so a Prometheus server can scrape them. The
+ * metrics are global to the OTP server rather than per router. Like the router administration methods, this is only
+ * available to the ROUTERS user, so scrapers must use basic authentication over HTTPS unless OTP runs insecure.
+ */
+@Path("/metrics")
+public class MetricsResource {
+
+    /** The content type of version 0.0.4 of the Prometheus text format. */
+    public static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    @GET
+    @RolesAllowed({ "ROUTERS" })
+    @Produces(PROMETHEUS_TEXT)
+    public String getMetrics () {
+        return RequestMetrics.toPrometheusText();
+    }
+
+}
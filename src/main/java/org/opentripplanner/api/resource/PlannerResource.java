@@ -8,6 +8,7 @@ import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.impl.GraphPathFinder;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.standalone.Router;
+import org.opentripplanner.util.monitoring.RequestMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,6 +53,7 @@ public class PlannerResource extends RoutingResource {
          *       out so it's used here too...
          */
 
+        long startTime = System.nanoTime();
         // Create response object, containing a copy of all request parameters. Maybe they should be in the debug section of the response.
         Response response = new Response(uriInfo);
         RoutingRequest request = null;
@@ -61,6 +63,7 @@ public class PlannerResource extends RoutingResource {
 
             /* Fill in request fields from query parameters via shared superclass method, catching any errors. */
             request = super.buildRequest();
+            request.recordRequestMetrics = true;
             router = otpServer.getRouter(request.routerId);
 
             /* Find some good GraphPaths through the OTP Graph. */
@@ -83,6 +86,7 @@ public class PlannerResource extends RoutingResource {
                 }
                 request.cleanup(); // TODO verify that this cleanup step is being done on Analyst web services
             }
+            RequestMetrics.PLAN_REQUEST.observeSince(startTime);
         }
 
         /* Populate up the elevation metadata */
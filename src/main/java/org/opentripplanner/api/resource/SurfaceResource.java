@@ -9,9 +9,9 @@ import org.opentripplanner.analyst.ResultSet;
 import org.opentripplanner.analyst.SampleSet;
 import org.opentripplanner.analyst.TimeSurface;
 import org.opentripplanner.analyst.core.IsochroneData;
-import org.opentripplanner.analyst.core.SlippyTile;
 import org.opentripplanner.analyst.request.RenderRequest;
 import org.opentripplanner.analyst.request.SampleGridRenderer.WTWD;
+import org.opentripplanner.analyst.request.SurfaceTileCache;
 import org.opentripplanner.analyst.request.TileRequest;
 import org.opentripplanner.api.common.ParameterException;
 import org.opentripplanner.api.common.RoutingResource;
@@ -24,6 +24,7 @@ import org.opentripplanner.api.parameter.Style;
 import org.opentripplanner.common.geometry.DelaunayIsolineBuilder;
 import org.opentripplanner.routing.algorithm.EarliestArrivalSearch;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.standalone.Router;
 import org.slf4j.Logger;
@@ -37,8 +38,11 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.CacheControl;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
@@ -134,7 +138,7 @@ public class SurfaceResource extends RoutingResource {
         Router router = otpServer.getRouter(surf.routerId);
         // TODO cache this sampleset
         SampleSet samples = pset.getSampleSet(router.graph);
-        final ResultSet indicator = new ResultSet(samples, surf, detail, detail);
+        final ResultSet indicator = new ResultSet(samples, surf, router.graph, detail, detail);
         if (indicator == null) return badServer("Could not compute indicator as requested.");
 
         return Response.ok().entity(new StreamingOutput() {
@@ -155,7 +159,8 @@ public class SurfaceResource extends RoutingResource {
         final TimeSurface surf = otpServer.surfaceCache.get(surfaceId);
         if (surf == null) return badRequest("Invalid TimeSurface ID.");
         if (spacing < 1) spacing = 30;
-        List<IsochroneData> isochrones = getIsochronesAccumulative(surf, spacing, nMax);
+        Router router = otpServer.getRouter(surf.routerId);
+        List<IsochroneData> isochrones = getIsochronesAccumulative(surf, router.graph, spacing, nMax);
         // NOTE that cutoffMinutes in the surface must be properly set for the following call to work
         final FeatureCollection fc = LIsochrone.makeContourFeatures(isochrones);
         return Response.ok().entity(new StreamingOutput() {
@@ -172,20 +177,13 @@ public class SurfaceResource extends RoutingResource {
     public Response tileGet(@PathParam("surfaceId") Integer surfaceId,
                             @PathParam("x") int x,
                             @PathParam("y") int y,
-                            @PathParam("z") int z) throws Exception {
+                            @PathParam("z") int z,
+                            @Context Request request) throws Exception {
 
-        Envelope2D env = SlippyTile.tile2Envelope(x, y, z);
         TimeSurface surfA = otpServer.surfaceCache.get(surfaceId);
         if (surfA == null) return badRequest("Unrecognized surface ID.");
-        	
-        TileRequest tileRequest = new TileRequest(env, 256, 256);
-       
-        MIMEImageFormat imageFormat = new MIMEImageFormat("image/png");
-        RenderRequest renderRequest =
-                new RenderRequest(imageFormat, Layer.TRAVELTIME, Style.COLOR30, true, false);
-        // TODO why can't the renderer be static?
-        Router router = otpServer.getRouter(surfA.routerId);
-        return router.renderer.getResponse(tileRequest, surfA, null, renderRequest);
+
+        return tileResponse(request, surfA, null, x, y, z, Layer.TRAVELTIME, Style.COLOR30);
     }
     /**
      * Renders a raster tile for showing the difference between two TimeSurfaces.
@@ -208,9 +206,9 @@ public class SurfaceResource extends RoutingResource {
                             @PathParam("compareToSurfaceId") Integer compareToSurfaceId,
                             @PathParam("x") int x,
                             @PathParam("y") int y,
-                            @PathParam("z") int z) throws Exception {
+                            @PathParam("z") int z,
+                            @Context Request request) throws Exception {
 
-        Envelope2D env = SlippyTile.tile2Envelope(x, y, z);
         TimeSurface surfA = otpServer.surfaceCache.get(surfaceId);
         if (surfA == null) return badRequest("Unrecognized surface ID.");
 
@@ -221,12 +219,25 @@ public class SurfaceResource extends RoutingResource {
             return badRequest("Both surfaces must be from the same router to perform subtraction.");
         }
 
-        TileRequest tileRequest = new TileRequest(env, 256, 256);
-        MIMEImageFormat imageFormat = new MIMEImageFormat("image/png");
-        RenderRequest renderRequest = new RenderRequest(imageFormat, Layer.DIFFERENCE, Style.DIFFERENCE, true, false);
+        return tileResponse(request, surfA, surfB, x, y, z, Layer.DIFFERENCE, Style.DIFFERENCE);
+    }
+
+    /**
+     * Respond with a PNG tile of the given surface(s) from the rendered tile cache, or with 304 Not Modified if the
+     * client already has the tiles of these surfaces.
+     */
+    private Response tileResponse(Request request, TimeSurface surfA, TimeSurface surfB, int x, int y, int z,
+                                  Layer layer, Style style) throws Exception {
+        EntityTag etag = SurfaceTileCache.getEntityTag(surfA, surfB);
+        CacheControl cc = new CacheControl();
+        cc.setMaxAge(3600);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) return notModified.cacheControl(cc).build();
+
         // TODO why can't the renderer be static?
         Router router = otpServer.getRouter(surfA.routerId);
-        return router.renderer.getResponse(tileRequest, surfA, surfB, renderRequest);
+        byte[] png = otpServer.surfaceTileCache.get(router.renderer, surfA, surfB, x, y, z, layer, style);
+        return Response.ok(png).type("image/png").tag(etag).cacheControl(cc).build();
     }
 
     private Response badRequest(String message) {
@@ -241,15 +252,16 @@ public class SurfaceResource extends RoutingResource {
      * Use Laurent's accumulative grid sampler. Cutoffs in minutes.
      * The grid and Delaunay triangulation are cached, so subsequent requests are very fast.
      *
+     * @param graph the graph on which the surface was made
      * @param spacing the number of minutes between isochrones
      * @return a list of evenly-spaced isochrones up to the timesurface's cutoff point
      */
-    public static List<IsochroneData> getIsochronesAccumulative(TimeSurface surf, int spacing, int nMax) {
+    public static List<IsochroneData> getIsochronesAccumulative(TimeSurface surf, Graph graph, int spacing, int nMax) {
 
         long t0 = System.currentTimeMillis();
         if (surf.sampleGrid == null) {
             // The sample grid was not built from the SPT; make a minimal one including only time from the vertices in this timesurface
-            surf.makeSampleGridWithoutSPT();
+            surf.makeSampleGridWithoutSPT(graph);
         }
         DelaunayIsolineBuilder<WTWD> isolineBuilder = new DelaunayIsolineBuilder<WTWD>(
                 surf.sampleGrid.delaunayTriangulate(), new WTWD.IsolineMetric());
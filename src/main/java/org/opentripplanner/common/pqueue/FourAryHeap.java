@@ -0,0 +1,122 @@
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A 4-ary min-heap with the same interface as BinHeap. Each node has four children instead of two, so the heap
+ * is half as deep and the children compared at each level of a sift-down sit next to each other in memory.
+ * This trades a few more comparisons per level for far fewer cache misses on the large queues produced by
+ * street searches over big graphs.
+ *
+ * Like BinHeap there is no decrease-key operation: States are immutable, so AStar enqueues a new State and
+ * lets ShortestPathTree.visit() discard the dominated one when it comes out of the queue. Unlike BinHeap,
+ * extracted slots are cleared so the queue does not keep otherwise unreachable States alive.
+ */
+public class FourAryHeap<T> implements OTPPriorityQueue<T> {
+
+    private static final double GROW_FACTOR = 2.0;
+
+    private double[] prio;
+    private T[] elem;
+    private int size;
+
+    public FourAryHeap() {
+        this(1000);
+    }
+
+    @SuppressWarnings("unchecked")
+    public FourAryHeap(int capacity) {
+        if (capacity < 10) capacity = 10;
+        elem = (T[]) new Object[capacity]; // 0-based: children of i are 4i+1 through 4i+4
+        prio = new double[capacity];
+        size = 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    @Override
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[0];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    @Override
+    public T peek_min() {
+        if (size > 0)
+            return elem[0];
+        else
+            return null;
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(elem, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public void insert(T e, double p) {
+        if (size == elem.length)
+            resize((int) (elem.length * GROW_FACTOR));
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >> 2;
+            if (prio[parent] <= p) break;
+            elem[i] = elem[parent];
+            prio[i] = prio[parent];
+            i = parent;
+        }
+        elem[i] = e;
+        prio[i] = p;
+    }
+
+    @Override
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = elem[0];
+        size -= 1;
+        T lastElem = elem[size];
+        double lastPrio = prio[size];
+        elem[size] = null;
+        if (size == 0)
+            return minElem;
+        int i = 0;
+        while (true) {
+            int firstChild = (i << 2) + 1;
+            if (firstChild >= size) break;
+            int lastChild = Math.min(firstChild + 3, size - 1);
+            int child = firstChild;
+            for (int c = firstChild + 1; c <= lastChild; c++) {
+                if (prio[c] < prio[child])
+                    child = c;
+            }
+            if (lastPrio > prio[child]) {
+                elem[i] = elem[child];
+                prio[i] = prio[child];
+                i = child;
+            } else break;
+        }
+        elem[i] = lastElem;
+        prio[i] = lastPrio;
+        return minElem;
+    }
+
+    public void resize(int capacity) {
+        if (capacity < size)
+            throw new IllegalStateException("FourAryHeap contains too many elements to fit in new capacity.");
+        prio = Arrays.copyOf(prio, capacity);
+        elem = Arrays.copyOf(elem, capacity);
+    }
+
+}
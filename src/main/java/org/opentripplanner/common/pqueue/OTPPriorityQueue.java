@@ -0,0 +1,24 @@
+package org.opentripplanner.common.pqueue;
+
+/**
+ * The operations AStar needs from a priority queue. Implementations keep their keys in primitive arrays rather
+ * than wrapping each element in a node object, so enqueueing a search state does not allocate.
+ */
+public interface OTPPriorityQueue<T> {
+
+    int size();
+
+    boolean empty();
+
+    double peek_min_key();
+
+    T peek_min();
+
+    void insert(T e, double p);
+
+    T extract_min();
+
+    /** Empty the queue in one operation, retaining its internal arrays for reuse. */
+    void reset();
+
+}
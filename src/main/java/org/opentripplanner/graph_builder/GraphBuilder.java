@@ -214,7 +214,8 @@ public class GraphBuilder implements Runnable {
         if ( hasOSM ) {
             List<OpenStreetMapProvider> osmProviders = Lists.newArrayList();
             for (File osmFile : osmFiles) {
-                OpenStreetMapProvider osmProvider = new AnyFileBasedOpenStreetMapProviderImpl(osmFile);
+                AnyFileBasedOpenStreetMapProviderImpl osmProvider = new AnyFileBasedOpenStreetMapProviderImpl(osmFile);
+                osmProvider.setPbfParsingThreads(builderParams.osmParsingThreads);
                 osmProviders.add(osmProvider);
             }
             OpenStreetMapModule osmModule = new OpenStreetMapModule(osmProviders);
@@ -230,6 +231,9 @@ public class GraphBuilder implements Runnable {
             osmModule.staticParkAndRide = builderParams.staticParkAndRide;
             osmModule.banDiscouragedWalking = builderParams.banDiscouragedWalking;
             osmModule.banDiscouragedBiking = builderParams.banDiscouragedBiking;
+            if (builderParams.osmNodesOnDisk) {
+                osmModule.nodeDirectory = new File(System.getProperty("java.io.tmpdir"));
+            }
             graphBuilder.addModule(osmModule);
             PruneFloatingIslands pruneFloatingIslands = new PruneFloatingIslands();
             pruneFloatingIslands.setPruningThresholdIslandWithoutStops(builderParams.pruningThresholdIslandWithoutStops);
@@ -266,6 +270,8 @@ public class GraphBuilder implements Runnable {
         graphBuilder.addModule(streetLinkerModule);
         // Load elevation data and apply it to the streets.
         // We want to do run this module after loading the OSM street network but before finding transfers.
+        ElevationModule elevationBuilder = null;
+        String elevationData = null;
         if (builderParams.elevationBucket != null) {
             // Download the elevation tiles from an Amazon S3 bucket
             S3BucketConfig bucketConfig = builderParams.elevationBucket;
@@ -277,18 +283,28 @@ public class GraphBuilder implements Runnable {
             awsTileSource.awsBucketName = bucketConfig.bucketName;
             NEDGridCoverageFactoryImpl gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
             gcf.tileSource = awsTileSource;
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
-            graphBuilder.addModule(elevationBuilder);
+            elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
+            elevationData = "NED tiles from S3 bucket " + bucketConfig.bucketName;
         } else if (builderParams.fetchElevationUS) {
             // Download the elevation tiles from the official web service
             File cacheDirectory = new File(params.cacheDirectory, "ned");
             ElevationGridCoverageFactory gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
-            graphBuilder.addModule(elevationBuilder);
+            elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
+            elevationData = "NED tiles from the USGS download service";
         } else if (demFile != null) {
             // Load the elevation from a file in the graph inputs directory
             ElevationGridCoverageFactory gcf = new GeotiffGridCoverageFactoryImpl(demFile);
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
+            elevationBuilder = new ElevationModule(gcf, builderParams.elevationUnitMultiplier);
+            elevationData = String.format("%s %d %d", demFile.getName(), demFile.length(), demFile.lastModified());
+        }
+        if (elevationBuilder != null) {
+            elevationBuilder.setThreads(builderParams.elevationThreads);
+            if (builderParams.cacheElevationProfiles) {
+                // One cache file per router, since each router has its own streets.
+                File profileFile = new File(new File(params.cacheDirectory, "elevation"), dir.getName() + ".profiles");
+                profileFile.getParentFile().mkdirs();
+                elevationBuilder.setCacheFile(profileFile, elevationData);
+            }
             graphBuilder.addModule(elevationBuilder);
         }
         if ( hasGTFS ) {
@@ -139,19 +139,50 @@ public class SimpleStreetSplitter {
         this(graph, null, null, true);
     }
 
-    /** Link all relevant vertices to the street network */
-    public void link () {	
-        for (Vertex v : graph.getVertices()) {
-            if (v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
-                if (!link(v)) {
-                    if (v instanceof TransitStop)
-                        LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
-                    else if (v instanceof BikeRentalStationVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
-                    else if (v instanceof BikeParkVertex)
-                        LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
-                };
+    /**
+     * Link all relevant vertices to the street network.
+     *
+     * This is done in two phases. First the closest edges to every vertex are found in parallel, which only reads the
+     * graph and the spatial index. Then the vertices are linked one by one in graph order, splitting edges and adding
+     * the new edges to the index. If an earlier vertex has split one of the closest edges found for a vertex, the
+     * search for that vertex is run again against the updated index. Splitting an edge only replaces it with two
+     * pieces of itself, so in every other case the edges found in the first phase are the same ones a search at
+     * linking time would find, and the result is the same as linking the vertices sequentially.
+     */
+    public void link () {
+        List<Vertex> vertices = graph.getVertices().stream()
+                .filter(v -> v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
+                .collect(Collectors.toList());
+
+        List<ClosestEdges> closestEdgesForVertices = vertices.parallelStream()
+                .map(v -> findClosestEdges(v, TraverseMode.WALK))
+                .collect(Collectors.toList());
+
+        int nSearchedAgain = 0;
+        for (int i = 0; i < vertices.size(); i++) {
+            Vertex v = vertices.get(i);
+            ClosestEdges closestEdges = closestEdgesForVertices.get(i);
+            boolean linked;
+            if (closestEdges.bestEdges.isEmpty()) {
+                linked = false;
+            } else if (closestEdges.bestEdges.stream().allMatch(SimpleStreetSplitter::isInGraph)) {
+                linkToEdges(v, closestEdges, null);
+                linked = true;
+            } else {
+                nSearchedAgain++;
+                linked = link(v);
+            }
+            if (!linked) {
+                if (v instanceof TransitStop)
+                    LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
+                else if (v instanceof BikeRentalStationVertex)
+                    LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
+                else if (v instanceof BikeParkVertex)
+                    LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
+            }
         }
+        LOG.info("Linked {} vertices to the street network, {} of them searched again after splitting.",
+                vertices.size(), nSearchedAgain);
     }
 
     /** Link this vertex into the graph to the closest walkable edge */
@@ -161,6 +192,72 @@ public class SimpleStreetSplitter {
 
     /** Link this vertex into the graph */
     public boolean link(Vertex vertex, TraverseMode traverseMode, RoutingRequest options) {
+        ClosestEdges closestEdges = findClosestEdges(vertex, traverseMode);
+        if (!closestEdges.bestEdges.isEmpty()) {
+            linkToEdges(vertex, closestEdges, options);
+            return true;
+        }
+
+        // We only link to stops if we are searching for origin/destination and for that we need transitStopIndex.
+        if (destructiveSplitting || transitStopIndex == null) {
+            return false;
+        }
+        LOG.debug("No street edge was found for {}", vertex);
+        final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+        final double DUPLICATE_WAY_EPSILON_DEGREES = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
+        final double xscale = closestEdges.xscale;
+        // We search for closest stops (since this is only used in origin/destination linking if no edges were found)
+        // in the same way the closest edges are found.
+        List<TransitStop> candidateStops = new ArrayList<>();
+        transitStopIndex.query(closestEdges.envelope).forEach(candidateStop ->
+            candidateStops.add((TransitStop) candidateStop)
+        );
+
+        final TIntDoubleMap stopDistances = new TIntDoubleHashMap();
+
+        for (TransitStop t : candidateStops) {
+            stopDistances.put(t.getIndex(), distance(vertex, t, xscale));
+        }
+
+        Collections.sort(candidateStops, (o1, o2) -> {
+                double diff = stopDistances.get(o1.getIndex()) - stopDistances.get(o2.getIndex());
+                if (diff < 0) {
+                    return -1;
+                }
+                if (diff > 0) {
+                    return 1;
+                }
+                return 0;
+        });
+        if (candidateStops.isEmpty() || stopDistances.get(candidateStops.get(0).getIndex()) > radiusDeg) {
+            LOG.debug("Stops aren't close either!");
+            return false;
+        } else {
+            List<TransitStop> bestStops = Lists.newArrayList();
+            // Add stops until there is a break of epsilon meters.
+            // we do this to enforce determinism. if there are a lot of stops that are all extremely close to each other,
+            // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
+            // fall just inside or beyond the cutoff depending on floating-point operations.
+            int i = 0;
+            do {
+                bestStops.add(candidateStops.get(i++));
+            } while (i < candidateStops.size() &&
+                stopDistances.get(candidateStops.get(i).getIndex()) - stopDistances
+                    .get(candidateStops.get(i - 1).getIndex()) < DUPLICATE_WAY_EPSILON_DEGREES);
+
+            for (TransitStop stop: bestStops) {
+                LOG.debug("Linking vertex to stop: {}", stop.getName());
+                makeTemporaryEdges((TemporaryStreetLocation)vertex, stop);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Find the street edges closest to the given vertex that are traversable in the given mode. This does not modify
+     * the graph or the spatial index, so it can be called on several threads at once.
+     */
+    private ClosestEdges findClosestEdges(Vertex vertex, TraverseMode traverseMode) {
         // find nearby street edges
         // TODO: we used to use an expanding-envelope search, which is more efficient in
         // dense areas. but first let's see how inefficient this is. I suspect it's not too
@@ -192,9 +289,7 @@ public class SimpleStreetSplitter {
             .map(edge -> (StreetEdge) edge)
             // note: not filtering by radius here as distance calculation is expensive
             // we do that below.
-            .filter(edge -> edge.canTraverse(traverseModeSet) &&
-                // only link to edges still in the graph.
-                edge.getToVertex().getIncoming().contains(edge))
+            .filter(edge -> edge.canTraverse(traverseModeSet) && isInGraph(edge))
             .collect(Collectors.toList());
 
         // Make a map of distances to all edges.
@@ -214,89 +309,61 @@ public class SimpleStreetSplitter {
             return 0;
         });
 
+        ClosestEdges closestEdges = new ClosestEdges(env, xscale);
         // find the closest candidate edges
         if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
-            // We only link to stops if we are searching for origin/destination and for that we need transitStopIndex.
-            if (destructiveSplitting || transitStopIndex == null) {
-                return false;
-            }
-            LOG.debug("No street edge was found for {}", vertex);
-            // We search for closest stops (since this is only used in origin/destination linking if no edges were found)
-            // in the same way the closest edges are found.
-            List<TransitStop> candidateStops = new ArrayList<>();
-            transitStopIndex.query(env).forEach(candidateStop ->
-                candidateStops.add((TransitStop) candidateStop)
-            );
-
-            final TIntDoubleMap stopDistances = new TIntDoubleHashMap();
-
-            for (TransitStop t : candidateStops) {
-                stopDistances.put(t.getIndex(), distance(vertex, t, xscale));
-            }
-
-            Collections.sort(candidateStops, (o1, o2) -> {
-                    double diff = stopDistances.get(o1.getIndex()) - stopDistances.get(o2.getIndex());
-                    if (diff < 0) {
-                        return -1;
-                    }
-                    if (diff > 0) {
-                        return 1;
-                    }
-                    return 0;
-            });
-            if (candidateStops.isEmpty() || stopDistances.get(candidateStops.get(0).getIndex()) > radiusDeg) {
-                LOG.debug("Stops aren't close either!");
-                return false;
-            } else {
-                List<TransitStop> bestStops = Lists.newArrayList();
-                // Add stops until there is a break of epsilon meters.
-                // we do this to enforce determinism. if there are a lot of stops that are all extremely close to each other,
-                // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
-                // fall just inside or beyond the cutoff depending on floating-point operations.
-                int i = 0;
-                do {
-                    bestStops.add(candidateStops.get(i++));
-                } while (i < candidateStops.size() &&
-                    stopDistances.get(candidateStops.get(i).getIndex()) - stopDistances
-                        .get(candidateStops.get(i - 1).getIndex()) < DUPLICATE_WAY_EPSILON_DEGREES);
-
-                for (TransitStop stop: bestStops) {
-                    LOG.debug("Linking vertex to stop: {}", stop.getName());
-                    makeTemporaryEdges((TemporaryStreetLocation)vertex, stop);
-                }
-                return true;
-            }
-        } else {
+            return closestEdges;
+        }
 
-            // find the best edges
-            List<StreetEdge> bestEdges = Lists.newArrayList();
+        // add edges until there is a break of epsilon meters.
+        // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
+        // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
+        // fall just inside or beyond the cutoff depending on floating-point operations.
+        int i = 0;
+        do {
+            closestEdges.bestEdges.add(candidateEdges.get(i++));
+        } while (i < candidateEdges.size() &&
+            distances.get(candidateEdges.get(i).getId()) - distances
+                .get(candidateEdges.get(i - 1).getId()) < DUPLICATE_WAY_EPSILON_DEGREES);
+        closestEdges.distanceDegrees = distances.get(candidateEdges.get(0).getId());
+        return closestEdges;
+    }
 
-            // add edges until there is a break of epsilon meters.
-            // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
-            // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
-            // fall just inside or beyond the cutoff depending on floating-point operations.
-            int i = 0;
-            do {
-                bestEdges.add(candidateEdges.get(i++));
-            } while (i < candidateEdges.size() &&
-                distances.get(candidateEdges.get(i).getId()) - distances
-                    .get(candidateEdges.get(i - 1).getId()) < DUPLICATE_WAY_EPSILON_DEGREES);
+    /** Link the vertex to the closest edges found for it, splitting them as needed. */
+    private void linkToEdges(Vertex vertex, ClosestEdges closestEdges, RoutingRequest options) {
+        for (StreetEdge edge : closestEdges.bestEdges) {
+            link(vertex, edge, closestEdges.xscale, options);
+        }
 
-            for (StreetEdge edge : bestEdges) {
-                link(vertex, edge, xscale, options);
+        // Warn if a linkage was made, but the linkage was suspiciously long.
+        if (vertex instanceof TransitStop) {
+            int distanceMeters = (int)SphericalDistanceLibrary.degreesLatitudeToMeters(closestEdges.distanceDegrees);
+            if (distanceMeters > WARNING_DISTANCE_METERS) {
+                // Registering an annotation but not logging because tests produce thousands of these warnings.
+                graph.addBuilderAnnotation(new StopLinkedTooFar((TransitStop)vertex, distanceMeters));
             }
+        }
+    }
 
-            // Warn if a linkage was made, but the linkage was suspiciously long.
-            if (vertex instanceof TransitStop) {
-                double distanceDegreesLatitude = distances.get(candidateEdges.get(0).getId());
-                int distanceMeters = (int)SphericalDistanceLibrary.degreesLatitudeToMeters(distanceDegreesLatitude);
-                if (distanceMeters > WARNING_DISTANCE_METERS) {
-                    // Registering an annotation but not logging because tests produce thousands of these warnings.
-                    graph.addBuilderAnnotation(new StopLinkedTooFar((TransitStop)vertex, distanceMeters));
-                }
-            }
+    /** Split edges stay in the spatial index, so check that an edge is still in the graph before linking to it. */
+    private static boolean isInGraph(StreetEdge edge) {
+        return edge.getToVertex().getIncoming().contains(edge);
+    }
 
-            return true;
+    /** The street edges closest to a vertex, within the search radius and epsilon of each other. */
+    private static class ClosestEdges {
+        /** The envelope searched for edges. */
+        final Envelope envelope;
+        /** The scale of the local equirectangular projection used to measure distances. */
+        final double xscale;
+        /** Empty if there are no edges within the search radius. */
+        final List<StreetEdge> bestEdges = new ArrayList<>();
+        /** The distance to the closest edge, in degrees latitude. */
+        double distanceDegrees;
+
+        ClosestEdges(Envelope envelope, double xscale) {
+            this.envelope = envelope;
+            this.xscale = xscale;
         }
     }
 
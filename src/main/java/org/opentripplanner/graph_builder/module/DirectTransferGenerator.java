@@ -12,11 +12,13 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that links up the stops of a transit network among themselves. This is necessary for
@@ -31,6 +33,9 @@ public class DirectTransferGenerator implements GraphBuilderModule {
 
     private static Logger LOG = LoggerFactory.getLogger(DirectTransferGenerator.class);
 
+    /** The number of stops searched from in parallel before their transfers are added to the graph. */
+    private static final int BATCH_SIZE = 1000;
+
     final double radiusMeters;
 
     public List<String> provides() {
@@ -60,45 +65,71 @@ public class DirectTransferGenerator implements GraphBuilderModule {
             LOG.info("Creating direct transfer edges between stops using straight line distance (not streets)...");
         }
 
-        int nTransfersTotal = 0;
-        int nLinkableStops = 0;
-
+        List<TransitStop> linkableStops = new ArrayList<>();
         for (TransitStop ts0 : Iterables.filter(graph.getVertices(), TransitStop.class)) {
-
             /* Skip stops that are entrances to stations or whose entrances are coded separately */
-            if (!ts0.isStreetLinkable()) continue;
-            if (++nLinkableStops % 1000 == 0) {
-                LOG.info("Linked {} stops", nLinkableStops);
-            }
-            LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
-
-            /* Determine the set of stops that are already reachable via other pathways or transfers */
-            Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
-            for (Edge e : ts0.getOutgoing()) {
-                if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
-                    if (e.getToVertex() instanceof TransitStop) {
-                        TransitStop to = (TransitStop) e.getToVertex();
-                        pathwayDestinations.add(to);
-                    }
+            if (ts0.isStreetLinkable()) linkableStops.add(ts0);
+        }
+
+        /*
+         * The searches from each stop are independent, so they are run in parallel. Each search has its own routing
+         * request and only reads the graph, while the transfer edges it finds are added to the graph afterward on this
+         * thread. Stops are handled in batches so that the results waiting to be turned into edges don't pile up.
+         */
+        int nTransfersTotal = 0;
+        for (int start = 0; start < linkableStops.size(); start += BATCH_SIZE) {
+            List<TransitStop> batch = linkableStops.subList(start, Math.min(start + BATCH_SIZE, linkableStops.size()));
+            List<List<NearbyStopFinder.StopAtDistance>> transfersForStops = batch.parallelStream()
+                    .map(ts0 -> findTransfers(nearbyStopFinder, ts0))
+                    .collect(Collectors.toList());
+
+            for (int i = 0; i < batch.size(); i++) {
+                TransitStop ts0 = batch.get(i);
+                List<NearbyStopFinder.StopAtDistance> transfers = transfersForStops.get(i);
+                for (NearbyStopFinder.StopAtDistance sd : transfers) {
+                    new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom, sd.edges);
+                }
+                LOG.debug("Linked stop {} to {} nearby stops on other patterns.", ts0.getStop(), transfers.size());
+                if (transfers.isEmpty()) {
+                    LOG.debug(graph.addBuilderAnnotation(new StopNotLinkedForTransfers(ts0)));
                 }
+                nTransfersTotal += transfers.size();
             }
+            LOG.info("Linked {} stops", start + batch.size());
+        }
+        LOG.info("Done connecting stops to one another. Created a total of {} transfers from {} stops.", nTransfersTotal,
+                linkableStops.size());
+        graph.hasDirectTransfers = true;
+    }
 
-            /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
-            int n = 0;
-            for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
-                /* Skip the origin stop, loop transfers are not needed. */
-                if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
-                new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom, sd.edges);
-                n += 1;
-            }
-            LOG.debug("Linked stop {} to {} nearby stops on other patterns.", ts0.getStop(), n);
-            if (n == 0) {
-                LOG.debug(graph.addBuilderAnnotation(new StopNotLinkedForTransfers(ts0)));
+    /**
+     * Find the stops to make transfers to from the given stop: each nearby stop that is the closest stop on some trip
+     * pattern, other than the stop itself and stops already reachable via pathways or transfers. This does not modify
+     * the graph, so it can be called on several threads at once.
+     */
+    private static List<NearbyStopFinder.StopAtDistance> findTransfers(NearbyStopFinder nearbyStopFinder,
+            TransitStop ts0) {
+        LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
+
+        /* Determine the set of stops that are already reachable via other pathways or transfers */
+        Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
+        for (Edge e : ts0.getOutgoing()) {
+            if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
+                if (e.getToVertex() instanceof TransitStop) {
+                    TransitStop to = (TransitStop) e.getToVertex();
+                    pathwayDestinations.add(to);
+                }
             }
-            nTransfersTotal += n;
         }
-        LOG.info("Done connecting stops to one another. Created a total of {} transfers from {} stops.", nTransfersTotal, nLinkableStops);
-        graph.hasDirectTransfers = true;
+
+        /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
+        List<NearbyStopFinder.StopAtDistance> transfers = new ArrayList<>();
+        for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
+            /* Skip the origin stop, loop transfers are not needed. */
+            if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
+            transfers.add(sd);
+        }
+        return transfers;
     }
 
     @Override
@@ -1,7 +1,6 @@
 package org.opentripplanner.graph_builder.module.ned;
 
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Geometry;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.Interpolator2D;
 import org.geotools.geometry.DirectPosition2D;
@@ -23,12 +22,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.media.jai.InterpolationBilinear;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} plugin that applies elevation data to street data that has already
@@ -46,11 +53,18 @@ public class ElevationModule implements GraphBuilderModule {
 
     private ElevationGridCoverageFactory gridCoverageFactory;
 
-    private Coverage coverage;
-
     // Keep track of the proportion of elevation fetch operations that fail so we can issue warnings.
-    private int nPointsEvaluated = 0;
-    private int nPointsOutsideDEM = 0;
+    private final AtomicInteger nPointsEvaluated = new AtomicInteger();
+    private final AtomicInteger nPointsOutsideDEM = new AtomicInteger();
+
+    /** The number of threads sampling the elevation model. */
+    private int nThreads = 1;
+
+    /** If not null, profiles are saved in this file and reused for unchanged edges when the graph is rebuilt. */
+    private File cacheFile = null;
+
+    /** Describes the elevation data, to make sure cached profiles are not reused with other data. */
+    private String elevationDataDescription = "";
 
     /**
      * The distance between samples in meters. Defaults to 10m, the approximate resolution of 1/3
@@ -66,6 +80,9 @@ public class ElevationModule implements GraphBuilderModule {
      */
     private double elevationUnitMultiplier = 1;
 
+    /** The number of edges sampled in each task given to a thread. */
+    private static final int EDGES_PER_TASK = 1000;
+
     public ElevationModule() { /* This makes me a "bean" */ };
     
     public ElevationModule(ElevationGridCoverageFactory factory, double elevationUnitMultiplier) {
@@ -89,48 +106,151 @@ public class ElevationModule implements GraphBuilderModule {
         distanceBetweenSamplesM = distance;
     }
 
+    /** Set the number of threads sampling the elevation model. Each thread has its own interpolating coverage. */
+    public void setThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Save the elevation profiles of street edges in the given file and reuse them in later builds for edges with the
+     * same OSM way ID and geometry.
+     * @param elevationDataDescription identifies the elevation data, the cache is ignored when this changes.
+     */
+    public void setCacheFile(File cacheFile, String elevationDataDescription) {
+        this.cacheFile = cacheFile;
+        this.elevationDataDescription = elevationDataDescription;
+    }
+
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         gridCoverageFactory.setGraph(graph);
         Coverage gridCov = gridCoverageFactory.getGridCoverage();
 
-        // If gridCov is a GridCoverage2D, apply a bilinear interpolator. Otherwise, just use the
-        // coverage as is (note: UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle
-        // interpolation internally)
-        coverage = (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
-                (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
-        log.info("Setting street elevation profiles from digital elevation model...");
-        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
-        int nProcessed = 0;
-        int nTotal = graph.countEdges();
+        // Interpolating coverages keep state while evaluating points, so each thread gets its own. If gridCov is a
+        // GridCoverage2D, apply a bilinear interpolator. UnifiedGridCoverages created by NEDGridCoverageFactoryImpl
+        // handle interpolation internally. Other coverages are used as is, and only on one thread.
+        int threads = nThreads;
+        if (!(gridCov instanceof GridCoverage2D || gridCov instanceof UnifiedGridCoverage)) {
+            threads = 1;
+        }
+        ThreadLocal<Coverage> coverages = ThreadLocal.withInitial(() -> {
+            if (gridCov instanceof GridCoverage2D) {
+                return Interpolator2D.create((GridCoverage2D) gridCov, new InterpolationBilinear());
+            } else if (gridCov instanceof UnifiedGridCoverage) {
+                return ((UnifiedGridCoverage) gridCov).copyWithNewInterpolators();
+            } else {
+                return gridCov;
+            }
+        });
+
+        ElevationProfileCache cache = null;
+        if (cacheFile != null) {
+            cache = new ElevationProfileCache(cacheFile, String.format(Locale.ROOT, "%s samples=%f multiplier=%f",
+                    elevationDataDescription, distanceBetweenSamplesM, elevationUnitMultiplier));
+        }
+
+        List<StreetWithElevationEdge> edges = new ArrayList<StreetWithElevationEdge>();
         for (Vertex gv : graph.getVertices()) {
             for (Edge ee : gv.getOutgoing()) {
                 if (ee instanceof StreetWithElevationEdge) {
-                    StreetWithElevationEdge edgeWithElevation = (StreetWithElevationEdge) ee;
-                    processEdge(graph, edgeWithElevation);
-                    if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
-                        edgesWithElevation.add(edgeWithElevation);
-                    }
-                    nProcessed += 1;
-                    if (nProcessed % 50000 == 0) {
-                        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
-                        double failurePercentage = nPointsOutsideDEM / nPointsEvaluated * 100;
-                        if (failurePercentage > 50) {
-                            log.warn("Fetching elevation failed at {}/{} points ({}%)",
-                                    nPointsOutsideDEM, nPointsEvaluated, failurePercentage);
-                            log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
-                                    "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
-                        }
-                    }
+                    edges.add((StreetWithElevationEdge) ee);
                 }
             }
         }
 
+        log.info("Setting street elevation profiles from digital elevation model on {} threads...", threads);
+        PackedCoordinateSequence[] profiles = sampleProfiles(edges, coverages, cache, threads);
+
+        // Set the profiles on this thread, in a fixed order, because setting them updates the graph.
+        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
+        for (int i = 0; i < edges.size(); i++) {
+            StreetWithElevationEdge edgeWithElevation = edges.get(i);
+            if (profiles[i] != null) {
+                if (edgeWithElevation.setElevationProfile(profiles[i], false)) {
+                    log.trace(graph.addBuilderAnnotation(new ElevationFlattened(edgeWithElevation)));
+                }
+                if (cache != null) {
+                    cache.put(edgeWithElevation.wayId, edgeWithElevation.getGeometry().getCoordinates(), profiles[i]);
+                }
+            }
+            if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
+                edgesWithElevation.add(edgeWithElevation);
+            }
+        }
+        if (cache != null) {
+            cache.save();
+        }
+
         @SuppressWarnings("unchecked")
         HashMap<Vertex, Double> extraElevation = (HashMap<Vertex, Double>) extra.get(ElevationPoint.class);
         assignMissingElevations(graph, edgesWithElevation, extraElevation);
     }
 
+    /**
+     * Make the elevation profiles of the given edges, reusing cached profiles where possible. Edges are split into
+     * blocks that are sampled in parallel, each thread evaluating its own coverage.
+     * @return the profile for each edge at the same index, or null for edges that already had a profile
+     */
+    private PackedCoordinateSequence[] sampleProfiles(List<StreetWithElevationEdge> edges,
+            ThreadLocal<Coverage> coverages, ElevationProfileCache cache, int threads) {
+        PackedCoordinateSequence[] profiles = new PackedCoordinateSequence[edges.size()];
+        AtomicInteger nProcessed = new AtomicInteger();
+        AtomicInteger nCached = new AtomicInteger();
+        int nTotal = edges.size();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int start = 0; start < nTotal; start += EDGES_PER_TASK) {
+            final int blockStart = start;
+            final int blockEnd = Math.min(start + EDGES_PER_TASK, nTotal);
+            tasks.add(() -> {
+                Coverage coverage = coverages.get();
+                for (int i = blockStart; i < blockEnd; i++) {
+                    StreetWithElevationEdge edge = edges.get(i);
+                    if (edge.getElevationProfile() != null) {
+                        continue; /* already set up */
+                    }
+                    Coordinate[] coords = edge.getGeometry().getCoordinates();
+                    PackedCoordinateSequence profile = cache == null ? null : cache.get(edge.wayId, coords);
+                    if (profile == null) {
+                        profile = sampleProfile(coverage, coords);
+                    } else {
+                        nCached.incrementAndGet();
+                    }
+                    profiles[i] = profile;
+                    if (nProcessed.incrementAndGet() % 50000 == 0) {
+                        logProgress(nProcessed.get(), nTotal);
+                    }
+                }
+                return null;
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("Error sampling elevation model", e);
+        } finally {
+            executor.shutdown();
+        }
+        if (cache != null) {
+            log.info("Reused cached elevation profiles for {}/{} edges", nCached.get(), nTotal);
+        }
+        return profiles;
+    }
+
+    private void logProgress(int nProcessed, int nTotal) {
+        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
+        double failurePercentage = nPointsOutsideDEM.get() * 100.0 / nPointsEvaluated.get();
+        if (failurePercentage > 50) {
+            log.warn("Fetching elevation failed at {}/{} points ({}%)",
+                    nPointsOutsideDEM.get(), nPointsEvaluated.get(), failurePercentage);
+            log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
+                    "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
+        }
+    }
+
     class ElevationRepairState {
         /* This uses an intuitionist approach to elevation inspection */
         public StreetEdge backEdge;
@@ -327,18 +447,13 @@ public class ElevationModule implements GraphBuilderModule {
     }
 
     /**
-     * Processes a single street edge, creating and assigning the elevation profile.
+     * Samples the elevation profile of a single street edge. This may be called on several threads at once, as long as
+     * each one uses its own coverage.
      * 
-     * @param ee the street edge
-     * @param graph the graph (used only for error handling)
+     * @param coverage the elevation model
+     * @param coords the geometry of the street edge
      */
-    private void processEdge(Graph graph, StreetWithElevationEdge ee) {
-        if (ee.getElevationProfile() != null) {
-            return; /* already set up */
-        }
-        Geometry g = ee.getGeometry();
-        Coordinate[] coords = g.getCoordinates();
-
+    private PackedCoordinateSequence sampleProfile(Coverage coverage, Coordinate[] coords) {
         List<Coordinate> coordList = new LinkedList<Coordinate>();
 
         // calculate the total edge length in meters
@@ -349,7 +464,7 @@ public class ElevationModule implements GraphBuilderModule {
         }
 
         // initial sample (x = 0)
-        coordList.add(new Coordinate(0, getElevation(coords[0])));
+        coordList.add(new Coordinate(0, getElevation(coverage, coords[0])));
 
         // loop for edge-internal samples
         for (double x = distanceBetweenSamplesM; x < edgeLenM; x += distanceBetweenSamplesM) {
@@ -359,20 +474,15 @@ public class ElevationModule implements GraphBuilderModule {
             }
 
             Coordinate internal = getPointAlongEdge(coords, edgeLenM, x / edgeLenM);
-            coordList.add(new Coordinate(x, getElevation(internal)));
+            coordList.add(new Coordinate(x, getElevation(coverage, internal)));
         }
 
         // final sample (x = edge length)
-        coordList.add(new Coordinate(edgeLenM, getElevation(coords[coords.length - 1])));
+        coordList.add(new Coordinate(edgeLenM, getElevation(coverage, coords[coords.length - 1])));
 
         // construct the PCS
         Coordinate coordArr[] = new Coordinate[coordList.size()];
-        PackedCoordinateSequence elevPCS = new PackedCoordinateSequence.Double(
-                coordList.toArray(coordArr));
-
-        if(ee.setElevationProfile(elevPCS, false)) {
-            log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
-        }
+        return new PackedCoordinateSequence.Double(coordList.toArray(coordArr));
     }
 
     /**
@@ -423,21 +533,23 @@ public class ElevationModule implements GraphBuilderModule {
     /**
      * Method for retrieving the elevation at a given Coordinate.
      * 
+     * @param coverage the elevation model
      * @param c the coordinate (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(Coordinate c) {
-        return getElevation(c.x, c.y);
+    private double getElevation(Coverage coverage, Coordinate c) {
+        return getElevation(coverage, c.x, c.y);
     }
 
     /**
      * Method for retrieving the elevation at a given (x, y) pair.
      * 
+     * @param coverage the elevation model
      * @param x the query longitude (NAD83)
      * @param y the query latitude (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(double x, double y) {
+    private double getElevation(Coverage coverage, double x, double y) {
         double values[] = new double[1];
         try {
             // We specify a CRS here because otherwise the coordinates are assumed to be in the coverage's native CRS.
@@ -447,9 +559,9 @@ public class ElevationModule implements GraphBuilderModule {
             // rasters to also use (long, lat).
             coverage.evaluate(new DirectPosition2D(GeometryUtils.WGS84_XY, x, y), values);
         } catch (org.opengis.coverage.PointOutsideCoverageException e) {
-            nPointsOutsideDEM += 1;
+            nPointsOutsideDEM.incrementAndGet();
         }
-        nPointsEvaluated += 1;
+        nPointsEvaluated.incrementAndGet();
         return values[0] * elevationUnitMultiplier;
     }
 
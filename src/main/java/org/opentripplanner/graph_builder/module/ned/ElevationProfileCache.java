@@ -0,0 +1,152 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Elevation profiles of street edges saved between graph builds, so that edges whose geometry has not changed do not
+ * need to be sampled from the elevation model again. Profiles are keyed on the OSM way ID of the edge and a hash of
+ * its geometry.
+ *
+ * The file records the elevation data and sampling settings it was made with, and is ignored if they differ from the
+ * current ones. Only the profiles used in the latest build are saved, so the file does not grow without bound as the
+ * street network changes.
+ */
+public class ElevationProfileCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ElevationProfileCache.class);
+
+    private static final int VERSION = 1;
+
+    private final File file;
+
+    /** Identifies the elevation data and sampling settings, profiles made with anything else are not reused. */
+    private final String settings;
+
+    private Map<Key, PackedCoordinateSequence> savedProfiles = new HashMap<>();
+
+    private final Map<Key, PackedCoordinateSequence> usedProfiles = new HashMap<>();
+
+    /**
+     * Load the profiles saved in the given file, if it exists and was made with the same settings.
+     * @param settings a description of the elevation data and sampling settings
+     */
+    public ElevationProfileCache(File file, String settings) {
+        this.file = file;
+        this.settings = settings;
+        if (!file.exists()) {
+            LOG.info("No elevation profile cache at {}, all edges will be sampled.", file);
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != VERSION || !in.readUTF().equals(settings)) {
+                LOG.info("Elevation profile cache {} was made with other elevation data or settings, ignoring it.",
+                        file);
+                return;
+            }
+            int nProfiles = in.readInt();
+            for (int p = 0; p < nProfiles; p++) {
+                Key key = new Key(in.readLong(), in.readLong());
+                Coordinate[] coords = new Coordinate[in.readInt()];
+                for (int i = 0; i < coords.length; i++) {
+                    coords[i] = new Coordinate(in.readDouble(), in.readDouble());
+                }
+                savedProfiles.put(key, new PackedCoordinateSequence.Double(coords));
+            }
+            LOG.info("Loaded {} elevation profiles from {}", nProfiles, file);
+        } catch (IOException e) {
+            LOG.warn("Could not read elevation profile cache {}, all edges will be sampled.", file, e);
+            savedProfiles.clear();
+        }
+    }
+
+    /** @return the saved profile of an edge with the given way ID and geometry, or null if there is none. */
+    public PackedCoordinateSequence get(long wayId, Coordinate[] geometry) {
+        return savedProfiles.get(new Key(wayId, hash(geometry)));
+    }
+
+    /** Record the profile of an edge, to be saved with the others used in this build. */
+    public void put(long wayId, Coordinate[] geometry, PackedCoordinateSequence profile) {
+        usedProfiles.put(new Key(wayId, hash(geometry)), profile);
+    }
+
+    /** Replace the cache file with the profiles recorded in this build. */
+    public void save() {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(tempFile))))) {
+            out.writeInt(VERSION);
+            out.writeUTF(settings);
+            out.writeInt(usedProfiles.size());
+            for (Map.Entry<Key, PackedCoordinateSequence> entry : usedProfiles.entrySet()) {
+                out.writeLong(entry.getKey().wayId);
+                out.writeLong(entry.getKey().geometryHash);
+                PackedCoordinateSequence profile = entry.getValue();
+                out.writeInt(profile.size());
+                for (int i = 0; i < profile.size(); i++) {
+                    out.writeDouble(profile.getX(i));
+                    out.writeDouble(profile.getY(i));
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not write elevation profile cache {}", file, e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(file)) {
+            file.delete();
+            tempFile.renameTo(file);
+        }
+        LOG.info("Saved {} elevation profiles to {}", usedProfiles.size(), file);
+        // The saved profiles are no longer needed.
+        savedProfiles = new HashMap<>();
+    }
+
+    /** A 64-bit hash of the exact coordinates of a geometry. */
+    private static long hash(Coordinate[] geometry) {
+        long hash = geometry.length;
+        for (Coordinate c : geometry) {
+            hash = hash * 0x9E3779B97F4A7C15L + Double.doubleToLongBits(c.x);
+            hash = hash * 0x9E3779B97F4A7C15L + Double.doubleToLongBits(c.y);
+        }
+        return hash;
+    }
+
+    private static class Key {
+        final long wayId;
+        final long geometryHash;
+
+        Key(long wayId, long geometryHash) {
+            this.wayId = wayId;
+            this.geometryHash = geometryHash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key)) return false;
+            Key that = (Key) other;
+            return this.wayId == that.wayId && this.geometryHash == that.geometryHash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(wayId * 31 + geometryHash);
+        }
+    }
+}
@@ -2,7 +2,6 @@ package org.opentripplanner.graph_builder.module.ned;
 
 import com.google.common.io.ByteStreams;
 import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.Interpolator2D;
 import org.opengis.coverage.Coverage;
 import org.opentripplanner.graph_builder.services.ned.ElevationGridCoverageFactory;
 import org.opentripplanner.graph_builder.services.ned.NEDTileSource;
@@ -10,7 +9,6 @@ import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.media.jai.InterpolationBilinear;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -111,9 +109,8 @@ public class NEDGridCoverageFactoryImpl implements ElevationGridCoverageFactory
             // Make one grid coverage for each NED tile, adding them all to a single UnifiedGridCoverage.
             for (File path : paths) {
                 GeotiffGridCoverageFactoryImpl factory = new GeotiffGridCoverageFactoryImpl(path);
-                // TODO might bicubic interpolation give better results?
-                GridCoverage2D regionCoverage = Interpolator2D.create(factory.getGridCoverage(),
-                        new InterpolationBilinear());
+                // The unified coverage applies bilinear interpolation to each tile.
+                GridCoverage2D regionCoverage = factory.getGridCoverage();
                 if (unifiedCoverage == null) {
                     unifiedCoverage = new UnifiedGridCoverage("unified", regionCoverage, datums);
                 } else {
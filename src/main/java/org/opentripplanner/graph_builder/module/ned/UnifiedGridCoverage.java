@@ -2,6 +2,7 @@ package org.opentripplanner.graph_builder.module.ned;
 
 import org.geotools.coverage.AbstractCoverage;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.Interpolator2D;
 import org.geotools.geometry.GeneralEnvelope;
 import org.opengis.coverage.CannotEvaluateException;
 import org.opengis.coverage.Coverage;
@@ -11,6 +12,7 @@ import org.opengis.geometry.DirectPosition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.media.jai.InterpolationBilinear;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,6 +31,9 @@ public class UnifiedGridCoverage extends AbstractCoverage {
     
     private ArrayList<Coverage> regions;
 
+    /** The tiles before interpolation, so that copies with their own interpolators can be made. */
+    private ArrayList<GridCoverage2D> sources;
+
     private List<VerticalDatum> datums;
 
     /**
@@ -36,11 +41,24 @@ public class UnifiedGridCoverage extends AbstractCoverage {
      * in the same way. However, the superclass constructor (AbstractCoverage) needs a coverage to copy properties from.
      * So the first sub-coverage needs to be passed in at construction time.
      */
-    protected UnifiedGridCoverage(CharSequence name, Coverage coverage, List<VerticalDatum> datums) {
+    protected UnifiedGridCoverage(CharSequence name, GridCoverage2D coverage, List<VerticalDatum> datums) {
         super(name, coverage);
         regions = new ArrayList<Coverage>();
-        regions.add(coverage);
+        sources = new ArrayList<GridCoverage2D>();
         this.datums = datums;
+        add(coverage);
+    }
+
+    /**
+     * Make a coverage of the same tiles with its own interpolators, which keep state while evaluating points. The
+     * tiles themselves are shared, so this is a cheap way to evaluate the coverage on several threads at once.
+     */
+    public UnifiedGridCoverage copyWithNewInterpolators() {
+        UnifiedGridCoverage copy = new UnifiedGridCoverage(getName(), sources.get(0), datums);
+        for (int i = 1; i < sources.size(); i++) {
+            copy.add(sources.get(i));
+        }
+        return copy;
     }
 
     @Override
@@ -94,8 +112,11 @@ public class UnifiedGridCoverage extends AbstractCoverage {
         return regions.get(0).getSampleDimension(index);
     }
 
+    /** Add a tile, which will be evaluated with bilinear interpolation. */
     public void add(GridCoverage2D regionCoverage) {
-        regions.add(regionCoverage);
+        sources.add(regionCoverage);
+        // TODO might bicubic interpolation give better results?
+        regions.add(Interpolator2D.create(regionCoverage, new InterpolationBilinear()));
     }
 
 }
@@ -4,6 +4,10 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.vividsolutions.jts.geom.*;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.opentripplanner.common.RepeatingTimePeriod;
 import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.common.geometry.GeometryUtils;
@@ -17,18 +21,18 @@ import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
-import org.opentripplanner.util.MapUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.*;
 
 public class OSMDatabase implements OpenStreetMapContentHandler {
 
     private static Logger LOG = LoggerFactory.getLogger(OSMDatabase.class);
 
-    /* Map of all nodes used in ways/areas keyed by their OSM ID */
-    private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
+    /* All nodes used in ways/areas keyed by their OSM ID */
+    private final OSMNodeStore nodesById;
 
     /* Map of all bike-rental nodes, keyed by their OSM ID */
     private Map<Long, OSMNode> bikeRentalNodes = new HashMap<Long, OSMNode>();
@@ -54,8 +58,11 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     /* All bike parking areas */
     private List<Area> bikeParkingAreas = new ArrayList<Area>();
 
-    /* Map of all area OSMWay for a given node */
-    private Map<Long, Set<OSMWay>> areasForNode = new HashMap<Long, Set<OSMWay>>();
+    /* The first area OSMWay found for each node in an area */
+    private TLongObjectMap<OSMWay> firstAreaForNode = new TLongObjectHashMap<OSMWay>();
+
+    /* Set of the IDs of nodes that are in more than one area OSMWay */
+    private TLongSet sharedAreaNodeIds = new TLongHashSet();
 
     /* Map of all area OSMWay for a given node */
     private List<OSMWay> singleWayAreas = new ArrayList<OSMWay>();
@@ -66,10 +73,10 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Set<Long> areaWayIds = new HashSet<Long>();
 
     /* Set of all node IDs of kept ways. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> waysNodeIds = new HashSet<Long>();
+    private TLongSet waysNodeIds = new TLongHashSet();
 
     /* Set of all node IDs of kept areas. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> areaNodeIds = new HashSet<Long>();
+    private TLongSet areaNodeIds = new TLongHashSet();
 
     /* Track which vertical level each OSM way belongs to, for building elevators etc. */
     private Map<OSMWithTags, OSMLevel> wayLevels = new HashMap<OSMWithTags, OSMLevel>();
@@ -102,6 +109,18 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
      */
     public boolean noZeroLevels = true;
 
+    public OSMDatabase() {
+        this(null);
+    }
+
+    /**
+     * @param nodeDirectory if not null, the coordinates of untagged nodes are kept in memory-mapped temporary files in
+     *                      this directory rather than on the Java heap. See OSMNodeStore.
+     */
+    public OSMDatabase(File nodeDirectory) {
+        nodesById = new OSMNodeStore(nodeDirectory);
+    }
+
     public OSMNode getNode(Long nodeId) {
         return nodesById.get(nodeId);
     }
@@ -152,11 +171,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     }
 
     public boolean isNodeSharedByMultipleAreas(Long nodeId) {
-        Set<OSMWay> areas = areasForNode.get(nodeId);
-        if (areas == null) {
-            return false;
-        }
-        return areas.size() > 1;
+        return sharedAreaNodeIds.contains(nodeId);
     }
 
     public boolean isNodeBelongsToWay(Long nodeId) {
@@ -181,10 +196,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                 .isStop()))
             return;
 
-        if (nodesById.containsKey(node.getId()))
-            return;
-
-        nodesById.put(node.getId(), node);
+        // The node store ignores nodes that have already been added.
+        nodesById.put(node);
 
         if (nodesById.size() % 100000 == 0)
             LOG.debug("nodes=" + nodesById.size());
@@ -218,7 +231,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                 areaWaysById.put(wayId, way);
                 areaWayIds.add(wayId);
                 for (Long node : way.getNodeRefs()) {
-                    MapUtils.addToMapSet(areasForNode, node, way);
+                    addAreaForNode(node, way);
                 }
             }
             return;
@@ -541,7 +554,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         node.setId(virtualNodeId);
         virtualNodeId--;
         waysNodeIds.add(node.getId());
-        nodesById.put(node.getId(), node);
+        nodesById.put(node);
         return node;
     }
 
@@ -569,13 +582,22 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         }
     }
 
-    private void markNodesForKeeping(Collection<OSMWay> osmWays, Set<Long> nodeSet) {
+    private void addAreaForNode(long nodeId, OSMWay way) {
+        OSMWay firstArea = firstAreaForNode.putIfAbsent(nodeId, way);
+        if (firstArea != null && firstArea != way) {
+            sharedAreaNodeIds.add(nodeId);
+        }
+    }
+
+    private void markNodesForKeeping(Collection<OSMWay> osmWays, TLongSet nodeSet) {
         for (Iterator<OSMWay> it = osmWays.iterator(); it.hasNext();) {
             OSMWay way = it.next();
             // Since the way is kept, update nodes-with-neighbors
             List<Long> nodes = way.getNodeRefs();
             if (nodes.size() > 1) {
-                nodeSet.addAll(nodes);
+                for (Long node : nodes) {
+                    nodeSet.add(node);
+                }
             }
         }
     }
@@ -637,7 +659,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                         // the edge of the region, so we will simply not route on it.
                         continue RELATION;
                     }
-                    MapUtils.addToMapSet(areasForNode, nodeId, way);
+                    addAreaForNode(nodeId, way);
                 }
                 if (role.equals("inner")) {
                     innerWays.add(way);
@@ -0,0 +1,318 @@
+package org.opentripplanner.graph_builder.module.osm;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Stores the OSM nodes kept for building the graph, keyed on their OSM IDs. Most nodes are just points along ways, so
+ * untagged nodes are not kept as objects: only their IDs and coordinates are stored, in parallel primitive arrays sorted
+ * by ID and searched by bisection. Coordinates are packed into a single long as two ints in units of 10^-7 degrees,
+ * the precision of OSM itself. This takes 16 bytes per node instead of well over 100 for an OSMNode in a HashMap.
+ * Tagged nodes, and virtual nodes created during the build, are kept as OSMNode objects.
+ *
+ * Untagged nodes are appended in the order they are loaded, and sorted into the rest the next time a node is looked up.
+ * PBF files list nodes in ID order, so this is usually a single merge per input file. Adding a node that is already
+ * stored has no effect.
+ *
+ * The sorted arrays can optionally be written to memory-mapped temporary files, so that they are paged in and out by
+ * the operating system rather than held on the Java heap.
+ *
+ * OSMNodes returned by get() for untagged nodes are created on the fly, so they should be compared with equals()
+ * rather than by identity.
+ */
+public class OSMNodeStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OSMNodeStore.class);
+
+    private static final double COORDINATE_SCALE = 1e7;
+
+    /** Mapped files are split into chunks of 2^27 longs (1 GiB) because a single buffer can hold at most 2 GiB. */
+    private static final int CHUNK_SHIFT = 27;
+
+    private final TLongObjectMap<OSMNode> nodeObjects = new TLongObjectHashMap<>();
+
+    /** IDs and packed coordinates of the untagged nodes, sorted by ID without duplicates. */
+    private LongColumn sortedIds = new HeapColumn(new long[0], 0);
+
+    private LongColumn sortedCoordinates = new HeapColumn(new long[0], 0);
+
+    /** Untagged nodes added since the last lookup, in the order they were added. */
+    private long[] newIds = new long[1024];
+
+    private long[] newCoordinates = new long[1024];
+
+    private int nNew = 0;
+
+    /** The directory in which to write the sorted nodes, or null to keep them on the heap. */
+    private final File directory;
+
+    /** Create a node store that holds everything on the Java heap. */
+    public OSMNodeStore() {
+        this(null);
+    }
+
+    /** @param directory if not null, the sorted untagged nodes are kept in memory-mapped files in this directory. */
+    public OSMNodeStore(File directory) {
+        this.directory = directory;
+    }
+
+    public void put(OSMNode node) {
+        long id = node.getId();
+        if (node.getTags() != null || id < 0) {
+            if (!nodeObjects.containsKey(id)) nodeObjects.put(id, node);
+            return;
+        }
+        if (nNew == newIds.length) {
+            newIds = Arrays.copyOf(newIds, nNew * 2);
+            newCoordinates = Arrays.copyOf(newCoordinates, nNew * 2);
+        }
+        newIds[nNew] = id;
+        newCoordinates[nNew] = pack(node.lat, node.lon);
+        nNew++;
+    }
+
+    /** @return the node with the given ID, or null if it is not stored. */
+    public OSMNode get(long id) {
+        OSMNode node = nodeObjects.get(id);
+        if (node != null) return node;
+        int index = indexOf(id);
+        if (index < 0) return null;
+        long packed = sortedCoordinates.get(index);
+        node = new OSMNode();
+        node.setId(id);
+        node.lat = (int) (packed >> 32) / COORDINATE_SCALE;
+        node.lon = (int) packed / COORDINATE_SCALE;
+        return node;
+    }
+
+    public boolean containsKey(long id) {
+        return nodeObjects.containsKey(id) || indexOf(id) >= 0;
+    }
+
+    /** @return the number of nodes stored, counting nodes added more than once since the last lookup. */
+    public int size() {
+        return nodeObjects.size() + sortedIds.size() + nNew;
+    }
+
+    private int indexOf(long id) {
+        if (nNew > 0) mergeNewNodes();
+        int lo = 0, hi = sortedIds.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midId = sortedIds.get(mid);
+            if (midId < id) lo = mid + 1;
+            else if (midId > id) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /** Sort the nodes added since the last lookup and merge them into the sorted arrays, dropping duplicates. */
+    private void mergeNewNodes() {
+        long startTime = System.currentTimeMillis();
+        sort(newIds, newCoordinates, 0, nNew - 1);
+
+        int nSorted = sortedIds.size();
+        LongColumnBuilder ids = newBuilder(nSorted + nNew);
+        LongColumnBuilder coordinates = newBuilder(nSorted + nNew);
+        int i = 0, j = 0;
+        long lastId = Long.MIN_VALUE;
+        while (i < nSorted || j < nNew) {
+            // Take from the existing nodes when IDs are equal, so the first copy of a node loaded is kept.
+            if (j == nNew || (i < nSorted && sortedIds.get(i) <= newIds[j])) {
+                long id = sortedIds.get(i);
+                if (id != lastId) {
+                    ids.add(id);
+                    coordinates.add(sortedCoordinates.get(i));
+                    lastId = id;
+                }
+                i++;
+            } else {
+                long id = newIds[j];
+                if (id != lastId) {
+                    ids.add(id);
+                    coordinates.add(newCoordinates[j]);
+                    lastId = id;
+                }
+                j++;
+            }
+        }
+        sortedIds = ids.build();
+        sortedCoordinates = coordinates.build();
+        nNew = 0;
+        newIds = new long[1024];
+        newCoordinates = new long[1024];
+        LOG.debug("Merged untagged nodes in {} msec, {} are stored", System.currentTimeMillis() - startTime,
+                sortedIds.size());
+    }
+
+    /** Sort the parallel arrays by ID, between the given indexes inclusive. */
+    private static void sort(long[] ids, long[] values, int lo, int hi) {
+        // Nodes usually arrive in ID order.
+        boolean sorted = true;
+        for (int i = lo; i < hi && sorted; i++) {
+            sorted = ids[i] <= ids[i + 1];
+        }
+        if (sorted) return;
+        quicksort(ids, values, lo, hi);
+    }
+
+    private static void quicksort(long[] ids, long[] values, int lo, int hi) {
+        while (lo < hi) {
+            long pivot = ids[(lo + hi) >>> 1];
+            int i = lo, j = hi;
+            while (i <= j) {
+                while (ids[i] < pivot) i++;
+                while (ids[j] > pivot) j--;
+                if (i <= j) {
+                    swap(ids, i, j);
+                    swap(values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller part and loop on the larger one, to bound the stack depth.
+            if (j - lo < hi - i) {
+                quicksort(ids, values, lo, j);
+                lo = i;
+            } else {
+                quicksort(ids, values, i, hi);
+                hi = j;
+            }
+        }
+    }
+
+    private static void swap(long[] array, int i, int j) {
+        long tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    private static long pack(double lat, double lon) {
+        long fixedLat = Math.round(lat * COORDINATE_SCALE);
+        long fixedLon = Math.round(lon * COORDINATE_SCALE);
+        return (fixedLat << 32) | (fixedLon & 0xFFFFFFFFL);
+    }
+
+    private LongColumnBuilder newBuilder(int capacity) {
+        return directory == null ? new HeapColumnBuilder(capacity) : new MappedColumnBuilder(directory);
+    }
+
+    /** A read-only sequence of longs, either on the heap or memory-mapped. */
+    private interface LongColumn {
+        long get(int index);
+        int size();
+    }
+
+    private interface LongColumnBuilder {
+        void add(long value);
+        LongColumn build();
+    }
+
+    private static class HeapColumn implements LongColumn {
+        final long[] values;
+        final int size;
+
+        HeapColumn(long[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        public long get(int index) { return values[index]; }
+        public int size() { return size; }
+    }
+
+    private static class HeapColumnBuilder implements LongColumnBuilder {
+        long[] values;
+        int size = 0;
+
+        HeapColumnBuilder(int capacity) {
+            values = new long[capacity];
+        }
+
+        public void add(long value) { values[size++] = value; }
+
+        public LongColumn build() {
+            // Trim the space left by duplicates.
+            return new HeapColumn(size < values.length ? Arrays.copyOf(values, size) : values, size);
+        }
+    }
+
+    private static class MappedColumn implements LongColumn {
+        final LongBuffer[] chunks;
+        final int size;
+
+        MappedColumn(LongBuffer[] chunks, int size) {
+            this.chunks = chunks;
+            this.size = size;
+        }
+
+        public long get(int index) {
+            return chunks[index >>> CHUNK_SHIFT].get(index & ((1 << CHUNK_SHIFT) - 1));
+        }
+
+        public int size() { return size; }
+    }
+
+    /** Writes longs to a temporary file, then maps it. The file is deleted once mapped, or when the JVM exits. */
+    private static class MappedColumnBuilder implements LongColumnBuilder {
+        final File file;
+        final DataOutputStream out;
+        int size = 0;
+
+        MappedColumnBuilder(File directory) {
+            try {
+                file = File.createTempFile("osm-nodes", ".bin", directory);
+                file.deleteOnExit();
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public void add(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            size++;
+        }
+
+        public LongColumn build() {
+            try {
+                out.close();
+                int nChunks = (int) (((long) size + (1 << CHUNK_SHIFT) - 1) >>> CHUNK_SHIFT);
+                LongBuffer[] chunks = new LongBuffer[nChunks];
+                try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                    FileChannel channel = raf.getChannel();
+                    for (int c = 0; c < nChunks; c++) {
+                        long start = (long) c << CHUNK_SHIFT;
+                        long length = Math.min(1L << CHUNK_SHIFT, size - start);
+                        chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, start * 8, length * 8).asLongBuffer();
+                    }
+                }
+                // Mappings remain valid after the file is deleted on platforms that allow deleting it.
+                file.delete();
+                return new MappedColumn(chunks, size);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+}
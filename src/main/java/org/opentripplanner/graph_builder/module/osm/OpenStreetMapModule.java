@@ -40,6 +40,7 @@ import org.opentripplanner.util.NonLocalizedString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -143,6 +144,12 @@ public class OpenStreetMapModule implements GraphBuilderModule {
     public boolean banDiscouragedWalking = false;
     public boolean banDiscouragedBiking = false;
 
+    /**
+     * If not null, the coordinates of OSM nodes are kept in memory-mapped temporary files in this directory instead
+     * of on the heap while the graph is built.
+     */
+    public File nodeDirectory = null;
+
     /**
      * Construct and set providers all at once.
      */
@@ -155,7 +162,7 @@ public class OpenStreetMapModule implements GraphBuilderModule {
 
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
-        OSMDatabase osmdb = new OSMDatabase();
+        OSMDatabase osmdb = new OSMDatabase(nodeDirectory);
         Handler handler = new Handler(graph, osmdb);
         for (OpenStreetMapProvider provider : _providers) {
             LOG.info("Gathering OSM from provider: " + provider);
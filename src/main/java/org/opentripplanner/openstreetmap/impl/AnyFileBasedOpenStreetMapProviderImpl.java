@@ -9,10 +9,17 @@ public class AnyFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvi
 
     private File path;
 
+    /** The number of threads decoding PBF files, or 1 to use the sequential parser. */
+    private int pbfParsingThreads = 1;
+
     public void setPath(File path) {
         this.path = path;
     }
 
+    public void setPbfParsingThreads(int pbfParsingThreads) {
+        this.pbfParsingThreads = pbfParsingThreads;
+    }
+
     public AnyFileBasedOpenStreetMapProviderImpl (File file) {
         this.setPath(file);
     }
@@ -22,7 +29,12 @@ public class AnyFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvi
     @Override
     public void readOSM(OpenStreetMapContentHandler handler) {
         try {
-            if (path.getName().endsWith(".pbf")) {
+            if (path.getName().endsWith(".pbf") && pbfParsingThreads > 1) {
+                ParallelBinaryFileBasedOpenStreetMapProviderImpl p = new ParallelBinaryFileBasedOpenStreetMapProviderImpl();
+                p.setPath(path);
+                p.setThreads(pbfParsingThreads);
+                p.readOSM(handler);
+            } else if (path.getName().endsWith(".pbf")) {
                 BinaryFileBasedOpenStreetMapProviderImpl p = new BinaryFileBasedOpenStreetMapProviderImpl();
                 p.setPath(path);
                 p.readOSM(handler);
@@ -0,0 +1,266 @@
+package org.opentripplanner.openstreetmap.impl;
+
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
+import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Parser for the OpenStreetMap PBF format that decompresses and decodes file blocks in parallel on a pool of threads.
+ *
+ * Like BinaryFileBasedOpenStreetMapProviderImpl it reads the file in three phases (relations, then ways, then nodes)
+ * because the content handler needs to know which ways and nodes are referenced before deciding what to keep.
+ * PBF files group entities of one type together in each block, so the types found in each block are recorded during
+ * the first phase and the later phases skip over blocks that contain no ways or no nodes without decompressing them.
+ *
+ * One thread reads the raw blocks, the pool decodes them into OSM entities, and the calling thread feeds the entities
+ * to the handler in file order. The handler therefore sees exactly the same sequence of calls as with the sequential
+ * parser and does not need to be thread safe. Decoded blocks wait in a bounded queue so that memory use stays flat
+ * when the handler is slower than the decoders.
+ *
+ * @see http://wiki.openstreetmap.org/wiki/PBF_Format
+ */
+public class ParallelBinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvider {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelBinaryFileBasedOpenStreetMapProviderImpl.class);
+
+    private static final int NODES = 1, WAYS = 2, RELATIONS = 4;
+
+    /** Blocks are read ahead of the handler by up to this many blocks per thread. */
+    private static final int QUEUE_BLOCKS_PER_THREAD = 4;
+
+    private File path;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The entity types found in each block of the file, filled in by the handler thread during the first phase and
+     * read by the reader thread in later phases.
+     */
+    private byte[] blockTypes;
+
+    public void readOSM(OpenStreetMapContentHandler handler) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // Strings are shared between threads so that each distinct tag key or value is stored only once.
+            Map<String, String> stringTable = new ConcurrentHashMap<>();
+            blockTypes = new byte[1024];
+            readPhase(handler, executor, stringTable, RELATIONS);
+            handler.doneFirstPhaseRelations();
+            readPhase(handler, executor, stringTable, WAYS);
+            handler.doneSecondPhaseWays();
+            readPhase(handler, executor, stringTable, NODES);
+            handler.doneThirdPhaseNodes();
+        } catch (Exception ex) {
+            throw new IllegalStateException("error loading OSM from path " + path, ex);
+        } finally {
+            executor.shutdownNow();
+            blockTypes = null;
+        }
+    }
+
+    /** Read one phase of the file, passing entities of the given type to the handler. */
+    private void readPhase(OpenStreetMapContentHandler handler, ExecutorService executor,
+            Map<String, String> stringTable, int phase) throws Exception {
+        long startTime = System.currentTimeMillis();
+        BlockingQueue<Future<DecodedBlock>> queue = new ArrayBlockingQueue<>(threads * QUEUE_BLOCKS_PER_THREAD);
+        // An already completed future with no block marks the end of the file.
+        Future<DecodedBlock> end = CompletableFuture.completedFuture(null);
+        // Set when the handler thread stops taking blocks from the queue before the end of the file.
+        AtomicBoolean abandoned = new AtomicBoolean(false);
+        FutureTask<Void> reader = new FutureTask<>(() -> {
+            try {
+                readBlocks(executor, stringTable, phase, queue);
+            } finally {
+                // Wait for room in the queue for the end marker, but not if nothing will ever be taken from it again.
+                try {
+                    while (!abandoned.get() && !queue.offer(end, 1, TimeUnit.SECONDS)) { }
+                } catch (InterruptedException e) {
+                    // The handler thread has given up on this phase.
+                }
+            }
+            return null;
+        });
+        Thread readerThread = new Thread(reader, "pbf-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+
+        int nBlocks = 0;
+        try {
+            for (Future<DecodedBlock> future; (future = queue.take()) != end; ) {
+                DecodedBlock block = future.get();
+                if (phase == RELATIONS) {
+                    if (block.index >= blockTypes.length) {
+                        blockTypes = Arrays.copyOf(blockTypes, Math.max(blockTypes.length * 2, block.index + 1));
+                    }
+                    blockTypes[block.index] = block.types;
+                }
+                for (OSMRelation relation : block.relations) handler.addRelation(relation);
+                for (OSMWay way : block.ways) handler.addWay(way);
+                for (OSMNode node : block.nodes) handler.addNode(node);
+                nBlocks++;
+            }
+        } catch (Exception ex) {
+            // Stop the reader, which may be blocked waiting for room in the queue.
+            abandoned.set(true);
+            reader.cancel(true);
+            queue.clear();
+            throw ex;
+        }
+        // Rethrow any error reading the file.
+        reader.get();
+        LOG.info("Decoded {} PBF blocks in {} seconds", nBlocks, (System.currentTimeMillis() - startTime) / 1000.0);
+    }
+
+    /**
+     * Read the raw blocks needed for the given phase and queue their decoding, in file order. In the first phase
+     * every block is decoded and its entity types are recorded.
+     */
+    private void readBlocks(ExecutorService executor, Map<String, String> stringTable, int phase,
+            BlockingQueue<Future<DecodedBlock>> queue) throws IOException, InterruptedException {
+        boolean firstPhase = (phase == RELATIONS);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            for (int blockIndex = 0; ; blockIndex++) {
+                int headerSize;
+                try {
+                    headerSize = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                byte[] headerBytes = new byte[headerSize];
+                in.readFully(headerBytes);
+                Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+
+                if (!firstPhase && (blockTypes[blockIndex] & phase) == 0) {
+                    skipFully(in, header.getDatasize());
+                    continue;
+                }
+                byte[] blob = new byte[header.getDatasize()];
+                in.readFully(blob);
+                final int index = blockIndex;
+                String type = header.getType();
+                queue.put(executor.submit(() -> decode(type, blob, index, stringTable, phase)));
+            }
+        }
+    }
+
+    /** Decompress and decode one block, keeping only the entities of the given type. */
+    private DecodedBlock decode(String type, byte[] blobBytes, int blockIndex, Map<String, String> stringTable,
+            int phase) throws IOException, DataFormatException {
+        DecodedBlock decoded = new DecodedBlock();
+        decoded.index = blockIndex;
+        BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(decoded, stringTable);
+        parser.setParseRelations(phase == RELATIONS);
+        parser.setParseWays(phase == WAYS);
+        parser.setParseNodes(phase == NODES);
+
+        byte[] data = inflate(Fileformat.Blob.parseFrom(blobBytes));
+        if (type.equals("OSMHeader")) {
+            if (phase == RELATIONS) parser.parse(Osmformat.HeaderBlock.parseFrom(data));
+        } else if (type.equals("OSMData")) {
+            Osmformat.PrimitiveBlock block = Osmformat.PrimitiveBlock.parseFrom(data);
+            for (Osmformat.PrimitiveGroup group : block.getPrimitivegroupList()) {
+                if (group.getNodesCount() > 0 || group.hasDense()) decoded.types |= NODES;
+                if (group.getWaysCount() > 0) decoded.types |= WAYS;
+                if (group.getRelationsCount() > 0) decoded.types |= RELATIONS;
+            }
+            parser.parse(block);
+        }
+        return decoded;
+    }
+
+    private static byte[] inflate(Fileformat.Blob blob) throws DataFormatException {
+        if (blob.hasRaw()) {
+            return blob.getRaw().toByteArray();
+        } else if (blob.hasZlibData()) {
+            byte[] data = new byte[blob.getRawSize()];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(blob.getZlibData().toByteArray());
+                inflater.inflate(data);
+                if (!inflater.finished()) {
+                    throw new DataFormatException("PBF block is larger than its declared size");
+                }
+            } finally {
+                inflater.end();
+            }
+            return data;
+        } else {
+            throw new DataFormatException("Unsupported PBF block compression");
+        }
+    }
+
+    private static void skipFully(DataInputStream in, int bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = in.skipBytes(bytes);
+            if (skipped <= 0) throw new EOFException();
+            bytes -= skipped;
+        }
+    }
+
+    /** The entities decoded from one block, waiting to be passed to the real handler. */
+    private static class DecodedBlock implements OpenStreetMapContentHandler {
+        int index;
+        /** The types of entities in this block, whether or not they were decoded in this phase. */
+        byte types;
+        List<OSMNode> nodes = new ArrayList<>();
+        List<OSMWay> ways = new ArrayList<>();
+        List<OSMRelation> relations = new ArrayList<>();
+
+        public void addNode(OSMNode node) { nodes.add(node); }
+        public void addWay(OSMWay way) { ways.add(way); }
+        public void addRelation(OSMRelation relation) { relations.add(relation); }
+        public void doneFirstPhaseRelations() { }
+        public void doneSecondPhaseWays() { }
+        public void doneThirdPhaseNodes() { }
+    }
+
+    public void setPath(File path) {
+        this.path = path;
+    }
+
+    /** Set the number of threads decoding blocks. */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public String toString() {
+        return "ParallelBinaryFileBasedOpenStreetMapProviderImpl(" + path + ")";
+    }
+
+    @Override
+    public void checkInputs() {
+        if (!path.canRead()) {
+            throw new RuntimeException("Can't read OSM path: " + path);
+        }
+    }
+}
@@ -9,6 +9,20 @@ public class OSMNode extends OSMWithTags {
         return "osm node " + id;
     }
 
+    /**
+     * Nodes are equal when they have the same OSM ID. OSMNodeStore creates a new OSMNode each time an untagged node is
+     * looked up, so nodes must not be compared by identity.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof OSMNode && ((OSMNode) other).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+
     /**
      * Returns the capacity of this node if defined, or 0.
      * 
@@ -43,4 +43,13 @@ public class FrequencyRandomOffsets {
         }
 
     }
+
+    /**
+     * Draw new offsets from a generator reset to the given seed, so that the same seed always gives the same offsets.
+     * This makes Monte Carlo searches reproducible however their draws are spread over threads.
+     */
+    public void randomize (long seed) {
+        mt.setSeed(seed);
+        randomize();
+    }
 }
@@ -7,6 +7,7 @@ import org.apache.commons.math3.util.FastMath;
 import org.opentripplanner.analyst.ResultSet;
 import org.opentripplanner.analyst.SampleSet;
 import org.opentripplanner.analyst.TimeSurface;
+import org.opentripplanner.analyst.cluster.CompactResultFormat;
 import org.opentripplanner.analyst.cluster.ResultEnvelope;
 import org.opentripplanner.analyst.core.IsochroneData;
 import org.opentripplanner.analyst.request.SampleGridRenderer;
@@ -21,6 +22,7 @@ import org.opentripplanner.routing.graph.Vertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -236,6 +238,16 @@ public class PropagatedTimesStore {
         return envelope;
     }
 
+    /**
+     * Stream the same results makeResults would produce (minus isochrones) to a compact result writer, without
+     * building a ResultEnvelope. The RaptorWorkerData must have been constructed from the same SampleSet.
+     */
+    public void writeResults(SampleSet ss, boolean includeTimes, CompactResultFormat.Writer writer) throws IOException {
+        writer.writeResultSet(ResultEnvelope.Which.WORST_CASE, maxs, ss.pset, includeTimes, true);
+        writer.writeResultSet(ResultEnvelope.Which.AVERAGE, avgs, ss.pset, includeTimes, true);
+        writer.writeResultSet(ResultEnvelope.Which.BEST_CASE, mins, ss.pset, includeTimes, true);
+    }
+
     public TimeSurface.RangeSet makeSurfaces(RepeatedRaptorProfileRouter repeatedRaptorProfileRouter) {
         TimeSurface.RangeSet rangeSet = new TimeSurface.RangeSet();
         rangeSet.min = new TimeSurface(repeatedRaptorProfileRouter);
@@ -252,6 +264,9 @@ public class PropagatedTimesStore {
             rangeSet.max.times.put(vertex, max);
             rangeSet.avg.times.put(vertex, avg);
         }
+        rangeSet.min.times.trimToSize();
+        rangeSet.max.times.trimToSize();
+        rangeSet.avg.times.trimToSize();
         return rangeSet;
     }
 
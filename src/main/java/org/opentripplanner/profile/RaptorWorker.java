@@ -1,6 +1,5 @@
 package org.opentripplanner.profile;
 
-import com.google.protobuf.CodedOutputStream;
 import gnu.trove.iterator.TIntIntIterator;
 import gnu.trove.map.TIntIntMap;
 import gnu.trove.map.hash.TIntIntHashMap;
@@ -9,12 +8,11 @@ import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 import java.util.stream.IntStream;
 
 /**
@@ -111,8 +109,27 @@ public class RaptorWorker {
 
     private long totalPropagationTime = 0;
 
+    /** Time spent in searchMinutes, used to apportion the elapsed time when searching in parallel. */
+    private long totalSearchTime = 0;
+
     private FrequencyRandomOffsets offsets;
 
+    /**
+     * The boarding assumption used for frequency trips in the current search. This is the one in the request, except
+     * during the worst and best case draws. It is kept here rather than changed on the request, which is shared by all
+     * the workers of a parallel search.
+     */
+    private RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+
+    /**
+     * The number of threads over which to spread a search. When this is more than one, the departure minutes are split
+     * into that many contiguous blocks which are searched concurrently on the fork/join common pool, and the Monte
+     * Carlo draws for each minute are also run concurrently. Range-raptor only carries results over from one minute to
+     * the next within a block. This gives the same results as searching all minutes in sequence, except for trips that
+     * arrive within a minute of MAX_DURATION: a sequential search keeps them from the following minute.
+     */
+    public int parallelism = 1;
+
     public RaptorWorker(RaptorWorkerData data, ProfileRequest req) {
         this.data = data;
         // these should only reflect the results of the (deterministic) scheduled search
@@ -123,7 +140,8 @@ public class RaptorWorker {
         allStopsTouched = new BitSet(data.nStops);
         stopsTouched = new BitSet(data.nStops);
         patternsTouched = new BitSet(data.nPatterns);
-        this.req = req; 
+        this.req = req;
+        this.boardingAssumption = req.boardingAssumption;
         Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent iterations.
         Arrays.fill(bestNonTransferTimes, UNREACHED);
         offsets = new FrequencyRandomOffsets(data);
@@ -188,15 +206,92 @@ public class RaptorWorker {
         // TODO don't hardwire timestep below
         ts.timeStep = 60;
 
+        int nMinutes = (req.toTime - fromTime - 60) / 60 + 1;
+        int nBlocks = Math.min(parallelism, nMinutes);
+        int filled = 0;
+        if (nBlocks <= 1) {
+            filled = searchMinutes(initialStops, nonTransitTimes, 0, nMinutes, monteCarloDraws,
+                    timesAtTargetsEachIteration, includeIterationInAverages);
+        } else {
+            // Each block of contiguous minutes is searched by its own worker, which does range-raptor within the
+            // block. The blocks write disjoint ranges of iterations, so the results do not depend on scheduling.
+            List<RaptorWorker> blockWorkers = new ArrayList<>();
+            List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+            final int draws = monteCarloDraws;
+            for (int b = 0; b < nBlocks; b++) {
+                RaptorWorker blockWorker = new RaptorWorker(data, req);
+                blockWorker.parallelism = parallelism;
+                int firstMinute = nMinutes * b / nBlocks;
+                int endMinute = nMinutes * (b + 1) / nBlocks;
+                blockWorkers.add(blockWorker);
+                tasks.add(ForkJoinTask.adapt(() -> blockWorker.searchMinutes(initialStops, nonTransitTimes,
+                        firstMinute, endMinute, draws, timesAtTargetsEachIteration,
+                        includeIterationInAverages)));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            long workerPropagationTime = 0, workerTime = 0;
+            for (int b = 0; b < nBlocks; b++) {
+                filled += tasks.get(b).join();
+                workerPropagationTime += blockWorkers.get(b).totalPropagationTime;
+                workerTime += blockWorkers.get(b).totalSearchTime;
+            }
+            // The blocks overlap in time, so report the share of the elapsed time that was spent propagating.
+            long elapsed = System.currentTimeMillis() - beginCalcTime;
+            totalPropagationTime = workerTime == 0 ? 0 : elapsed * workerPropagationTime / workerTime;
+        }
+
+        // make sure we filled the array, otherwise results are garbage.
+        // This implies a bug in OTP, but it has happened in the past when we did
+        // not set the number of iterations correctly.
+        if (filled != iterations)
+            throw new IllegalStateException("Iterations did not completely fill output array");
+
+        long calcTime = System.currentTimeMillis() - beginCalcTime;
+        LOG.info("calc time {}sec", calcTime / 1000.0);
+        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
+        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
+        ts.propagation = (int) totalPropagationTime;
+        ts.transitSearch = (int) (calcTime - totalPropagationTime);
+        // we can use min_max here as we've also run it once with best case and worst case board,
+        // so the best and worst cases are meaningful.
+        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration, includeIterationInAverages,
+                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        return propagatedTimesStore;
+    }
+
+    /**
+     * Search the departure minutes numbered from firstMinute (inclusive) to endMinute (exclusive), counting backward
+     * from the end of the time window, doing range-raptor from one minute to the next. The results for minute n are
+     * written to the iterations starting at n times the number of iterations per minute, so that several workers can
+     * fill in different minutes of the same arrays.
+     *
+     * @return the number of iterations that were filled in.
+     */
+    private int searchMinutes (TIntIntMap initialStops, int[] nonTransitTimes, int firstMinute, int endMinute,
+            int monteCarloDraws, int[][] timesAtTargetsEachIteration, boolean[] includeIterationInAverages) {
+        long beginSearchTime = System.currentTimeMillis();
+        int iterationsPerMinute = data.hasFrequencies ? monteCarloDraws + 2 : 1;
+
         // times at targets from scheduled search
         int[] scheduledTimesAtTargets = new int[data.nTargets];
         Arrays.fill(scheduledTimesAtTargets, UNREACHED);
 
+        // When searching in parallel, the Monte Carlo draws for each minute are also run concurrently, each one on a
+        // worker of its own that is reused from one minute to the next.
+        RaptorWorker[] drawWorkers = null;
+        if (parallelism > 1 && data.hasFrequencies) {
+            drawWorkers = new RaptorWorker[iterationsPerMinute];
+            for (int i = 0; i < drawWorkers.length; i++) {
+                drawWorkers[i] = new RaptorWorker(data, req);
+            }
+        }
+
         // current iteration
-        int iteration = 0;
+        int iteration = firstMinute * iterationsPerMinute;
 
         // FIXME this should be changed to tolerate a zero-width time range
-        for (int departureTime = req.toTime - 60, n = 0; departureTime >= fromTime; departureTime -= 60, n++) {
+        for (int n = firstMinute; n < endMinute; n++) {
+            int departureTime = req.toTime - 60 - n * 60;
             if (n % 15 == 0) {
                 LOG.info("minute {}", n);
             }
@@ -214,53 +309,24 @@ public class RaptorWorker {
 
             // run the frequency searches
             if (data.hasFrequencies) {
-                for (int i = 0; i < monteCarloDraws + 2; i++) {
-                    // make copies for just this search. We need copies because we can't use dynamic
-                    // programming/range-raptor with randomized schedules
-                    int[] bestTimesCopy = Arrays.copyOf(bestTimes, bestTimes.length);
-                    int[] bestNonTransferTimesCopy = Arrays
-                            .copyOf(bestNonTransferTimes, bestNonTransferTimes.length);
-                    int[] previousPatternsCopy = Arrays
-                            .copyOf(previousPatterns, previousPatterns.length);
-
-                    // special cases: calculate the best and the worst cases as well
-                    // Note that this (intentionally) does not affect searches where the user has requested
-                    // an assumption other than RANDOM, or stops with transfer rules.
-                    RaptorWorkerTimetable.BoardingAssumption requestedBoardingAssumption = req.boardingAssumption;
-
-                    if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
-                        // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
+                if (drawWorkers == null) {
+                    for (int i = 0; i < monteCarloDraws + 2; i++, iteration++) {
+                        includeIterationInAverages[iteration] = this.runFrequencyDraw(i, iteration, departureTime,
+                                bestTimes, bestNonTransferTimes, previousPatterns, scheduledTimesAtTargets,
+                                timesAtTargetsEachIteration[iteration]);
                     }
-                    else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
-                        // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
-                    }
-                    else if (requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
-                        // use a new Monte Carlo draw each time
-                        // included in averages by default
-                        offsets.randomize();
-
-                    this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
-                            previousPatternsCopy);
-
-                    req.boardingAssumption = requestedBoardingAssumption;
-
-                    // do propagation
-                    int[] frequencyTimesAtTargets = timesAtTargetsEachIteration[iteration++];
-                    System.arraycopy(scheduledTimesAtTargets, 0, frequencyTimesAtTargets, 0,
-                            scheduledTimesAtTargets.length);
-                    // updates timesAtTargetsEachIteration directly because it has a reference into the array.
-                    this.doPropagation(bestNonTransferTimesCopy, frequencyTimesAtTargets,
-                            departureTime);
-
-                    // convert to elapsed time
-                    for (int t = 0; t < frequencyTimesAtTargets.length; t++) {
-                        if (frequencyTimesAtTargets[t] != UNREACHED)
-                            frequencyTimesAtTargets[t] -= departureTime;
+                } else {
+                    List<ForkJoinTask<?>> draws = new ArrayList<>();
+                    for (int i = 0; i < monteCarloDraws + 2; i++, iteration++) {
+                        RaptorWorker drawWorker = drawWorkers[i];
+                        final int draw = i, drawIteration = iteration, dt = departureTime;
+                        draws.add(ForkJoinTask.adapt(() -> {
+                            includeIterationInAverages[drawIteration] = drawWorker.runFrequencyDraw(draw,
+                                    drawIteration, dt, bestTimes, bestNonTransferTimes, previousPatterns,
+                                    scheduledTimesAtTargets, timesAtTargetsEachIteration[drawIteration]);
+                        }));
                     }
+                    ForkJoinTask.invokeAll(draws);
                 }
             } else {
                 final int dt = departureTime;
@@ -270,44 +336,70 @@ public class RaptorWorker {
             }
         }
 
-        // make sure we filled the array, otherwise results are garbage.
-        // This implies a bug in OTP, but it has happened in the past when we did
-        // not set the number of iterations correctly.
-        // iteration should be incremented past end of array by ++ in assignment above
-        if (iteration != iterations)
-            throw new IllegalStateException("Iterations did not completely fill output array");
-
-        long calcTime = System.currentTimeMillis() - beginCalcTime;
-        LOG.info("calc time {}sec", calcTime / 1000.0);
-        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
-        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
-        ts.propagation = (int) totalPropagationTime;
-        ts.transitSearch = (int) (calcTime - totalPropagationTime);
-        //dumpVariableByte(timesAtTargetsEachMinute);
-        // we can use min_max here as we've also run it once with best case and worst case board,
-        // so the best and worst cases are meaningful.
-        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration, includeIterationInAverages,
-                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
-        return propagatedTimesStore;
+        if (drawWorkers != null) {
+            for (RaptorWorker drawWorker : drawWorkers) {
+                totalPropagationTime += drawWorker.totalPropagationTime;
+            }
+        }
+        totalSearchTime += System.currentTimeMillis() - beginSearchTime;
+        return (endMinute - firstMinute) * iterationsPerMinute;
     }
 
-    public void dumpVariableByte(int[][] array) {
-        try {
-            FileOutputStream fos = new FileOutputStream("/Users/abyrd/results.dat");
-            CodedOutputStream cos = CodedOutputStream.newInstance(fos);
-            cos.writeUInt32NoTag(array.length);
-            for (int[] subArray : array) {
-                cos.writeUInt32NoTag(subArray.length);
-                for (int val : subArray) {
-                    cos.writeInt32NoTag(val);
-                }
+    /**
+     * Run one randomized frequency search departing at the given time, starting from copies of the state left by the
+     * scheduled search for that minute, and propagate its results on top of the scheduled times at the targets.
+     * The given arrays are only read, so several workers may run draws from the same scheduled state at once.
+     *
+     * @param draw the number of this draw within the minute. When the requested boarding assumption is RANDOM, draws
+     *             zero and one are the worst and best cases, and the others are Monte Carlo draws.
+     * @param seed the seed for the random offsets of a Monte Carlo draw, making the results reproducible.
+     * @param timesAtTargets receives the elapsed times at each target.
+     * @return whether this draw should be included in averages, which is not the case for the extrema.
+     */
+    private boolean runFrequencyDraw (int draw, long seed, int departureTime, int[] scheduledBestTimes,
+            int[] scheduledBestNonTransferTimes, int[] scheduledPreviousPatterns, int[] scheduledTimesAtTargets,
+            int[] timesAtTargets) {
+        // make copies for just this search. We need copies because we can't use dynamic
+        // programming/range-raptor with randomized schedules
+        int[] bestTimesCopy = Arrays.copyOf(scheduledBestTimes, scheduledBestTimes.length);
+        int[] bestNonTransferTimesCopy = Arrays
+                .copyOf(scheduledBestNonTransferTimes, scheduledBestNonTransferTimes.length);
+        int[] previousPatternsCopy = Arrays
+                .copyOf(scheduledPreviousPatterns, scheduledPreviousPatterns.length);
+
+        // special cases: calculate the best and the worst cases as well
+        // Note that this (intentionally) does not affect searches where the user has requested
+        // an assumption other than RANDOM, or stops with transfer rules.
+        boolean includeInAverages = true;
+        if (req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
+            if (draw == 0) {
+                boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+                // don't include extrema in averages
+                includeInAverages = false;
+            } else if (draw == 1) {
+                boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+                // don't include extrema in averages
+                includeInAverages = false;
+            } else {
+                // use a new Monte Carlo draw each time
+                offsets.randomize(seed);
             }
-            fos.close();
-        } catch (FileNotFoundException e) {
-            LOG.error("File not found for dumping raptor results", e);
-        } catch (IOException e) {
-            LOG.error("IOException dumping raptor results", e);
         }
+
+        this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy, previousPatternsCopy);
+
+        boardingAssumption = req.boardingAssumption;
+
+        // do propagation
+        System.arraycopy(scheduledTimesAtTargets, 0, timesAtTargets, 0, scheduledTimesAtTargets.length);
+        this.doPropagation(bestNonTransferTimesCopy, timesAtTargets, departureTime);
+
+        // convert to elapsed time
+        for (int t = 0; t < timesAtTargets.length; t++) {
+            if (timesAtTargets[t] != UNREACHED)
+                timesAtTargets[t] -= departureTime;
+        }
+        return includeInAverages;
     }
 
     /** Run a raptor search not using frequencies */
@@ -391,7 +483,7 @@ public class RaptorWorker {
                         for (int trip = 0; trip < timetable.getFrequencyTripCount(); trip++) {
                             int boardTime = timetable
                                     .getFrequencyDeparture(trip, stopPositionInPattern,
-                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, req.boardingAssumption);
+                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, boardingAssumption);
 
                             if (boardTime != -1 && boardTime < remainOnBoardTime) {
                                 // make sure we board the best frequency entry at a stop
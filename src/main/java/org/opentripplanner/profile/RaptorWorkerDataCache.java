@@ -0,0 +1,206 @@
+package org.opentripplanner.profile;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.joda.time.LocalDate;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.analyst.scenario.ConvertToFrequency;
+import org.opentripplanner.analyst.scenario.Modification;
+import org.opentripplanner.analyst.scenario.Scenario;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A cache of RaptorWorkerData, so that requests searching the same transit network over the same time window can share
+ * the tables instead of each building its own, which often takes longer than the search itself.
+ *
+ * Tables are keyed on the graph, the time window, the scenario, and the point set ID, along with the few request
+ * parameters that are baked into the tables (boarding assumption, walk speed and maximum walk time). Scenario IDs are
+ * chosen by clients and may be reused for different modifications, so the scenario is identified by its ID together
+ * with a hash of its modifications serialized as JSON. Point sets are assumed to keep the same contents under the same
+ * ID. Requests for which no such key can be made (a sample set whose point set has no ID, or modifications that cannot
+ * be serialized) are not cached.
+ *
+ * The cache is bounded by an estimate of the memory used by the tables. When several threads ask for the same tables at
+ * once, they are only built once: the other threads wait for the first one to finish building them.
+ */
+public class RaptorWorkerDataCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerDataCache.class);
+
+    /**
+     * Serializes modifications for hashing. Properties are sorted so the same modifications always give the same JSON,
+     * and state filled in while the modifications are applied is left out.
+     */
+    private static final ObjectMapper modificationMapper = new ObjectMapper()
+            .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+            .addMixIn(Modification.class, ModificationMixIn.class)
+            .addMixIn(ConvertToFrequency.class, ConvertToFrequencyMixIn.class);
+
+    private static final TypeReference<List<Modification>> MODIFICATION_LIST = new TypeReference<List<Modification>>() { };
+
+    private final Cache<Key, RaptorWorkerData> cache;
+
+    /** @param maxMegabytes the approximate maximum amount of memory to be used by the cached tables. */
+    public RaptorWorkerDataCache (int maxMegabytes) {
+        // Weights are in kilobytes so that large tables do not overflow the int returned by the weigher.
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxMegabytes * 1024L)
+                .weigher((Key key, RaptorWorkerData data) -> (int) Math.min(Integer.MAX_VALUE, estimateBytes(data) / 1024))
+                .build();
+    }
+
+    /**
+     * Get the RAPTOR tables for the given request, building them if they are not already in the cache. The arguments
+     * are the same as those of RepeatedRaptorProfileRouter.getRaptorWorkerData.
+     */
+    public RaptorWorkerData get (ProfileRequest request, Graph graph, SampleSet sampleSet, TaskStatistics ts) {
+        Key key = Key.forRequest(request, graph, sampleSet);
+        if (key == null) {
+            return RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, sampleSet, ts);
+        }
+        try {
+            return cache.get(key, () -> RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, sampleSet, ts));
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException("Error building RAPTOR data", cause);
+        }
+    }
+
+    public void invalidateAll () {
+        cache.invalidateAll();
+    }
+
+    public long size () {
+        return cache.size();
+    }
+
+    /** A rough estimate of the memory used by the given tables, counting only their int arrays. */
+    static long estimateBytes (RaptorWorkerData data) {
+        long ints = 0;
+        for (int[] transfers : data.transfersForStop) ints += transfers.length;
+        for (int[] patterns : data.patternsForStop) ints += patterns.length;
+        for (int[] targets : data.targetsForStop) {
+            if (targets != null) ints += targets.length;
+        }
+        for (RaptorWorkerTimetable timetable : data.timetablesForPattern) {
+            ints += timetable.stopIndices.length;
+            ints += timetable.arrivals.length + timetable.departures.length;
+            if (timetable.frequencyTrips != null) {
+                for (int[] times : timetable.frequencyTrips) ints += times.length;
+                ints += timetable.headwaySecs.length * 3;
+            }
+        }
+        // Each array also has a header of about 16 bytes, which is significant for the many short per-stop arrays.
+        long arrays = data.transfersForStop.size() + data.patternsForStop.size() + data.targetsForStop.size();
+        return ints * 4 + arrays * 16;
+    }
+
+    private static class Key {
+        final String routerId;
+        final Date graphBuildTime;
+        final LocalDate date;
+        final int fromTime, toTime;
+        final Integer scenarioId;
+        final String modificationsHash;
+        final String pointSetId;
+        final RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+        final float walkSpeed;
+        final int maxWalkTime;
+
+        private Key (ProfileRequest request, Graph graph, Integer scenarioId, String modificationsHash,
+                     String pointSetId) {
+            this.routerId = graph.routerId;
+            this.graphBuildTime = graph.buildTime;
+            this.date = request.date;
+            this.fromTime = request.fromTime;
+            this.toTime = request.toTime;
+            this.scenarioId = scenarioId;
+            this.modificationsHash = modificationsHash;
+            this.pointSetId = pointSetId;
+            this.boardingAssumption = request.boardingAssumption;
+            this.walkSpeed = request.walkSpeed;
+            this.maxWalkTime = request.maxWalkTime;
+        }
+
+        /** @return a key for the tables of the given request, or null if they should not be cached. */
+        static Key forRequest (ProfileRequest request, Graph graph, SampleSet sampleSet) {
+            String pointSetId = null;
+            if (sampleSet != null) {
+                pointSetId = sampleSet.pset.id;
+                if (pointSetId == null) {
+                    LOG.debug("Not caching RAPTOR data for a point set without an ID.");
+                    return null;
+                }
+            }
+            Integer scenarioId = null;
+            String modificationsHash = null;
+            if (request.scenario != null) {
+                scenarioId = request.scenario.id;
+                modificationsHash = hashModifications(request.scenario);
+                if (modificationsHash == null) return null;
+            }
+            return new Key(request, graph, scenarioId, modificationsHash, pointSetId);
+        }
+
+        /** @return a hash of the modifications of the given scenario, or null if they cannot be serialized. */
+        static String hashModifications (Scenario scenario) {
+            try {
+                byte[] json = modificationMapper.writerFor(MODIFICATION_LIST).writeValueAsBytes(scenario.modifications);
+                return Hashing.sha256().hashBytes(json).toString();
+            } catch (JsonProcessingException e) {
+                LOG.warn("Not caching RAPTOR data for scenario {}, its modifications could not be serialized.",
+                        scenario.id, e);
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return fromTime == key.fromTime &&
+                    toTime == key.toTime &&
+                    Float.compare(key.walkSpeed, walkSpeed) == 0 &&
+                    maxWalkTime == key.maxWalkTime &&
+                    Objects.equals(routerId, key.routerId) &&
+                    Objects.equals(graphBuildTime, key.graphBuildTime) &&
+                    Objects.equals(date, key.date) &&
+                    Objects.equals(scenarioId, key.scenarioId) &&
+                    Objects.equals(modificationsHash, key.modificationsHash) &&
+                    Objects.equals(pointSetId, key.pointSetId) &&
+                    boardingAssumption == key.boardingAssumption;
+        }
+
+        @Override
+        public int hashCode () {
+            return Objects.hash(routerId, graphBuildTime, date, fromTime, toTime, scenarioId, modificationsHash,
+                    pointSetId, boardingAssumption, walkSpeed, maxWalkTime);
+        }
+    }
+
+    /** Warnings are added to modifications while they are applied, and do not change the tables. */
+    @JsonIgnoreProperties({"warnings"})
+    private static abstract class ModificationMixIn { }
+
+    /** The converted trips are filled in while the modification is applied. Annotations on a subclass replace those
+     * of its superclass, so the warnings are listed again. */
+    @JsonIgnoreProperties({"warnings", "scheduledTrips", "frequencyEntries"})
+    private static abstract class ConvertToFrequencyMixIn { }
+}
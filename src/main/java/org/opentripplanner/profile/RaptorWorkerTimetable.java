@@ -42,12 +42,29 @@ public class RaptorWorkerTimetable implements Serializable {
 
     private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerTimetable.class);
 
-    /* Times for schedule-based trips/patterns are stored in a 2D array. */
+    /*
+     * Times for schedule-based trips/patterns are stored in stop-major order: the times of all trips at the first stop,
+     * then the times of all trips at the second stop, and so on, with trips sorted by their first arrival. The search
+     * for the first departure at a stop is then a scan over one contiguous run of memory rather than a hop from trip to
+     * trip, and the following trips at the next stop are found next to each other as well.
+     */
 
     int nTrips, nStops;
 
-    /* For each trip on this pattern, an packed array of (arrival, departure) time pairs. */
-    public int[][] timesPerTrip;
+    /** Arrival times of scheduled trips, at index stop * nTrips + trip. */
+    int[] arrivals;
+
+    /** Departure times of scheduled trips, at index stop * nTrips + trip. */
+    int[] departures;
+
+    /**
+     * Whether departures increase from one trip to the next at every stop, i.e. there is no overtaking. When this is
+     * the case the first departure after a given time can be found by binary search.
+     */
+    boolean departuresSorted = true;
+
+    /** Below this number of trips a linear scan over the departures at a stop is faster than a binary search. */
+    private static final int MIN_TRIPS_FOR_BINARY_SEARCH = 16;
 
     /* Times for frequency-based trips are stored in parallel arrays (a column store). */
 
@@ -84,7 +101,8 @@ public class RaptorWorkerTimetable implements Serializable {
     public RaptorWorkerTimetable(int nTrips, int nStops) {
         this.nTrips = nTrips;
         this.nStops = nStops;
-        timesPerTrip = new int[nTrips][];
+        arrivals = new int[nTrips * nStops];
+        departures = new int[nTrips * nStops];
     }
 
     /**
@@ -92,20 +110,55 @@ public class RaptorWorkerTimetable implements Serializable {
      * MIN_BOARD_TIME_SECONDS seconds of slack. 
      */
     public int findDepartureAfter(int stop, int time) {
-        for (int trip = 0; trip < timesPerTrip.length; trip++) {
-            if (getDeparture(trip, stop) > time + MIN_BOARD_TIME_SECONDS) {
-                return trip;
+        int threshold = time + MIN_BOARD_TIME_SECONDS;
+        int start = stop * nTrips;
+        int end = start + nTrips;
+        if (departuresSorted && nTrips >= MIN_TRIPS_FOR_BINARY_SEARCH) {
+            // find the first trip departing after the threshold
+            int low = start, high = end;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (departures[mid] > threshold) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low == end ? -1 : low - start;
+        }
+        for (int i = start; i < end; i++) {
+            if (departures[i] > threshold) {
+                return i - start;
             }
         }
         return -1;
     }
 
     public int getArrival (int trip, int stop) {
-        return timesPerTrip[trip][stop * 2];
+        return arrivals[stop * nTrips + trip];
     }
 
     public int getDeparture (int trip, int stop) {
-        return timesPerTrip[trip][stop * 2 + 1];
+        return departures[stop * nTrips + trip];
+    }
+
+    /**
+     * Set the times of a scheduled trip from an array of packed (arrival, departure) pairs, one pair per stop. Trips
+     * must be set in order, as each one is compared to the previous one to detect overtaking.
+     */
+    void setTripTimes (int trip, int[] times) {
+        for (int stop = 0; stop < nStops; stop++) {
+            arrivals[stop * nTrips + trip] = times[stop * 2];
+            departures[stop * nTrips + trip] = times[stop * 2 + 1];
+        }
+        if (trip > 0) {
+            for (int stop = 0; stop < nStops; stop++) {
+                if (departures[stop * nTrips + trip] < departures[stop * nTrips + trip - 1]) {
+                    departuresSorted = false;
+                    break;
+                }
+            }
+        }
     }
 
     public int getFrequencyDeparture (int trip, int stop, int time, int previousPattern, FrequencyRandomOffsets offsets) {
@@ -242,7 +295,7 @@ public class RaptorWorkerTimetable implements Serializable {
 
     /** does this timetable have any scheduled trips? */
     public boolean hasScheduledTrips () {
-        return this.timesPerTrip != null && this.timesPerTrip.length > 0;
+        return nTrips > 0;
     }
 
     /**
@@ -318,18 +371,18 @@ public class RaptorWorkerTimetable implements Serializable {
         // Copy the times into the compacted table
         RaptorWorkerTimetable rwtt = new RaptorWorkerTimetable(tripTimes.size(), pattern.getStops().size());
         int t = 0;
+        int[] packedTimes = new int[rwtt.nStops * 2];
         for (TripTimes tt : tripTimes) {
-            int[] times = new int[rwtt.nStops * 2];
             for (int s = 0; s < pattern.getStops().size(); s++) {
                 int arrival = tt.getArrivalTime(s);
                 int departure = tt.getDepartureTime(s);
-                times[s * 2] = arrival;
-                times[s * 2 + 1] = departure;
+                packedTimes[s * 2] = arrival;
+                packedTimes[s * 2 + 1] = departure;
             }
-            rwtt.timesPerTrip[t++] = times;
+            rwtt.setTripTimes(t++, packedTimes);
         }
 
-        ts.scheduledTripCount += rwtt.timesPerTrip.length;
+        ts.scheduledTripCount += rwtt.nTrips;
 
         // save frequency times
         rwtt.frequencyTrips = new int[freqs.size()][pattern.getStops().size() * 2];
@@ -398,10 +451,10 @@ public class RaptorWorkerTimetable implements Serializable {
         // create timetabled trips
         int t = 0;
         for (AddTripPattern.PatternTimetable pt : timetables) {
-            rwtt.timesPerTrip[t++] = timesForPatternTimetable(atp, pt);
+            rwtt.setTripTimes(t++, timesForPatternTimetable(atp, pt));
         }
 
-        ts.scheduledTripCount += rwtt.timesPerTrip.length;
+        ts.scheduledTripCount += rwtt.nTrips;
 
         // create frequency trips
         rwtt.frequencyTrips = new int[frequencies.size()][atp.temporaryStops.length * 2];
@@ -10,6 +10,7 @@ import gnu.trove.map.hash.TObjectLongHashMap;
 import org.joda.time.DateTimeZone;
 import org.opentripplanner.analyst.SampleSet;
 import org.opentripplanner.analyst.TimeSurface;
+import org.opentripplanner.analyst.cluster.CompactResultFormat;
 import org.opentripplanner.analyst.cluster.ResultEnvelope;
 import org.opentripplanner.analyst.cluster.TaskStatistics;
 import org.opentripplanner.analyst.scenario.AddTripPattern;
@@ -28,6 +29,7 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.time.DayOfWeek;
 import java.util.Arrays;
 
@@ -70,6 +72,9 @@ public class RepeatedRaptorProfileRouter {
      */
     public RaptorWorkerData raptorWorkerData;
 
+    // Set this field before routing to take the RAPTOR data tables from a cache when they are not supplied directly.
+    public RaptorWorkerDataCache raptorWorkerDataCache;
+
     private ShortestPathTree preTransitSpt;
 
     /** The sum of all earliest-arrival travel times to a given transit stop. Will be divided to create an average. */
@@ -89,6 +94,9 @@ public class RepeatedRaptorProfileRouter {
     // Set this field to true before routing if you want the full travel times included in your response.
     public boolean includeTimes = false;
 
+    // Set this field above one before routing to spread the RAPTOR search over that many threads (see RaptorWorker).
+    public int raptorParallelism = 1;
+
     /**
      * Make a router to use for making time surfaces only.
      *
@@ -130,16 +138,58 @@ public class RepeatedRaptorProfileRouter {
     public ResultEnvelope route () {
 
         boolean isochrone = (sampleSet == null); // When no sample set is provided, we're making isochrones.
+        findTimes();
+
+        // Turn the results of the search into isochrone geometries or accessibility data as requested.
+        long resultSetStart = System.currentTimeMillis();
+        ResultEnvelope envelope = new ResultEnvelope();
+        if (isochrone) {
+            // No destination point set was provided and we're just making isochrones based on travel time to vertices,
+            // rather than finding access times to a set of user-specified points.
+            envelope = propagatedTimesStore.makeIsochronesForVertices();
+        } else {
+            // A destination point set was provided. We've found access times to a set of specified points.
+            // TODO actually use those boolean params to calculate isochrones on a regular grid pointset
+            // TODO maybe there's a better way to pass includeTimes in here from the clusterRequest,
+            // maybe we should just provide the whole clusterRequest not just the wrapped profileRequest.
+            envelope = propagatedTimesStore.makeResults(sampleSet, includeTimes, true, false);
+        }
+        ts.resultSets = (int) (System.currentTimeMillis() - resultSetStart);
+        return envelope;
+    }
+
+    /**
+     * Run the search and stream the results for the sample set to the given writer, rather than building a
+     * ResultEnvelope. This keeps memory use down for regional analyses with large destination pointsets.
+     */
+    public void route (CompactResultFormat.Writer writer) throws IOException {
+        if (sampleSet == null) {
+            throw new IllegalStateException("Compact results can only be written for a destination sample set.");
+        }
+        findTimes();
+        long resultSetStart = System.currentTimeMillis();
+        propagatedTimesStore.writeResults(sampleSet, includeTimes, writer);
+        ts.resultSets = (int) (System.currentTimeMillis() - resultSetStart);
+    }
+
+    /** Perform the search, leaving travel times to the vertices or samples in propagatedTimesStore. */
+    private void findTimes () {
+
         boolean transit = (request.transitModes != null && request.transitModes.isTransit()); // Does the search involve transit at all?
 
         long computationStartTime = System.currentTimeMillis();
         LOG.info("Begin profile request");
 
-        // Data tables may have been supplied by the caller (if they are cached). Otherwise generate a throw away one.
+        // Data tables may have been supplied by the caller (if they are cached). Otherwise take them from the cache
+        // if one was supplied, or generate a throw away one.
         // We only create data tables if transit is in use, otherwise they wouldn't serve any purpose.
         if (raptorWorkerData == null && transit) {
             long dataStart = System.currentTimeMillis();
-            raptorWorkerData = getRaptorWorkerData(request, graph, sampleSet, ts);
+            if (raptorWorkerDataCache != null) {
+                raptorWorkerData = raptorWorkerDataCache.get(request, graph, sampleSet, ts);
+            } else {
+                raptorWorkerData = getRaptorWorkerData(request, graph, sampleSet, ts);
+            }
             ts.raptorData = (int) (System.currentTimeMillis() - dataStart);
         }
 
@@ -177,6 +227,7 @@ public class RepeatedRaptorProfileRouter {
 
         if (transit) {
             RaptorWorker worker = new RaptorWorker(raptorWorkerData, request);
+            worker.parallelism = raptorParallelism;
             propagatedTimesStore = worker.runRaptor(graph, transitStopAccessTimes, nonTransitTimes, ts);
             ts.initialStopCount = transitStopAccessTimes.size();
         } else {
@@ -192,23 +243,6 @@ public class RepeatedRaptorProfileRouter {
         }
         ts.compute = (int) (System.currentTimeMillis() - computationStartTime);
         LOG.info("Profile request finished in {} seconds", (ts.compute) / 1000.0);
-
-        // Turn the results of the search into isochrone geometries or accessibility data as requested.
-        long resultSetStart = System.currentTimeMillis();
-        ResultEnvelope envelope = new ResultEnvelope();
-        if (isochrone) {
-            // No destination point set was provided and we're just making isochrones based on travel time to vertices,
-            // rather than finding access times to a set of user-specified points.
-            envelope = propagatedTimesStore.makeIsochronesForVertices();
-        } else {
-            // A destination point set was provided. We've found access times to a set of specified points.
-            // TODO actually use those boolean params to calculate isochrones on a regular grid pointset
-            // TODO maybe there's a better way to pass includeTimes in here from the clusterRequest,
-            // maybe we should just provide the whole clusterRequest not just the wrapped profileRequest.
-            envelope = propagatedTimesStore.makeResults(sampleSet, includeTimes, true, false);
-        }
-        ts.resultSets = (int) (System.currentTimeMillis() - resultSetStart);
-        return envelope;
     }
 
     /**
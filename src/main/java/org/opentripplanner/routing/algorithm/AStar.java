@@ -6,6 +6,8 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.FourAryHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
@@ -18,6 +20,7 @@ import org.opentripplanner.routing.spt.*;
 import org.opentripplanner.util.DateUtils;
 import org.opentripplanner.util.monitoring.MonitoringStore;
 import org.opentripplanner.util.monitoring.MonitoringStoreFactory;
+import org.opentripplanner.util.monitoring.RequestMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,7 +53,7 @@ public class AStar {
 
         public State u;
         public ShortestPathTree spt;
-        BinHeap<State> pq;
+        OTPPriorityQueue<State> pq;
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
@@ -107,7 +110,11 @@ public class AStar {
         // Since initial states can be multiple, heuristic cannot depend on the initial state.
         // Initializing the bidirectional heuristic is a pretty complicated operation that involves searching through
         // the streets around the origin and destination.
+        long heuristicStartTime = System.nanoTime();
         runState.heuristic.initialize(runState.options, abortTime);
+        if (options.recordRequestMetrics) {
+            RequestMetrics.HEURISTIC_INITIALIZATION.observeSince(heuristicStartTime);
+        }
         if (abortTime < Long.MAX_VALUE  && System.currentTimeMillis() > abortTime) {
             LOG.warn("Timeout during initialization of goal direction heuristic.");
             options.rctx.debugOutput.timedOut = true;
@@ -121,7 +128,7 @@ public class AStar {
         // before reaching its target.
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<>(initialSize);
+        runState.pq = options.denseSearchState ? new FourAryHeap<>(initialSize) : new BinHeap<>(initialSize);
         runState.nVisited = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
         
@@ -294,7 +301,12 @@ public class AStar {
         startSearch (options, terminationStrategy, abortTime);
 
         if (runState != null) {
+            long searchStartTime = System.nanoTime();
             runSearch(abortTime);
+            if (runState.options.recordRequestMetrics) {
+                RequestMetrics.ASTAR_SEARCH.observeSince(searchStartTime);
+                RequestMetrics.ASTAR_VISITED_STATES.observe(runState.nVisited);
+            }
             spt = runState.spt;
         }
         
@@ -115,14 +115,24 @@ public class RoutingContext implements Cloneable {
      * Constructor that automatically computes origin/target from RoutingRequest.
      */
     public RoutingContext(RoutingRequest routingRequest, Graph graph) {
-        this(routingRequest, graph, null, null, true);
+        this(routingRequest, graph, null, null, true, true);
     }
 
     /**
      * Constructor that takes to/from vertices as input.
      */
     public RoutingContext(RoutingRequest routingRequest, Graph graph, Vertex from, Vertex to) {
-        this(routingRequest, graph, from, to, false);
+        this(routingRequest, graph, from, to, false, true);
+    }
+
+    /**
+     * Constructor for another search between the same vertices as an existing routing context, for example at another
+     * time. The temporary edges linking the origin and destination are those of the existing context, they are not
+     * made again. Only the existing context should be destroyed, which removes them.
+     */
+    public RoutingContext(RoutingRequest routingRequest, RoutingContext existing) {
+        this(routingRequest, existing.graph, existing.fromVertex, existing.toVertex, false, false);
+        this.originBackEdge = existing.originBackEdge;
     }
 
     /**
@@ -185,9 +195,11 @@ public class RoutingContext implements Cloneable {
      * TODO(flamholz): delete this flexible constructor and move the logic to constructors above appropriately.
      * 
      * @param findPlaces if true, compute origin and target from RoutingRequest using spatial indices.
+     * @param linkEndpoints if true, add temporary edges between temporary origin and destination vertices that lie on
+     *                      the same street edges.
      */
     private RoutingContext(RoutingRequest routingRequest, Graph graph, Vertex from, Vertex to,
-            boolean findPlaces) {
+            boolean findPlaces, boolean linkEndpoints) {
         if (graph == null) {
             throw new GraphNotFoundException();
         }
@@ -268,7 +280,7 @@ public class RoutingContext implements Cloneable {
         // up along those edges so that we don't get odd circuitous routes for really short trips.
         // TODO(flamholz): seems like this might be the wrong place for this code? Can't find a better one.
         //
-        if (fromVertex instanceof TemporaryStreetLocation &&
+        if (linkEndpoints && fromVertex instanceof TemporaryStreetLocation &&
                 toVertex instanceof TemporaryStreetLocation) {
             TemporaryStreetLocation fromStreetVertex = (TemporaryStreetLocation) fromVertex;
             TemporaryStreetLocation toStreetVertex = (TemporaryStreetLocation) toVertex;
@@ -384,6 +384,21 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public boolean disableRemainingWeightHeuristic = false;
 
+    /**
+     * If true, the shortest path tree finds its states through an array indexed by vertex index rather than a hash map,
+     * and AStar uses a 4-ary heap. The array is the size of the graph but is kept per thread and reused by every
+     * search, so this means much less hashing and allocation per relaxed edge. Usually set per router in
+     * routingDefaults.
+     */
+    public boolean denseSearchState = false;
+
+    /**
+     * If true, the time spent linking the endpoints of this request and in its AStar searches is recorded in the
+     * RequestMetrics histograms. Only trip planning API requests set this, so that searches made while building the
+     * graph, finding transfers or running analyses do not mix with the request timings.
+     */
+    public boolean recordRequestMetrics = false;
+
     /**
      * The routing context used to actually carry out this search. It is important to build States from TraverseOptions
      * rather than RoutingContexts,and just keep a reference to the context in the TraverseOptions, rather than using
@@ -74,6 +74,12 @@ public class Timetable implements Serializable {
      * Helps determine whether a particular pattern is worth searching for departures at a given time. 
      */
     private transient int minTime, maxTime;
+
+    /**
+     * Sorted departure and arrival indexes over tripTimes, built by finish(). Null when the timetable has not been
+     * finished or its trips have changed since, in which case getNextTrip falls back on a linear scan.
+     */
+    private transient TimetableTripIndex tripIndex;
     
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
@@ -133,39 +139,19 @@ public class Timetable implements Serializable {
         }
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
+        // Use the sorted indexes built by finish() when they are up to date with the trips in this timetable.
+        // Trips from different service IDs are indexed separately, and since each stop is sorted on its own,
+        // realtime updates that make trips overtake one another are handled. Frequency entries are still scanned.
+        int bestIndex;
+        if (tripIndex != null && tripIndex.nTrips == tripTimes.size()) {
+            bestIndex = findBestTripIndexed(s0, serviceDay, stopIndex, boarding, time, currentStop);
+        } else {
+            bestIndex = findBestTripLinear(s0, serviceDay, stopIndex, boarding, time, currentStop);
+        }
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
-            if (tt.isCanceled()) continue;
-            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
-            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
-            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
-            if (adjustedTime == -1) continue;
-            if (boarding) {
-                int depTime = tt.getDepartureTime(stopIndex);
-                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                                           // now its not sure if this check should be still in place because there is a boolean field
-                                           // for canceled trips
-                if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestTrip = tt;
-                    bestTime = depTime;
-                }
-            } else {
-                int arvTime = tt.getArrivalTime(stopIndex);
-                if (arvTime < 0) continue;
-                if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
-                }
-            }
+        if (bestIndex >= 0) {
+            bestTrip = tripTimes.get(bestIndex);
+            bestTime = boarding ? bestTrip.getDepartureTime(stopIndex) : bestTrip.getArrivalTime(stopIndex);
         }
         // ACK all logic is identical to above.
         // A sign that FrequencyEntries and TripTimes need a common interface.
@@ -202,6 +188,103 @@ public class Timetable implements Serializable {
         return bestTrip;
     }
 
+    /**
+     * Search the sorted indexes for the best trip, which must be running on the given service day.
+     * @return the position of the best trip in tripTimes, or -1 if none is found.
+     */
+    private int findBestTripIndexed(State s0, ServiceDay serviceDay, int stopIndex, boolean boarding, int time,
+            Stop currentStop) {
+        int bestIndex = -1;
+        int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        for (int g = 0; g < tripIndex.serviceCodes.length; g++) {
+            if ( ! serviceDay.serviceRunning(tripIndex.serviceCodes[g])) continue;
+            if (boarding) {
+                int[] order = tripIndex.byDeparture[g][stopIndex];
+                // Departures are sorted by time and then by position, so the first acceptable trip is the best one
+                // in this group. Ties between groups are broken by position as in the linear search.
+                for (int i = TimetableTripIndex.firstDepartureAtOrAfter(tripTimes, order, stopIndex, time);
+                     i < order.length; i++) {
+                    int t = order[i];
+                    TripTimes tt = tripTimes.get(t);
+                    int depTime = tt.getDepartureTime(stopIndex);
+                    if (depTime > bestTime || (depTime == bestTime && t > bestIndex)) break;
+                    if (depTime < 0) continue;
+                    if (tt.isCanceled()) continue;
+                    if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                    int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                    if (adjustedTime == -1) continue;
+                    if (depTime >= adjustedTime) {
+                        bestIndex = t;
+                        bestTime = depTime;
+                        break;
+                    }
+                }
+            } else {
+                int[] order = tripIndex.byArrival[g][stopIndex];
+                // Scanning backward, trips arriving at the same time are seen in decreasing position, so keep
+                // going until the arrival time drops below the best one found.
+                for (int i = TimetableTripIndex.lastArrivalAtOrBefore(tripTimes, order, stopIndex, time);
+                     i >= 0; i--) {
+                    int t = order[i];
+                    TripTimes tt = tripTimes.get(t);
+                    int arvTime = tt.getArrivalTime(stopIndex);
+                    if (arvTime < bestTime) break;
+                    if (arvTime == bestTime && t > bestIndex) continue;
+                    if (arvTime < 0) continue;
+                    if (tt.isCanceled()) continue;
+                    if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                    int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                    if (adjustedTime == -1) continue;
+                    if (arvTime <= adjustedTime) {
+                        bestIndex = t;
+                        bestTime = arvTime;
+                    }
+                }
+            }
+        }
+        return bestIndex;
+    }
+
+    /**
+     * Scan every trip in this timetable for the best one.
+     * @return the position of the best trip in tripTimes, or -1 if none is found.
+     */
+    private int findBestTripLinear(State s0, ServiceDay serviceDay, int stopIndex, boolean boarding, int time,
+            Stop currentStop) {
+        int bestIndex = -1;
+        // Linear search through the timetable looking for the best departure. This is only used when trips have
+        // been added or updated since the last call to finish(), in which case the sorted indexes are unavailable.
+        int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
+        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
+        // We could invert this and skip some service days based on schedule overlap as in RRRR.
+        for (int i = 0; i < tripTimes.size(); i++) {
+            TripTimes tt = tripTimes.get(i);
+            if (tt.isCanceled()) continue;
+            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
+            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+            if (adjustedTime == -1) continue;
+            if (boarding) {
+                int depTime = tt.getDepartureTime(stopIndex);
+                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                                           // now its not sure if this check should be still in place because there is a boolean field
+                                           // for canceled trips
+                if (depTime >= adjustedTime && depTime < bestTime) {
+                    bestIndex = i;
+                    bestTime = depTime;
+                }
+            } else {
+                int arvTime = tt.getArrivalTime(stopIndex);
+                if (arvTime < 0) continue;
+                if (arvTime <= adjustedTime && arvTime > bestTime) {
+                    bestIndex = i;
+                    bestTime = arvTime;
+                }
+            }
+        }
+        return bestIndex;
+    }
+
     /**
      * Check transfer table rules. Given the last alight time from the State,
      * return the boarding time t0 adjusted for this particular trip's minimum transfer time,
@@ -282,6 +365,8 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        /* Sort trips at each stop so getNextTrip can binary search instead of scanning every trip. */
+        tripIndex = new TimetableTripIndex(tripTimes, nStops);
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -325,6 +410,7 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
+        this.tripIndex = null; // updated times may be out of order, the index is rebuilt by finish()
         return tripTimes.set(tripIndex, tt);
     }
 
@@ -505,6 +591,7 @@ public class Timetable implements Serializable {
      * Here we don't know if it's a scheduled trip or a realtime-added trip.
      */
     public void addTripTimes(TripTimes tt) {
+        tripIndex = null;
         tripTimes.add(tt);
     }
 
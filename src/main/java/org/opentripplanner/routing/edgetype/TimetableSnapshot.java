@@ -22,6 +22,11 @@ import com.google.common.base.Preconditions;
  * relative arrival and departure times of other trips that have not necessarily been boarded.
  *
  * At this point, only one writing thread at a time is supported.
+ *
+ * Committing a snapshot does not copy the whole TripPattern to Timetable map. The map is split into a fixed number of
+ * shards by pattern, and a committed snapshot shares every shard with the writable snapshot it was committed from.
+ * The writable snapshot copies a shard the first time it modifies it after a commit, so each commit only costs copies
+ * of the shards that actually changed, and older snapshots still held by routing threads are never modified.
  */
 public class TimetableSnapshot {
 
@@ -83,12 +88,16 @@ public class TimetableSnapshot {
 
     private static final Logger LOG = LoggerFactory.getLogger(TimetableSnapshot.class);
     
-    // Use HashMap not Map so we can clone.
-    // if this turns out to be slow/spacious we can use an array with integer pattern indexes
-    // The SortedSet members are copy-on-write
+    /** The number of shards the TripPattern to Timetable map is split into. Must be a power of two. */
+    private static final int N_SHARDS = 64;
+
+    // The SortedSet members are copy-on-write, and so are the shards of this map: see shardForUpdate.
     // FIXME: this could be made into a flat hashtable with compound keys.
-    private HashMap<TripPattern, SortedSet<Timetable>> timetables =
-            new HashMap<TripPattern, SortedSet<Timetable>>();
+    @SuppressWarnings("unchecked")
+    private HashMap<TripPattern, SortedSet<Timetable>>[] timetables = new HashMap[N_SHARDS];
+
+    /** The shards of the timetables map that this snapshot has copied since the last commit and may modify. */
+    private final BitSet ownedShards = new BitSet(N_SHARDS);
 
     /**
      * <p>
@@ -125,7 +134,8 @@ public class TimetableSnapshot {
      * or the originally scheduled timetable if there are no updates in this snapshot.
      */
     public Timetable resolve(TripPattern pattern, ServiceDate serviceDate) {
-        SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
+        HashMap<TripPattern, SortedSet<Timetable>> shard = timetables[shardIndex(pattern)];
+        SortedSet<Timetable> sortedTimetables = shard == null ? null : shard.get(pattern);
 
         if(sortedTimetables != null && serviceDate != null) {
             for(Timetable timetable : sortedTimetables) {
@@ -138,6 +148,24 @@ public class TimetableSnapshot {
 
         return pattern.scheduledTimetable;
     }
+
+    private static int shardIndex(TripPattern pattern) {
+        int h = pattern.hashCode();
+        return (h ^ (h >>> 16)) & (N_SHARDS - 1);
+    }
+
+    /**
+     * @return the shard of the timetables map with the given index, copied first if it may be shared with a
+     * committed snapshot, so that it can be modified without affecting any snapshot visible to routing threads.
+     */
+    private HashMap<TripPattern, SortedSet<Timetable>> shardForUpdate(int index) {
+        if (!ownedShards.get(index)) {
+            HashMap<TripPattern, SortedSet<Timetable>> shard = timetables[index];
+            timetables[index] = shard == null ? new HashMap<>() : new HashMap<>(shard);
+            ownedShards.set(index);
+        }
+        return timetables[index];
+    }
     
     /**
      * Get the last <b>added</b> trip pattern given a trip id (without agency) and a service date as
@@ -179,7 +207,8 @@ public class TimetableSnapshot {
         if ( ! dirtyTimetables.contains(tt)) {
             Timetable old = tt;
             tt = new Timetable(tt, serviceDate);
-            SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
+            HashMap<TripPattern, SortedSet<Timetable>> shard = shardForUpdate(shardIndex(pattern));
+            SortedSet<Timetable> sortedTimetables = shard.get(pattern);
             if(sortedTimetables == null) {
                 sortedTimetables = new TreeSet<Timetable>(new SortedTimetableComparator());
             } else {
@@ -191,7 +220,7 @@ public class TimetableSnapshot {
             if(old.serviceDate != null)
                 sortedTimetables.remove(old);
             sortedTimetables.add(tt);
-            timetables.put(pattern, sortedTimetables);
+            shard.put(pattern, sortedTimetables);
             dirtyTimetables.add(tt);
             dirty = true;
         }
@@ -241,7 +270,9 @@ public class TimetableSnapshot {
         for (Timetable tt : dirtyTimetables) {
             tt.finish(); // summarize, index, etc. the new timetables
         }
-        ret.timetables = (HashMap<TripPattern, SortedSet<Timetable>>) this.timetables.clone();
+        // Share all shards with the new snapshot. This snapshot will copy any shard before modifying it again.
+        ret.timetables = this.timetables.clone();
+        this.ownedShards.clear();
         ret.lastAddedTripPattern = (HashMap<TripIdAndServiceDate, TripPattern>)
                 this.lastAddedTripPattern.clone();
         this.dirtyTimetables.clear();
@@ -277,7 +308,15 @@ public class TimetableSnapshot {
      * @return true if the timetable changed as a result of the call
      */
     protected boolean clearTimetable(String feedId) {
-        return timetables.keySet().removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
+        boolean modified = false;
+        for (int i = 0; i < N_SHARDS; i++) {
+            HashMap<TripPattern, SortedSet<Timetable>> shard = timetables[i];
+            if (shard != null && shard.keySet().stream().anyMatch(tripPattern -> feedId.equals(tripPattern.getFeedId()))) {
+                shardForUpdate(i).keySet().removeIf(tripPattern -> feedId.equals(tripPattern.getFeedId()));
+                modified = true;
+            }
+        }
+        return modified;
     }
 
     /**
@@ -299,23 +338,35 @@ public class TimetableSnapshot {
         }
 
         boolean modified = false;
-        for (Iterator<TripPattern> it = timetables.keySet().iterator(); it.hasNext();){
-            TripPattern pattern = it.next();
-            SortedSet<Timetable> sortedTimetables = timetables.get(pattern);
-            SortedSet<Timetable> toKeepTimetables =
-                    new TreeSet<Timetable>(new SortedTimetableComparator());
-            for(Timetable timetable : sortedTimetables) {
-                if(serviceDate.compareTo(timetable.serviceDate) < 0) {
-                    toKeepTimetables.add(timetable);
-                } else {
-                    modified = true;
+        for (int i = 0; i < N_SHARDS; i++) {
+            if (timetables[i] == null) continue;
+            // Only copy shards that actually contain expired timetables.
+            boolean shardModified = false;
+            for (SortedSet<Timetable> sortedTimetables : timetables[i].values()) {
+                if (serviceDate.compareTo(sortedTimetables.first().serviceDate) >= 0) {
+                    shardModified = true;
+                    break;
                 }
             }
+            if (!shardModified) continue;
+            modified = true;
+            HashMap<TripPattern, SortedSet<Timetable>> shard = shardForUpdate(i);
+            for (Iterator<TripPattern> it = shard.keySet().iterator(); it.hasNext();){
+                TripPattern pattern = it.next();
+                SortedSet<Timetable> sortedTimetables = shard.get(pattern);
+                SortedSet<Timetable> toKeepTimetables =
+                        new TreeSet<Timetable>(new SortedTimetableComparator());
+                for(Timetable timetable : sortedTimetables) {
+                    if(serviceDate.compareTo(timetable.serviceDate) < 0) {
+                        toKeepTimetables.add(timetable);
+                    }
+                }
 
-            if(toKeepTimetables.isEmpty()) {
-                it.remove();
-            } else {
-                timetables.put(pattern, toKeepTimetables);
+                if(toKeepTimetables.isEmpty()) {
+                    it.remove();
+                } else {
+                    shard.put(pattern, toKeepTimetables);
+                }
             }
         }
         
@@ -339,6 +390,10 @@ public class TimetableSnapshot {
 
     public String toString() {
         String d = readOnly ? "committed" : String.format("%d dirty", dirtyTimetables.size());
-        return String.format("Timetable snapshot: %d timetables (%s)", timetables.size(), d);
+        int size = 0;
+        for (HashMap<TripPattern, SortedSet<Timetable>> shard : timetables) {
+            if (shard != null) size += shard.size();
+        }
+        return String.format("Timetable snapshot: %d timetables (%s)", size, d);
     }
 }
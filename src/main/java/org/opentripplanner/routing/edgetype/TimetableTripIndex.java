@@ -0,0 +1,127 @@
+package org.opentripplanner.routing.edgetype;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted departure and arrival indexes over the TripTimes of one Timetable, allowing Timetable.getNextTrip to binary
+ * search for the first candidate trip at a stop instead of scanning every trip in the pattern.
+ *
+ * Trips are grouped by service code, so a search only looks at trips whose service is running on the day being
+ * searched. Within each group and for each stop there is an array of positions in the Timetable's tripTimes list,
+ * sorted by time at that stop and then by position. Trips on a pattern rarely overtake one another, so when the
+ * order at one stop is still valid at the next stop the same array is shared rather than copied. The index is a
+ * snapshot: it is built by Timetable.finish() and must be discarded whenever the list of TripTimes changes.
+ */
+class TimetableTripIndex {
+
+    /** The distinct service codes of the indexed trips, one per group. */
+    final int[] serviceCodes;
+
+    /** For each service code group and each stop, positions in tripTimes sorted by departure time at that stop. */
+    final int[][][] byDeparture;
+
+    /** For each service code group and each stop, positions in tripTimes sorted by arrival time at that stop. */
+    final int[][][] byArrival;
+
+    /** The number of TripTimes that were indexed, to detect a stale index. */
+    final int nTrips;
+
+    TimetableTripIndex (List<TripTimes> tripTimes, int nStops) {
+        nTrips = tripTimes.size();
+        TIntObjectHashMap<TIntArrayList> tripsForServiceCode = new TIntObjectHashMap<>();
+        for (int t = 0; t < nTrips; t++) {
+            int serviceCode = tripTimes.get(t).serviceCode;
+            TIntArrayList trips = tripsForServiceCode.get(serviceCode);
+            if (trips == null) {
+                trips = new TIntArrayList();
+                tripsForServiceCode.put(serviceCode, trips);
+            }
+            trips.add(t);
+        }
+        serviceCodes = tripsForServiceCode.keys();
+        Arrays.sort(serviceCodes);
+        byDeparture = new int[serviceCodes.length][][];
+        byArrival = new int[serviceCodes.length][][];
+        for (int g = 0; g < serviceCodes.length; g++) {
+            int[] trips = tripsForServiceCode.get(serviceCodes[g]).toArray();
+            byDeparture[g] = sortAtEachStop(tripTimes, trips, nStops, true);
+            byArrival[g] = sortAtEachStop(tripTimes, trips, nStops, false);
+        }
+    }
+
+    private static int[][] sortAtEachStop (List<TripTimes> tripTimes, int[] trips, int nStops, boolean departures) {
+        int[][] orders = new int[nStops][];
+        int[] previous = null;
+        for (int s = 0; s < nStops; s++) {
+            if (previous != null && isSorted(tripTimes, previous, s, departures)) {
+                orders[s] = previous; // no overtaking between the previous stop and this one
+            } else {
+                orders[s] = previous = sort(tripTimes, trips, s, departures);
+            }
+        }
+        return orders;
+    }
+
+    /** Sort on a long key holding the time in the high bits and the position in the low bits, avoiding boxing. */
+    private static int[] sort (List<TripTimes> tripTimes, int[] trips, int stop, boolean departures) {
+        long[] keys = new long[trips.length];
+        for (int i = 0; i < trips.length; i++) {
+            keys[i] = key(tripTimes.get(trips[i]), trips[i], stop, departures);
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[trips.length];
+        for (int i = 0; i < trips.length; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    private static boolean isSorted (List<TripTimes> tripTimes, int[] order, int stop, boolean departures) {
+        for (int i = 1; i < order.length; i++) {
+            if (key(tripTimes.get(order[i - 1]), order[i - 1], stop, departures) >
+                key(tripTimes.get(order[i]), order[i], stop, departures)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long key (TripTimes tt, int position, int stop, boolean departures) {
+        int time = departures ? tt.getDepartureTime(stop) : tt.getArrivalTime(stop);
+        return ((long) time << 32) | position;
+    }
+
+    /** @return the first index in order whose trip departs the given stop at or after the given time. */
+    static int firstDepartureAtOrAfter (List<TripTimes> tripTimes, int[] order, int stop, int time) {
+        int lo = 0, hi = order.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tripTimes.get(order[mid]).getDepartureTime(stop) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the last index in order whose trip arrives at the given stop at or before the given time, or -1. */
+    static int lastArrivalAtOrBefore (List<TripTimes> tripTimes, int[] order, int stop, int time) {
+        int lo = 0, hi = order.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tripTimes.get(order[mid]).getArrivalTime(stop) <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
+}
@@ -64,7 +64,10 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.prefs.Preferences;
 /**
  * A graph is really just one or more indexes into a set of vertexes. It used to keep edgelists for each vertex, but those are in the vertex now.
@@ -671,22 +674,52 @@ public class Graph implements Serializable {
      * This used to be done in readObject methods upon deserialization, but stand-alone mode now
      * allows passing graphs from graphbuilder to server in memory, without a round trip through
      * serialization. 
+     *
+     * The street spatial index, the vertex and edge ID maps, the scheduled timetables and the GraphIndex only read
+     * the vertices and edges of the graph and do not depend on one another, so they are built concurrently on the
+     * common fork/join pool. The fields are only assigned once every stage has finished.
+     * Stop clusters and the StopTreeCache depend on the finished GraphIndex and remain lazily built on first use.
      * TODO: do we really need a factory for different street vertex indexes?
      */
     public void index (StreetVertexIndexFactory indexFactory) {
-        streetIndex = indexFactory.newIndex(this);
-        LOG.debug("street index built.");
-        LOG.debug("Rebuilding edge and vertex indices.");
-        rebuildVertexAndEdgeIndices();
-        Set<TripPattern> tableTripPatterns = Sets.newHashSet();
-        for (PatternArriveVertex pav : Iterables.filter(this.getVertices(), PatternArriveVertex.class)) {
-            tableTripPatterns.add(pav.getTripPattern());
-        }
-        for (TripPattern ttp : tableTripPatterns) {
-            if (ttp != null) ttp.scheduledTimetable.finish(); // skip frequency-based patterns with no table (null)
-        }
+        long startTime = System.currentTimeMillis();
+        CompletableFuture<StreetVertexIndexService> streetIndexStage =
+                indexStage("street index", () -> indexFactory.newIndex(this));
+        CompletableFuture<Void> vertexAndEdgeIndexStage = indexStage("vertex and edge indices", () -> {
+            rebuildVertexAndEdgeIndices();
+            return null;
+        });
+        CompletableFuture<Void> timetableStage = indexStage("scheduled timetables", () -> {
+            Set<TripPattern> tableTripPatterns = Sets.newHashSet();
+            for (PatternArriveVertex pav : Iterables.filter(this.getVertices(), PatternArriveVertex.class)) {
+                tableTripPatterns.add(pav.getTripPattern());
+            }
+            // skip frequency-based patterns with no table (null)
+            tableTripPatterns.parallelStream().filter(Objects::nonNull).forEach(ttp -> ttp.scheduledTimetable.finish());
+            return null;
+        });
         // TODO: Move this ^ stuff into the graph index
-        this.index = new GraphIndex(this);
+        CompletableFuture<GraphIndex> graphIndexStage = indexStage("graph index", () -> new GraphIndex(this));
+        try {
+            CompletableFuture.allOf(streetIndexStage, vertexAndEdgeIndexStage, timetableStage, graphIndexStage).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+        streetIndex = streetIndexStage.join();
+        this.index = graphIndexStage.join();
+        LOG.info("Graph indexing finished in {} msec.", System.currentTimeMillis() - startTime);
+    }
+
+    /** Start one step of graph indexing on the common fork/join pool, logging how long it takes. */
+    private static <T> CompletableFuture<T> indexStage (String name, Supplier<T> stage) {
+        return CompletableFuture.supplyAsync(() -> {
+            long startTime = System.currentTimeMillis();
+            T result = stage.get();
+            LOG.info("Built {} in {} msec.", name, System.currentTimeMillis() - startTime);
+            return result;
+        });
     }
     
     public static Graph load(InputStream in) {
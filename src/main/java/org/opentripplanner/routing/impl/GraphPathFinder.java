@@ -9,6 +9,7 @@ import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeight
 import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.LegSwitchingEdge;
@@ -24,6 +25,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 /**
@@ -53,6 +58,12 @@ public class GraphPathFinder {
     private static final double DEFAULT_MAX_WALK = 2000;
     private static final double CLAMP_MAX_WALK = 15000;
 
+    /**
+     * When alternative itineraries are searched for concurrently, the Nth concurrent search departs (or arrives, when
+     * arriving by) this many seconds times N-1 later (or earlier) than the original request.
+     */
+    private static final int CONCURRENT_SEARCH_SHIFT_SECONDS = 5 * 60;
+
     Router router;
 
     public GraphPathFinder(Router router) {
@@ -64,6 +75,9 @@ public class GraphPathFinder {
      * For search N, all trips used in itineraries retained from trips 0..(N-1) are "banned" to create variety.
      * The goal direction heuristic is reused between tries, which means the later tries have more information to
      * work with (in the case of the more sophisticated bidirectional heuristic, which improves over time).
+     *
+     * If the Router has an itinerary search executor, only the first search is sequential. The searches for the
+     * remaining itineraries are then run concurrently, see searchAlternativesConcurrently.
      */
     public List<GraphPath> getPaths(RoutingRequest options) {
 
@@ -94,22 +108,8 @@ public class GraphPathFinder {
         LOG.debug("rreq={}", options);
 
         // Choose an appropriate heuristic for goal direction.
-        RemainingWeightHeuristic heuristic;
-        RemainingWeightHeuristic reversedSearchHeuristic;
-        if (options.disableRemainingWeightHeuristic) {
-            heuristic = new TrivialRemainingWeightHeuristic();
-            reversedSearchHeuristic = new TrivialRemainingWeightHeuristic();
-        } else if (options.modes.isTransit()) {
-            // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
-            // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
-            // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
-            heuristic = new InterleavedBidirectionalHeuristic();
-            reversedSearchHeuristic = new InterleavedBidirectionalHeuristic();
-        } else {
-            heuristic = new EuclideanRemainingWeightHeuristic();
-            reversedSearchHeuristic = new EuclideanRemainingWeightHeuristic();
-        }
-        options.rctx.remainingWeightHeuristic = heuristic;
+        RemainingWeightHeuristic reversedSearchHeuristic = makeHeuristic(options);
+        options.rctx.remainingWeightHeuristic = makeHeuristic(options);
 
 
         /* In RoutingRequest, maxTransfers defaults to 2. But as discussed in #2522, you can't limit the number of
@@ -136,65 +136,173 @@ public class GraphPathFinder {
         LOG.debug("BEGIN SEARCH");
         List<GraphPath> paths = Lists.newArrayList();
         while (paths.size() < options.numItineraries) {
-            // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
-            int timeoutIndex = paths.size();
-            if (timeoutIndex >= router.timeouts.length) {
-                timeoutIndex = router.timeouts.length - 1;
-            }
-            double timeout = searchBeginTime + (router.timeouts[timeoutIndex] * 1000);
-            timeout -= System.currentTimeMillis(); // Convert from absolute to relative time
-            timeout /= 1000; // Convert milliseconds to seconds
+            double timeout = relativeTimeout(searchBeginTime, paths.size());
             if (timeout <= 0) {
                 // Catch the case where advancing to the next (lower) timeout value means the search is timed out
                 // before it even begins. Passing a negative relative timeout in the SPT call would mean "no timeout".
                 options.rctx.aborted = true;
                 break;
             }
-            // Don't dig through the SPT object, just ask the A star algorithm for the states that reached the target.
-            aStar.getShortestPathTree(options, timeout);
-
-            if (options.rctx.aborted) {
-                break; // Search timed out or was gracefully aborted for some other reason.
+            List<GraphPath> newPaths = searchOnce(aStar, originalReq, options, timeout, reversedSearchHeuristic);
+            if (newPaths == null) {
+                break;
             }
-            List<GraphPath> newPaths = aStar.getPathsToTarget();
-            if (newPaths.isEmpty()) {
+            paths.addAll(newPaths);
+            LOG.debug("we have {} paths", paths.size());
+            if (router.itinerarySearchExecutor != null && paths.size() < options.numItineraries) {
+                paths.addAll(searchAlternativesConcurrently(originalReq, options, paths, searchBeginTime));
                 break;
             }
+        }
+        LOG.debug("END SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
+        Collections.sort(paths, options.getPathComparator(options.arriveBy));
+        return paths;
+    }
+
+    /** Choose an appropriate heuristic for goal direction. */
+    private static RemainingWeightHeuristic makeHeuristic(RoutingRequest options) {
+        if (options.disableRemainingWeightHeuristic) {
+            return new TrivialRemainingWeightHeuristic();
+        } else if (options.modes.isTransit()) {
+            // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
+            // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
+            // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
+            return new InterleavedBidirectionalHeuristic();
+        } else {
+            return new EuclideanRemainingWeightHeuristic();
+        }
+    }
+
+    /**
+     * @return the time in seconds remaining before the search for the itinerary with the given index must be aborted,
+     * which may be zero or negative if that time has already passed.
+     */
+    private double relativeTimeout(long searchBeginTime, int itineraryIndex) {
+        // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
+        int timeoutIndex = itineraryIndex;
+        if (timeoutIndex >= router.timeouts.length) {
+            timeoutIndex = router.timeouts.length - 1;
+        }
+        double timeout = searchBeginTime + (router.timeouts[timeoutIndex] * 1000);
+        timeout -= System.currentTimeMillis(); // Convert from absolute to relative time
+        timeout /= 1000; // Convert milliseconds to seconds
+        return timeout;
+    }
+
+    /**
+     * Run one search and ban the trips used by the paths it finds from later searches using the same options.
+     * @return the paths found that are within options.maxHours, or null if the search was aborted or found nothing.
+     */
+    private List<GraphPath> searchOnce(AStar aStar, RoutingRequest originalReq, RoutingRequest options,
+                                       double timeout, RemainingWeightHeuristic reversedSearchHeuristic) {
+        // Don't dig through the SPT object, just ask the A star algorithm for the states that reached the target.
+        aStar.getShortestPathTree(options, timeout);
+
+        if (options.rctx.aborted) {
+            return null; // Search timed out or was gracefully aborted for some other reason.
+        }
+        List<GraphPath> newPaths = aStar.getPathsToTarget();
+        if (newPaths.isEmpty()) {
+            return null;
+        }
+
+        // Do a full reversed search to compact the legs
+        if(options.compactLegsByReversedSearch){
+            newPaths = compactLegsByReversedSearch(aStar, originalReq, options, newPaths, timeout, reversedSearchHeuristic);
+        }
 
-            // Do a full reversed search to compact the legs
-            if(options.compactLegsByReversedSearch){
-                newPaths = compactLegsByReversedSearch(aStar, originalReq, options, newPaths, timeout, reversedSearchHeuristic);
+        // Find all trips used in this path and ban them for the remaining searches
+        for (GraphPath path : newPaths) {
+            // path.dump();
+            List<FeedScopedId> tripIds = path.getTrips();
+            for (FeedScopedId tripId : tripIds) {
+                options.banTrip(tripId);
+            }
+            if (tripIds.isEmpty()) {
+                // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
+                options.onlyTransitTrips = true;
             }
+        }
+
+        return newPaths.stream()
+                .filter(path -> {
+                    // Concurrent searches shift the time of their options, so use the time originally requested.
+                    double duration = options.useRequestedDateTimeInMaxHours
+                        ? options.arriveBy
+                            ? originalReq.dateTime - path.getStartTime()
+                            : path.getEndTime() - originalReq.dateTime
+                        : path.getDuration();
+                    return duration < options.maxHours * 60 * 60;
+                })
+                .collect(Collectors.toList());
+    }
 
-            // Find all trips used in this path and ban them for the remaining searches
-            for (GraphPath path : newPaths) {
-                // path.dump();
-                List<FeedScopedId> tripIds = path.getTrips();
-                for (FeedScopedId tripId : tripIds) {
-                    options.banTrip(tripId);
+    /**
+     * Search for the remaining itineraries concurrently on the Router's itinerary search executor, rather than one
+     * after another. Every search bans the trips of the paths already found, as the next sequential search would, and
+     * the Nth search departs N-1 times CONCURRENT_SEARCH_SHIFT_SECONDS later (or arrives earlier) to make it likely
+     * that the searches find different itineraries. Each search has its own AStar, heuristic and routing context, and
+     * must finish within the timeout for the itinerary it stands in for. Itineraries using the same trips as one
+     * already found are dropped, so fewer than the requested number of itineraries may be returned.
+     *
+     * @return the new paths, not including those already found.
+     */
+    private List<GraphPath> searchAlternativesConcurrently(RoutingRequest originalReq, RoutingRequest options,
+                                                           List<GraphPath> paths, long searchBeginTime) {
+        List<RoutingRequest> variants = new ArrayList<>();
+        for (int i = 0; paths.size() + i < options.numItineraries; i++) {
+            RoutingRequest variant = options.clone();
+            long shift = i * CONCURRENT_SEARCH_SHIFT_SECONDS;
+            variant.dateTime = options.arriveBy ? options.dateTime - shift : options.dateTime + shift;
+            // Share the origin and destination vertices of the first search, along with the temporary edges linking
+            // them, which are removed when the first search's routing context is destroyed.
+            variant.rctx = new RoutingContext(variant, options.rctx);
+            variant.rctx.remainingWeightHeuristic = makeHeuristic(variant);
+            variants.add(variant);
+        }
+        List<Future<List<GraphPath>>> futures = new ArrayList<>();
+        for (int i = 0; i < variants.size(); i++) {
+            double timeout = relativeTimeout(searchBeginTime, paths.size() + i);
+            if (timeout <= 0) {
+                break;
+            }
+            RoutingRequest variant = variants.get(i);
+            RemainingWeightHeuristic reversedSearchHeuristic = makeHeuristic(variant);
+            futures.add(router.itinerarySearchExecutor.submit(() ->
+                    searchOnce(new AStar(), originalReq, variant, timeout, reversedSearchHeuristic)));
+        }
+        Set<List<FeedScopedId>> tripsUsed = new HashSet<>();
+        for (GraphPath path : paths) {
+            tripsUsed.add(path.getTrips());
+        }
+        List<GraphPath> newPaths = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            Future<List<GraphPath>> future = futures.get(i);
+            try {
+                // Searches abort themselves at their own timeout, so this wait is only a safety net.
+                long wait = (long) (relativeTimeout(searchBeginTime, paths.size() + i) * 1000) + 100;
+                List<GraphPath> variantPaths = future.get(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+                if (variantPaths == null) {
+                    continue;
                 }
-                if (tripIds.isEmpty()) {
-                    // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
-                    options.onlyTransitTrips = true;
+                for (GraphPath path : variantPaths) {
+                    if (tripsUsed.add(path.getTrips())) {
+                        newPaths.add(path);
+                    }
                 }
+            } catch (TimeoutException e) {
+                LOG.warn("Concurrent itinerary search did not finish in time.");
+                variants.get(i).rctx.aborted = true;
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                LOG.error("Concurrent itinerary search failed.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
-
-            paths.addAll(newPaths.stream()
-                    .filter(path -> {
-                        double duration = options.useRequestedDateTimeInMaxHours
-                            ? options.arriveBy
-                                ? options.dateTime - path.getStartTime()
-                                : path.getEndTime() - options.dateTime
-                            : path.getDuration();
-                        return duration < options.maxHours * 60 * 60;
-                    })
-                    .collect(Collectors.toList()));
-
-            LOG.debug("we have {} paths", paths.size());
         }
-        LOG.debug("END SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
-        Collections.sort(paths, options.getPathComparator(options.arriveBy));
-        return paths;
+        LOG.debug("{} concurrent searches found {} new paths", futures.size(), newPaths.size());
+        return newPaths;
     }
 
     /**
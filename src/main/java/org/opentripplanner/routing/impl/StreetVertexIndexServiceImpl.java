@@ -26,6 +26,7 @@ import org.opentripplanner.routing.vertextype.SampleVertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.opentripplanner.util.I18NString;
+import org.opentripplanner.util.monitoring.RequestMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -322,7 +323,12 @@ public class StreetVertexIndexServiceImpl implements StreetVertexIndexService {
         Coordinate c = loc.getCoordinate();
         if (c != null) {
             //return getClosestVertex(loc, options, endVertex);
-            return simpleStreetSplitter.getClosestVertex(loc, options, endVertex);
+            long startTime = System.nanoTime();
+            Vertex vertex = simpleStreetSplitter.getClosestVertex(loc, options, endVertex);
+            if (options.recordRequestMetrics) {
+                RequestMetrics.VERTEX_LINKING.observeSince(startTime);
+            }
+            return vertex;
         }
 
         // No Coordinate available.
@@ -8,6 +8,7 @@ import org.opentripplanner.routing.graph.Vertex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
 
 /**
@@ -31,12 +32,127 @@ public class ShortestPathTree {
 
     public final DominanceFunction dominanceFunction;
 
-    private Map<Vertex, List<State>> stateSets;
+    /*
+     * Each vertex slot holds either a single State or, once co-dominant states appear at that vertex, a List<State>.
+     * Most vertices only ever hold one state, so this avoids allocating a list per vertex reached.
+     */
+
+    /** Slots keyed on the vertex itself, used unless the request asks for dense storage. */
+    private Map<Vertex, Object> stateSets;
+
+    /*
+     * With dense storage, the vertices reached and their slots are kept in two parallel lists, and a per-thread array
+     * indexed by Vertex.getIndex() gives the position of each vertex in those lists. The array is shared by all the
+     * searches on a thread and never cleared: a position is only trusted if it points back at the same vertex, so
+     * entries left over from earlier searches are harmless. Only the newest tree on a thread owns the array; an older
+     * tree that is read after another search has started copies its own states into a map.
+     */
+
+    private static final ThreadLocal<DenseIndex> DENSE_INDEX = ThreadLocal.withInitial(DenseIndex::new);
+
+    private static class DenseIndex {
+        int[] positions = new int[0];
+        /** Weak so that a thread does not keep the last tree it built alive. */
+        volatile WeakReference<ShortestPathTree> owner;
+    }
+
+    /** The per-thread array of positions while this tree owns it, otherwise null. */
+    private DenseIndex denseIndex;
+
+    /** The vertices that have a slot in denseSlots, in the order they were reached. */
+    private List<Vertex> denseVertices;
+
+    private List<Object> denseSlots;
 
     public ShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction) {
         this.options = options;
         this.dominanceFunction = dominanceFunction;
-        stateSets = new IdentityHashMap<Vertex, List<State>>();
+        if (options != null && options.denseSearchState) {
+            denseIndex = DENSE_INDEX.get();
+            denseIndex.owner = new WeakReference<>(this);
+            denseVertices = new ArrayList<>();
+            denseSlots = new ArrayList<>();
+        } else {
+            stateSets = new IdentityHashMap<Vertex, Object>();
+        }
+    }
+
+    /** @return the position of the vertex in denseVertices, or -1 if it has none or the index is no longer ours. */
+    private int densePosition(Vertex vertex) {
+        int[] positions = denseIndex.positions;
+        int index = vertex.getIndex();
+        if (index < positions.length) {
+            int position = positions[index];
+            if (position < denseVertices.size() && denseVertices.get(position) == vertex) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private boolean ownsDenseIndex() {
+        return denseIndex.owner.get() == this;
+    }
+
+    /** Move this tree's states into a map, because a later search on this thread has taken over the dense index. */
+    private void releaseDenseIndex() {
+        stateSets = new IdentityHashMap<Vertex, Object>(denseVertices.size());
+        for (int i = 0; i < denseVertices.size(); i++) {
+            stateSets.put(denseVertices.get(i), denseSlots.get(i));
+        }
+        denseIndex = null;
+        denseVertices = null;
+        denseSlots = null;
+    }
+
+    private Object getSlot(Vertex vertex) {
+        if (denseIndex != null) {
+            int position = densePosition(vertex);
+            if (position >= 0) {
+                return denseSlots.get(position);
+            }
+            if (ownsDenseIndex()) {
+                return null;
+            }
+            releaseDenseIndex();
+        }
+        return stateSets.get(vertex);
+    }
+
+    private void setSlot(Vertex vertex, Object slot) {
+        if (denseIndex != null) {
+            int position = densePosition(vertex);
+            if (position >= 0) {
+                denseSlots.set(position, slot);
+                return;
+            }
+            if (ownsDenseIndex()) {
+                int index = vertex.getIndex();
+                if (index >= denseIndex.positions.length) {
+                    // Temporary vertices created after the array may have indexes beyond its end.
+                    int newLength = Math.max(index + 1,
+                            Math.max(Vertex.getMaxIndex(), (int) (denseIndex.positions.length * 1.5)));
+                    denseIndex.positions = Arrays.copyOf(denseIndex.positions, newLength);
+                }
+                denseIndex.positions[index] = denseVertices.size();
+                denseVertices.add(vertex);
+                denseSlots.add(slot);
+                return;
+            }
+            releaseDenseIndex();
+        }
+        stateSets.put(vertex, slot);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<State> slotAsList(Object slot) {
+        if (slot == null) {
+            return null;
+        } else if (slot instanceof State) {
+            return Collections.singletonList((State) slot);
+        } else {
+            return (List<State>) slot;
+        }
     }
 
     /** @return a list of GraphPaths, sometimes empty but never null. */
@@ -76,18 +192,18 @@ public class ShortestPathTree {
         Multiset<Integer> histogram = HashMultiset.create();
         int statesCount = 0;
         int maxSize = 0;
-        for (Map.Entry<Vertex, List<State>> kv : stateSets.entrySet()) {
-            List<State> states = kv.getValue();
-            int size = states.size();
+        for (Vertex vertex : getVertices()) {
+            int size = getStates(vertex).size();
             histogram.add(size);
             statesCount += size;
             if (size > maxSize) {
                 maxSize = size;
             }
         }
-        LOG.info("SPT: vertices: " + stateSets.size() + " states: total: "
+        int vertexCount = getVertexCount();
+        LOG.info("SPT: vertices: " + vertexCount + " states: total: "
                 + statesCount + " per vertex max: " + maxSize + " avg: "
-                + (statesCount * 1.0 / stateSets.size()));
+                + (statesCount * 1.0 / vertexCount));
         List<Integer> nStates = new ArrayList<Integer>(histogram.elementSet());
         Collections.sort(nStates);
         for (Integer nState : nStates) {
@@ -96,7 +212,24 @@ public class ShortestPathTree {
     }
 
     public Set<Vertex> getVertices() {
-        return stateSets.keySet();
+        if (denseIndex == null) {
+            return stateSets.keySet();
+        }
+        List<Vertex> vertices = denseVertices;
+        return new AbstractSet<Vertex>() {
+            @Override
+            public Iterator<Vertex> iterator() {
+                return Collections.unmodifiableList(vertices).iterator();
+            }
+            @Override
+            public int size() {
+                return vertices.size();
+            }
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof Vertex && getSlot((Vertex) o) != null;
+            }
+        };
     }
 
     /**
@@ -109,17 +242,33 @@ public class ShortestPathTree {
      * @return a boolean value indicating whether the state was added to the tree and should
      *          therefore be enqueued
      */
+    @SuppressWarnings("unchecked")
     public boolean add(State newState) {
         Vertex vertex = newState.getVertex();
-        List<State> states = stateSets.get(vertex);
+        Object slot = getSlot(vertex);
 
         // if the vertex has no states, add one and return
-        if (states == null) {
-            states = new ArrayList<>();
-            stateSets.put(vertex, states);
+        if (slot == null) {
+            setSlot(vertex, newState);
+            return true;
+        }
+
+        // if the vertex has a single state, only promote the slot to a list if the two states are co-dominant
+        if (slot instanceof State) {
+            State oldState = (State) slot;
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
+                return false;
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
+                setSlot(vertex, newState);
+                return true;
+            }
+            List<State> states = new ArrayList<>(2);
+            states.add(oldState);
             states.add(newState);
+            setSlot(vertex, states);
             return true;
         }
+        List<State> states = (List<State>) slot;
 
         // if the vertex has any states that dominate the new state, don't add the state
         // if the new state dominates any old states, remove them
@@ -146,9 +295,14 @@ public class ShortestPathTree {
      * @return a 'best' state at that vertex
      */
     public State getState(Vertex dest) {
-        Collection<State> states = stateSets.get(dest);
-        if (states == null)
+        Object slot = getSlot(dest);
+        if (slot == null)
             return null;
+        if (slot instanceof State) {
+            State s = (State) slot;
+            return s.isFinal() ? s : null;
+        }
+        Collection<State> states = slotAsList(slot);
         State ret = null;
         // TODO are we only checking path parser acceptance when we fetch states via this specific method?
         for (State s : states) {
@@ -169,12 +323,12 @@ public class ShortestPathTree {
      * @return a collection of 'interesting' states at that vertex
      */
     public List<State> getStates(Vertex dest) {
-        return stateSets.get(dest);
+        return slotAsList(getSlot(dest));
     }
 
     /** @return number of vertices referenced in this SPT */
     public int getVertexCount() {
-        return stateSets.keySet().size();
+        return denseIndex == null ? stateSets.size() : denseVertices.size();
     }
 
     /**
@@ -201,8 +355,12 @@ public class ShortestPathTree {
      * @return - whether this state is still considered worth visiting.
      */
     public boolean visit(State state) {
+        Object slot = getSlot(state.getVertex());
+        if (slot instanceof State) {
+            return slot == state;
+        }
         boolean ret = false;
-        for (State s : stateSets.get(state.getVertex())) {
+        for (State s : slotAsList(slot)) {
             if (s == state) {
                 ret = true;
                 break;
@@ -214,14 +372,14 @@ public class ShortestPathTree {
     /** @return every state in this tree */
     public Collection<State> getAllStates() {
         ArrayList<State> allStates = new ArrayList<State>();
-        for (List<State> stateSet : stateSets.values()) {
-            allStates.addAll(stateSet);
+        for (Vertex vertex : getVertices()) {
+            allStates.addAll(getStates(vertex));
         }
         return allStates;
     }
 
     public String toString() {
-        return "ShortestPathTree(" + this.stateSets.size() + " vertices)";
+        return "ShortestPathTree(" + getVertexCount() + " vertices)";
     }
 
 }
\ No newline at end of file
@@ -184,6 +184,29 @@ public class GraphBuilderParameters {
      */
     public final Boolean extraEdgesStopPlatformLink;
 
+    /**
+     * The number of threads decoding OSM PBF files. With more than one thread the blocks of the file are decompressed
+     * and decoded in parallel, which speeds up loading large extracts.
+     */
+    public final int osmParsingThreads;
+
+    /**
+     * Keep the coordinates of OSM nodes in memory-mapped temporary files rather than on the heap, so that large
+     * regions can be built with less memory.
+     */
+    public final boolean osmNodesOnDisk;
+
+    /**
+     * The number of threads sampling the elevation model to set the elevation profiles of streets.
+     */
+    public final int elevationThreads;
+
+    /**
+     * Save the elevation profiles of streets in the cache directory, and reuse them for streets that have not changed
+     * when the graph is rebuilt with the same elevation data.
+     */
+    public final boolean cacheElevationProfiles;
+
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
      * Supplying MissingNode.getInstance() will cause all the defaults to be applied.
@@ -220,6 +243,10 @@ public class GraphBuilderParameters {
         banDiscouragedBiking = config.path("banDiscouragedBiking").asBoolean(false);
         maxTransferDistance = config.path("maxTransferDistance").asDouble(2000);
         extraEdgesStopPlatformLink = config.path("extraEdgesStopPlatformLink").asBoolean(false);
+        osmParsingThreads = config.path("osmParsingThreads").asInt(1);
+        osmNodesOnDisk = config.path("osmNodesOnDisk").asBoolean(false);
+        elevationThreads = config.path("elevationThreads").asInt(1);
+        cacheElevationProfiles = config.path("cacheElevationProfiles").asBoolean(false);
     }
 
 
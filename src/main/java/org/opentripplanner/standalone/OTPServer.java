@@ -7,6 +7,7 @@ import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.opentripplanner.analyst.DiskBackedPointSetCache;
 import org.opentripplanner.analyst.PointSetCache;
 import org.opentripplanner.analyst.SurfaceCache;
+import org.opentripplanner.analyst.request.SurfaceTileCache;
 import org.opentripplanner.routing.error.GraphNotFoundException;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.scripting.impl.ScriptingService;
@@ -30,6 +31,7 @@ public class OTPServer {
 
     // Optional Analyst global modules (caches)
     public SurfaceCache surfaceCache;
+    public SurfaceTileCache surfaceTileCache;
     public PointSetCache pointSetCache;
     public ScriptingService scriptingService;
 
@@ -46,6 +48,7 @@ public class OTPServer {
         // Optional Analyst Modules.
         if (params.analyst) {
             surfaceCache = new SurfaceCache(30);
+            surfaceTileCache = new SurfaceTileCache(SurfaceTileCache.DEFAULT_MAX_BYTES);
             pointSetCache = new DiskBackedPointSetCache(100, params.pointSetDirectory);
         }
 
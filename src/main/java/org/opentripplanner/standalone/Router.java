@@ -7,6 +7,7 @@ import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.FileAppender;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.opentripplanner.analyst.request.*;
 import org.opentripplanner.analyst.scenario.ScenarioStore;
 import org.opentripplanner.inspector.TileRendererManager;
@@ -21,6 +22,8 @@ import org.opentripplanner.visualizer.GraphVisualizer;
 import org.slf4j.LoggerFactory;
 
 import java.util.EnumMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Represents the configuration of a single router (a single graph for a specific geographic area)
@@ -36,6 +39,12 @@ public class Router {
     public Graph graph;
     public double[] timeouts = {5, 4, 2};
 
+    /**
+     * Worker threads used to search for alternative itineraries concurrently, shared by all requests to this router.
+     * Null if alternative itineraries are searched for one after another.
+     */
+    public ExecutorService itinerarySearchExecutor = null;
+
     /**
      *  Separate logger for incoming requests. This should be handled with a Logback logger rather than something
      *  simple like a PrintStream because requests come in multi-threaded.
@@ -126,6 +135,14 @@ public class Router {
         }
         LOG.info("Timeouts for router '{}': {}", this.id, this.timeouts);
 
+        JsonNode itinerarySearchThreads = config.get("itinerarySearchThreads");
+        if (itinerarySearchThreads != null && itinerarySearchThreads.asInt(0) > 0) {
+            int nThreads = itinerarySearchThreads.asInt();
+            this.itinerarySearchExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactoryBuilder()
+                    .setNameFormat("ItinerarySearch-" + this.id + "-%d").setDaemon(true).build());
+            LOG.info("Alternative itineraries will be searched for concurrently on {} threads.", nThreads);
+        }
+
         JsonNode requestLogFile = config.get("requestLogFile");
         if (requestLogFile != null) {
             this.requestLogger = createLogger(requestLogFile.asText());
@@ -172,6 +189,9 @@ public class Router {
     /** Shut down this router when evicted or (auto-)reloaded. Stop any real-time updater threads. */
     public void shutdown() {
         GraphUpdaterConfigurator.shutdownGraph(this.graph);
+        if (itinerarySearchExecutor != null) {
+            itinerarySearchExecutor.shutdownNow();
+        }
     }
 
     /**
@@ -53,6 +53,11 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
      */
     private Boolean purgeExpiredData;
 
+    /**
+     * Property to set on the RealtimeDataSnapshotSource
+     */
+    private Boolean diffFullDatasets;
+
     /**
      * Feed id that is used for the trip ids in the TripUpdates
      */
@@ -99,6 +104,7 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
             this.maxSnapshotFrequency = maxSnapshotFrequency;
         }
         this.purgeExpiredData = config.path("purgeExpiredData").asBoolean(true);
+        this.diffFullDatasets = config.path("diffFullDatasets").asBoolean(false);
         if (config.path("fuzzyTripMatching").asBoolean(false)) {
             this.fuzzyTripMatcher = new GtfsRealtimeFuzzyTripMatcher(graph.index);
         }
@@ -124,6 +130,9 @@ public class PollingStoptimeUpdater extends PollingGraphUpdater {
         if (purgeExpiredData != null) {
             snapshotSource.purgeExpiredData = (purgeExpiredData);
         }
+        if (diffFullDatasets != null) {
+            snapshotSource.diffFullDatasets = (diffFullDatasets);
+        }
         if (fuzzyTripMatcher != null) {
             snapshotSource.fuzzyTripMatcher = fuzzyTripMatcher;
         }
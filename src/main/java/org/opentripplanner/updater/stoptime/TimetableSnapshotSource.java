@@ -4,7 +4,10 @@ import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.locks.ReentrantLock;
@@ -65,9 +68,16 @@ public class TimetableSnapshotSource {
     /**
      * The last committed snapshot that was handed off to a routing thread. This snapshot may be
      * given to more than one routing thread if the maximum snapshot frequency is exceeded.
+     * Routing threads read it without locking. It is only replaced by a thread holding the buffer lock.
      */
     private volatile TimetableSnapshot snapshot = null;
 
+    /**
+     * True when the buffer holds updates that have not been committed yet, because they arrived less than
+     * maxSnapshotFrequency after the previous commit. Routing threads only try to take the buffer lock when this is set.
+     */
+    private volatile boolean commitPending = false;
+
     /**
      * The working copy of the timetable snapshot. Should not be visible to routing threads. Should
      * only be modified by a thread that holds a lock on {@link #bufferLock}. All public methods that
@@ -88,9 +98,22 @@ public class TimetableSnapshotSource {
     /** Should expired realtime data be purged from the graph. */
     public boolean purgeExpiredData = true;
 
+    /**
+     * If true, a full dataset is compared trip by trip with the previous full dataset of the same feed, instead of
+     * clearing the feed from the buffer and applying every TripUpdate again. Unchanged TripUpdates are skipped, so
+     * only the timetables of trips whose realtime data changed are copied into the next snapshot.
+     */
+    public boolean diffFullDatasets = false;
+
+    /**
+     * For each feed, the TripUpdates of the last full dataset that are reflected in the buffer. Only maintained when
+     * diffFullDatasets is set, and only modified by a thread that holds the buffer lock.
+     */
+    private final Map<String, Map<TripKey, TripUpdate>> appliedFullDatasets = new HashMap<>();
+
     protected ServiceDate lastPurgeDate = null;
 
-    protected long lastSnapshotTime = -1;
+    protected volatile long lastSnapshotTime = -1;
 
     private final TimeZone timeZone;
 
@@ -117,23 +140,19 @@ public class TimetableSnapshotSource {
      *         release its reference to the snapshot to release resources.
      */
     public TimetableSnapshot getTimetableSnapshot() {
-        TimetableSnapshot snapshotToReturn;
-
-        // Try to get a lock on the buffer
-        if (bufferLock.tryLock()) {
-            // Make a new snapshot if necessary
+        // Updates are normally committed by the thread applying them, so in the common case this only reads two
+        // volatile fields. A routing thread only commits updates that were held back by maxSnapshotFrequency, and
+        // never waits for the lock: if there is either a snapshot commit busy or updates are applied at this moment,
+        // it just returns the current snapshot.
+        if (commitPending && System.currentTimeMillis() - lastSnapshotTime > maxSnapshotFrequency
+                && bufferLock.tryLock()) {
             try {
-                snapshotToReturn = getTimetableSnapshot(false);
+                return getTimetableSnapshot(false);
             } finally {
                 bufferLock.unlock();
             }
-        } else {
-            // No lock could be obtained because there is either a snapshot commit busy or updates
-            // are applied at this moment, just return the current snapshot
-            snapshotToReturn = snapshot;
         }
-
-        return snapshotToReturn;
+        return snapshot;
     }
 
     private TimetableSnapshot getTimetableSnapshot(final boolean force) {
@@ -149,20 +168,17 @@ public class TimetableSnapshotSource {
         } else {
             LOG.debug("Snapshot frequency exceeded. Reusing snapshot {}", snapshot);
         }
+        commitPending = buffer.isDirty();
         return snapshot;
     }
 
     /**
      * Method to apply a trip update list to the most recent version of the timetable snapshot. A
      * GTFS-RT feed is always applied against a single static feed (indicated by feedId).
-<<<<<<< HEAD
-     * 
-=======
      *
      * However, multi-feed support is not completed and we currently assume there is only one static
      * feed when matching IDs.
      *
->>>>>>> 7296be8ffd532a13afb0bec263a9f436ab787022
      * @param graph graph to update (needed for adding/changing stop patterns)
      * @param fullDataset true iff the list with updates represent all updates that are active right
      *        now, i.e. all previous updates should be disregarded
@@ -179,10 +195,24 @@ public class TimetableSnapshotSource {
         bufferLock.lock();
 
         try {
+            // The TripUpdates of the previous full dataset that have not been seen again in this one
+            Map<TripKey, TripUpdate> previousUpdates = null;
+            // The TripUpdates of this full dataset, recorded for comparison with the next one
+            Map<TripKey, TripUpdate> currentUpdates = null;
+            // An incremental update, or an exception halfway through this one, leaves the buffer out of step with the
+            // record, so it is removed up front and the next full dataset then starts over from a cleared buffer.
+            final Map<TripKey, TripUpdate> appliedUpdates = appliedFullDatasets.remove(feedId);
             if (fullDataset) {
-                // Remove all updates from the buffer
-                buffer.clear(feedId);
+                if (diffFullDatasets) {
+                    previousUpdates = appliedUpdates;
+                    currentUpdates = new HashMap<>();
+                }
+                if (previousUpdates == null) {
+                    // Remove all updates from the buffer
+                    buffer.clear(feedId);
+                }
             }
+            int skipped = 0;
 
             LOG.debug("message contains {} trip updates", updates.size());
             int uIndex = 0;
@@ -212,6 +242,20 @@ public class TimetableSnapshotSource {
                     // starts for example at 40:00, yesterday would probably be a better guess.
                 }
 
+                if (currentUpdates != null && tripDescriptor.hasTripId()) {
+                    final TripKey key = new TripKey(tripDescriptor.getTripId(), serviceDate);
+                    final TripUpdate previousUpdate = previousUpdates == null ? null : previousUpdates.remove(key);
+                    currentUpdates.put(key, tripUpdate);
+                    if (tripUpdate.equals(previousUpdate)) {
+                        // The buffer already reflects this update
+                        skipped++;
+                        continue;
+                    }
+                    if (previousUpdate != null) {
+                        revertTrip(feedId, key.tripId, key.serviceDate);
+                    }
+                }
+
                 uIndex += 1;
                 LOG.debug("trip update #{} ({} updates) :",
                         uIndex, tripUpdate.getStopTimeUpdateCount());
@@ -250,6 +294,17 @@ public class TimetableSnapshotSource {
                     LOG.info("Applied {} trip updates.", appliedBlockCount);
                 }
             }
+            if (currentUpdates != null) {
+                if (previousUpdates != null) {
+                    // Trips that are no longer in the full dataset
+                    for (TripKey key : previousUpdates.keySet()) {
+                        revertTrip(feedId, key.tripId, key.serviceDate);
+                    }
+                    LOG.debug("skipped {} unchanged and reverted {} removed trip updates", skipped,
+                            previousUpdates.size());
+                }
+                appliedFullDatasets.put(feedId, currentUpdates);
+            }
             LOG.debug("end of update message");
 
             // Make a snapshot after each message in anticipation of incoming requests
@@ -775,6 +830,31 @@ public class TimetableSnapshotSource {
         return success;
     }
 
+    /**
+     * Undo a previously applied TripUpdate when diffing full datasets, leaving the trip as it would be after clearing
+     * the feed from the buffer: the scheduled trip times are restored, and a trip previously added in a new pattern is
+     * cancelled there.
+     *
+     * @param feedId feed id the trip id belongs to
+     * @param tripId trip id without agency id
+     * @param serviceDate service date
+     */
+    private void revertTrip(final String feedId, final String tripId, final ServiceDate serviceDate) {
+        final TripPattern pattern = getPatternForTripId(feedId, tripId);
+        if (pattern != null) {
+            final Timetable timetable = buffer.resolve(pattern, serviceDate);
+            final int scheduledIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+            if (timetable != pattern.scheduledTimetable && scheduledIndex != -1) {
+                final TripTimes scheduledTripTimes = pattern.scheduledTimetable.getTripTimes(scheduledIndex);
+                final int tripIndex = timetable.getTripIndex(tripId);
+                if (tripIndex != -1 && timetable.getTripTimes(tripIndex) != scheduledTripTimes) {
+                    buffer.update(feedId, pattern, scheduledTripTimes, serviceDate);
+                }
+            }
+        }
+        cancelPreviouslyAddedTrip(feedId, tripId, serviceDate);
+    }
+
     private boolean handleUnscheduledTrip(final TripUpdate tripUpdate, final String feedId, final ServiceDate serviceDate) {
         // TODO: Handle unscheduled trip
         LOG.warn("Unscheduled trips are currently unsupported. Skipping TripUpdate.");
@@ -919,6 +999,10 @@ public class TimetableSnapshotSource {
 
         lastPurgeDate = previously;
 
+        for (Map<TripKey, TripUpdate> appliedUpdates : appliedFullDatasets.values()) {
+            appliedUpdates.keySet().removeIf(key -> key.serviceDate.compareTo(previously) <= 0);
+        }
+
         return buffer.purgeExpiredData(previously);
     }
 
@@ -971,4 +1055,31 @@ public class TimetableSnapshotSource {
         return stop;
     }
 
+    /** Identifies the trip a TripUpdate applies to when diffing full datasets. */
+    private static final class TripKey {
+
+        final String tripId;
+
+        final ServiceDate serviceDate;
+
+        TripKey(final String tripId, final ServiceDate serviceDate) {
+            this.tripId = tripId;
+            this.serviceDate = serviceDate;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tripId, serviceDate);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TripKey)) {
+                return false;
+            }
+            final TripKey other = (TripKey) obj;
+            return tripId.equals(other.tripId) && serviceDate.equals(other.serviceDate);
+        }
+    }
+
 }
@@ -0,0 +1,95 @@
+package org.opentripplanner.util.monitoring;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of observed values with fixed bucket boundaries, in the form used by Prometheus. It is meant to be
+ * updated on every request by many threads at once: each bucket is a LongAdder, so observing a value is a binary
+ * search over the boundaries and an uncontended increment, with no locking. The counts are read without
+ * synchronization when the histogram is written out, so a scrape may see a value in the sum before it is counted in a
+ * bucket. This is harmless for monitoring.
+ */
+public class Histogram {
+
+    /** Bucket boundaries in seconds, suitable for request phases taking from a millisecond up to a minute. */
+    public static final double[] SECONDS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10,
+            30, 60 };
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    public final String name;
+
+    public final String help;
+
+    /** The inclusive upper bounds of the buckets, in increasing order. Values above the last one are only counted. */
+    private final double[] upperBounds;
+
+    /** Observations falling in each bucket, not cumulative. The extra last bucket holds values above all bounds. */
+    private final LongAdder[] counts;
+
+    private final DoubleAdder sum = new DoubleAdder();
+
+    public Histogram (String name, String help, double... upperBounds) {
+        this.name = name;
+        this.help = help;
+        this.upperBounds = upperBounds.clone();
+        Arrays.sort(this.upperBounds);
+        counts = new LongAdder[upperBounds.length + 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void observe (double value) {
+        int bucket = Arrays.binarySearch(upperBounds, value);
+        if (bucket < 0) {
+            // Not an exact boundary: the insertion point is the first bound above the value.
+            bucket = -bucket - 1;
+        }
+        counts[bucket].increment();
+        sum.add(value);
+    }
+
+    /** Observe the time elapsed since the given start time, which was obtained from System.nanoTime(). */
+    public void observeSince (long startNanos) {
+        observe((System.nanoTime() - startNanos) / NANOS_PER_SECOND);
+    }
+
+    public long getCount () {
+        long count = 0;
+        for (LongAdder c : counts) {
+            count += c.sum();
+        }
+        return count;
+    }
+
+    public double getSum () {
+        return sum.sum();
+    }
+
+    /** Append this histogram to the given builder in the Prometheus text exposition format. */
+    public void writePrometheus (StringBuilder sb) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < upperBounds.length; i++) {
+            cumulative += counts[i].sum();
+            sb.append(name).append("_bucket{le=\"").append(format(upperBounds[i])).append("\"} ")
+              .append(cumulative).append('\n');
+        }
+        cumulative += counts[upperBounds.length].sum();
+        sb.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        sb.append(name).append("_sum ").append(format(sum.sum())).append('\n');
+        sb.append(name).append("_count ").append(cumulative).append('\n');
+    }
+
+    private static String format (double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+}
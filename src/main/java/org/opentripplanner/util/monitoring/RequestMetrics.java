@@ -0,0 +1,49 @@
+package org.opentripplanner.util.monitoring;
+
+/**
+ * Histograms of where time is spent while answering trip planning requests, aggregated over all requests and routers
+ * since the server started. They are filled in by the code performing each phase and exposed in the Prometheus text
+ * format by the metrics web service. Recording a phase costs two calls to System.nanoTime() and an uncontended
+ * counter increment, so this is always on. The street linking and AStar phases are only recorded for requests with
+ * RoutingRequest.recordRequestMetrics set, which the trip planner API does, so that the many searches made while
+ * building graphs or running analyses do not swamp them.
+ *
+ * Like MonitoringStoreFactory, this is global state rather than something stored at the OTPServer level, because the
+ * instrumented code (AStar, the street index) has no reference to the server.
+ */
+public class RequestMetrics {
+
+    public static final Histogram PLAN_REQUEST = new Histogram("otp_plan_request_seconds",
+            "Total time to answer a trip planning request.", Histogram.SECONDS);
+
+    public static final Histogram VERTEX_LINKING = new Histogram("otp_vertex_linking_seconds",
+            "Time to find or create the street vertex for the origin or destination of a trip planning request.",
+            Histogram.SECONDS);
+
+    public static final Histogram HEURISTIC_INITIALIZATION = new Histogram("otp_heuristic_initialization_seconds",
+            "Time to initialize the remaining weight heuristic of an AStar search for a trip planning request.", Histogram.SECONDS);
+
+    public static final Histogram ASTAR_SEARCH = new Histogram("otp_astar_search_seconds",
+            "Time spent expanding states in an AStar search for a trip planning request, excluding heuristic "
+            + "initialization.", Histogram.SECONDS);
+
+    public static final Histogram ASTAR_VISITED_STATES = new Histogram("otp_astar_visited_states",
+            "Number of states taken from the queue and expanded by an AStar search for a trip planning request.",
+            100, 1000, 10000, 100000, 1000000, 10000000);
+
+    public static final Histogram ITINERARY_CONVERSION = new Histogram("otp_itinerary_conversion_seconds",
+            "Time to convert the paths found for a request into itineraries.", Histogram.SECONDS);
+
+    private static final Histogram[] ALL = { PLAN_REQUEST, VERTEX_LINKING, HEURISTIC_INITIALIZATION, ASTAR_SEARCH,
+            ASTAR_VISITED_STATES, ITINERARY_CONVERSION };
+
+    /** @return all the request metrics in the Prometheus text exposition format. */
+    public static String toPrometheusText () {
+        StringBuilder sb = new StringBuilder();
+        for (Histogram histogram : ALL) {
+            histogram.writePrometheus(sb);
+        }
+        return sb.toString();
+    }
+
+}
@@ -104,4 +104,44 @@ public class PointSetTest extends TestCase {
         }
     }
 
+    /** Make sure pointsets are read back unchanged from the columnar binary format, including polygons. */
+    public void testColumnarRoundTrip() throws IOException {
+        for (String path : new String[] { "src/test/resources/pointset/population.geo.json",
+                "src/test/resources/pointset/shp/austin.shp" }) {
+            PointSet points1 = path.endsWith(".shp") ? loadShapefile(path) : PointSet.fromGeoJson(new File(path));
+            File tempFile = File.createTempFile("pointset", ColumnarPointSetFile.EXTENSION);
+            tempFile.deleteOnExit();
+            ColumnarPointSetFile.write(points1, tempFile);
+            PointSet points2 = ColumnarPointSetFile.read(tempFile);
+            assertEquals(points1.id, points2.id);
+            assertEquals(points1.label, points2.label);
+            assertEquals(points1.featureCount(), points2.featureCount());
+            assertEquals(points1.properties.keySet(), points2.properties.keySet());
+            for (int i = 0; i < points1.featureCount(); i++) {
+                assertEquals(points1.ids[i], points2.ids[i]);
+                assertEquals(points1.lats[i], points2.lats[i]);
+                assertEquals(points1.lons[i], points2.lons[i]);
+                if (points1.polygons[i] == null) {
+                    assertNull(points2.polygons[i]);
+                } else {
+                    assertTrue(points1.polygons[i].equalsExact(points2.polygons[i]));
+                }
+                for (String property : points1.properties.keySet()) {
+                    assertEquals(points1.properties.get(property)[i], points2.properties.get(property)[i]);
+                }
+            }
+            for (String property : points1.propMetadata.keySet()) {
+                assertEquals(points1.propMetadata.get(property).label, points2.propMetadata.get(property).label);
+            }
+        }
+    }
+
+    private static PointSet loadShapefile(String path) throws IOException {
+        try {
+            return PointSet.fromShapefile(new File(path));
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
 }
@@ -0,0 +1,49 @@
+package org.opentripplanner.analyst;
+
+import com.vividsolutions.jts.geom.Envelope;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.io.File;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.buildGraphNoTransit;
+
+public class SampleSetTest extends TestCase {
+
+    /** Make sure a saved linkage is loaded unchanged, and is not used for another pointset */
+    @Test
+    public void testLinkageRoundTrip () throws Exception {
+        Graph g = buildGraphNoTransit();
+        g.index(new DefaultStreetVertexIndexFactory());
+
+        Envelope env = new Envelope();
+        for (Vertex v : g.getVertices()) {
+            env.expandToInclude(v.getCoordinate());
+        }
+        PointSet points = PointSet.regularGrid(env, 200);
+        points.id = "grid";
+        SampleSet linked = new SampleSet(points, g.getSampleFactory());
+
+        File file = File.createTempFile("grid", SampleSet.EXTENSION);
+        file.deleteOnExit();
+        linked.write(file, g);
+
+        SampleSet loaded = SampleSet.read(file, points, g);
+        assertNotNull(loaded);
+        boolean anyLinked = false;
+        for (int i = 0; i < points.capacity; i++) {
+            assertSame(linked.v0s[i], loaded.v0s[i]);
+            assertSame(linked.v1s[i], loaded.v1s[i]);
+            assertEquals(linked.d0s[i], loaded.d0s[i]);
+            assertEquals(linked.d1s[i], loaded.d1s[i]);
+            anyLinked |= loaded.v0s[i] != null;
+        }
+        assertTrue(anyLinked);
+
+        PointSet otherPoints = PointSet.regularGrid(env, 300);
+        assertNull(SampleSet.read(file, otherPoints, g));
+    }
+}
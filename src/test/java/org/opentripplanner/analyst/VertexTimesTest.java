@@ -0,0 +1,80 @@
+package org.opentripplanner.analyst;
+
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Vertex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VertexTimesTest {
+
+    @Test
+    public void testDenseTimes() {
+        VertexTimes times = new VertexTimes();
+        assertFalse(times.isSparse());
+        assertEquals(VertexTimes.UNREACHABLE, times.get(0));
+
+        times.put(0, 600);
+        times.put(0, 300);
+        // beyond the vertices existing when the storage was made
+        times.put(Vertex.getMaxIndex() + 10, 0);
+        assertEquals(300, times.get(0));
+        assertEquals(0, times.get(Vertex.getMaxIndex() + 10));
+        assertEquals(VertexTimes.UNREACHABLE, times.get(Vertex.getMaxIndex() + 9));
+        assertEquals(VertexTimes.UNREACHABLE, times.get(Vertex.getMaxIndex() + 1000));
+        assertEquals(2, times.size());
+
+        // a time too long to be stored in a char
+        times.put(1, 100000);
+        assertEquals(100000, times.get(1));
+        assertEquals(300, times.get(0));
+        assertEquals(0, times.get(Vertex.getMaxIndex() + 10));
+        assertEquals(VertexTimes.UNREACHABLE, times.get(Vertex.getMaxIndex() + 9));
+        assertEquals(3, times.size());
+    }
+
+    /** Dense storage only covers the vertex indexes that are given times, not the whole graph. */
+    @Test
+    public void testDenseSizing() {
+        int maxIndex = Vertex.getMaxIndex();
+        VertexTimes times = new VertexTimes();
+        assertEquals(0, times.capacity());
+        times.put(3, 60);
+        assertEquals(4, times.capacity());
+        for (int i = 0; i < 100; i++) {
+            times.put(i, i);
+        }
+        assertTrue(times.capacity() >= 100);
+        assertTrue(times.capacity() <= Math.max(150, maxIndex));
+        times.trimToSize();
+        assertEquals(100, times.capacity());
+        assertEquals(99, times.get(99));
+        assertEquals(VertexTimes.UNREACHABLE, times.get(100));
+
+        // Trimming works the same once times are stored as ints, and growing again after trimming still works.
+        times.put(50, 100000);
+        times.put(120, 100000);
+        times.trimToSize();
+        assertEquals(121, times.capacity());
+        times.put(130, 5);
+        assertEquals(5, times.get(130));
+        assertEquals(100000, times.get(50));
+        assertEquals(VertexTimes.UNREACHABLE, times.get(125));
+        assertEquals(102, times.size());
+    }
+
+    @Test
+    public void testSparseTimes() {
+        VertexTimes times = VertexTimes.forExpectedSize(-1);
+        assertTrue(times.isSparse());
+        times.put(12345, 100000);
+        times.put(12345, 90000);
+        times.put(7, 0);
+        assertEquals(90000, times.get(12345));
+        assertEquals(0, times.get(7));
+        assertEquals(VertexTimes.UNREACHABLE, times.get(8));
+        assertEquals(2, times.size());
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.opentripplanner.analyst.broker;
+
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JobTest {
+
+    /** Tasks not acknowledged within the invisibility timeout are delivered again, and late acknowledgements ignored. */
+    @Test
+    public void testRedelivery () {
+        Job job = new Job("job");
+        for (int taskId = 0; taskId < 4; taskId++) {
+            AnalystClusterRequest task = new AnalystClusterRequest();
+            task.taskId = taskId;
+            task.jobId = "job";
+            job.addTask(task);
+        }
+        long deliveryTime = 1000000;
+        List<AnalystClusterRequest> delivered = job.pollTasks(3);
+        job.markTasksDelivered(delivered, "worker", deliveryTime);
+        assertEquals(1, job.getTasksAwaitingDeliveryCount());
+        assertEquals(3, job.getInFlightTaskCount());
+
+        // Completed in time.
+        assertEquals("worker", job.markTaskCompleted(0));
+
+        long timeout = deliveryTime + Job.INVISIBLE_DURATION_SEC * 1000;
+        assertEquals(0, job.redeliver(timeout));
+        assertEquals(2, job.redeliver(timeout + 1));
+        assertEquals(3, job.getTasksAwaitingDeliveryCount());
+        assertEquals(0, job.getInFlightTaskCount());
+
+        // The task was queued for redelivery, so this acknowledgement is too late.
+        assertNull(job.markTaskCompleted(1));
+        assertEquals(1, job.getCompletedTaskCount());
+
+        // Deliver everything left to another worker, which finishes it.
+        List<AnalystClusterRequest> redelivered = job.pollTasks(10);
+        job.markTasksDelivered(redelivered, "other", timeout + 2);
+        for (AnalystClusterRequest task : redelivered) {
+            assertFalse(job.isComplete());
+            assertEquals("other", job.markTaskCompleted(task.taskId));
+        }
+        assertTrue(job.isComplete());
+    }
+
+}
@@ -0,0 +1,178 @@
+package org.opentripplanner.analyst.broker;
+
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.AnalystClusterRequest;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WorkerThroughputTest {
+
+    private long now = 1000000;
+
+    private final WorkerThroughput throughput = new WorkerThroughput(() -> now);
+
+    /** Until a worker acknowledges a task, it is only given enough tasks to hold INITIAL_BATCH_SIZE. */
+    @Test
+    public void testUnmeasuredWorker () {
+        assertEquals(WorkerThroughput.INITIAL_BATCH_SIZE, throughput.getBatchSize());
+        throughput.recordDelivery(new int[] { 0 });
+        // Polling again without acknowledging anything does not make the worker look faster.
+        now += 100;
+        assertEquals(0, throughput.getBatchSize());
+        now += 100;
+        assertEquals(0, throughput.getBatchSize());
+        // A first acknowledgement gives an estimate.
+        now += 1800;
+        throughput.recordCompletion(0);
+        assertEquals(5, throughput.getBatchSize());
+    }
+
+    /** A worker finishing a task every half second is given ten seconds of work. */
+    @Test
+    public void testBatchSizeFromAcknowledgements () {
+        deliverAndComplete(0, 50, 500);
+        assertEquals(20, throughput.getBatchSize());
+    }
+
+    /** A fast worker is given at most MAX_BATCH_SIZE tasks. */
+    @Test
+    public void testMaximumBatchSize () {
+        deliverAndComplete(0, 50, 10);
+        assertEquals(WorkerThroughput.MAX_BATCH_SIZE, throughput.getBatchSize());
+    }
+
+    /**
+     * A slow worker is given only as many tasks as it can finish within half the invisibility timeout, counting those
+     * it already holds.
+     */
+    @Test
+    public void testBatchCappedByInvisibilityTimeout () {
+        deliverAndComplete(0, 20, 2500);
+        // Ten seconds of work at 2.5 seconds per task.
+        assertEquals(4, throughput.getBatchSize());
+        // Only 15 seconds of work may be held at once.
+        throughput.recordDelivery(new int[] { 100, 101, 102 });
+        assertEquals(3, throughput.getBatchSize());
+        throughput.recordDelivery(new int[] { 103, 104 });
+        assertEquals(1, throughput.getBatchSize());
+        throughput.recordDelivery(new int[] { 105 });
+        assertEquals(0, throughput.getBatchSize());
+        assertEquals(6, throughput.getHeldTaskCount());
+    }
+
+    /** A worker holding nothing is always given something, even if a single task takes longer than the timeout. */
+    @Test
+    public void testVerySlowWorker () {
+        deliverAndComplete(0, 5, 60000);
+        assertEquals(WorkerThroughput.MIN_BATCH_SIZE, throughput.getBatchSize());
+        throughput.recordDelivery(new int[] { 100 });
+        assertEquals(0, throughput.getBatchSize());
+    }
+
+    /** Tasks that time out are forgotten, and show that the worker was slower than it was thought to be. */
+    @Test
+    public void testTimedOutTasks () {
+        deliverAndComplete(0, 10, 100);
+        throughput.recordDelivery(new int[] { 10, 11, 12, 13, 14, 15 });
+        now += Job.INVISIBLE_DURATION_SEC * 1000 + 1;
+        assertEquals(0, throughput.getHeldTaskCount());
+        // At least 30 / 6 = 5 seconds per task, so ten seconds of work is 2 tasks.
+        assertEquals(2, throughput.getBatchSize());
+        // A late acknowledgement does not change the estimate.
+        throughput.recordCompletion(10);
+        assertEquals(2, throughput.getBatchSize());
+    }
+
+    /** A worker is only considered gone once it has not polled, received or acknowledged tasks for the timeout. */
+    @Test
+    public void testSilentWorker () {
+        deliverAndComplete(0, 10, 100);
+        now += WorkerCatalog.WORKER_TIMEOUT_MS;
+        assertFalse(throughput.isSilent());
+        throughput.recordPoll();
+        now += WorkerCatalog.WORKER_TIMEOUT_MS;
+        assertFalse(throughput.isSilent());
+        now += 1;
+        assertTrue(throughput.isSilent());
+        throughput.recordDelivery(new int[] { 10 });
+        assertFalse(throughput.isSilent());
+    }
+
+    /**
+     * Simulate a worker with several threads that polls for more work as often as it can, and check that it is never
+     * handed so many tasks that some are redelivered.
+     */
+    @Test
+    public void testNoRedeliveryForEagerWorker () {
+        // Slow tasks, batches limited by the invisibility timeout.
+        assertTrue(simulateWorker(4, 2000, 2000) < WorkerThroughput.MAX_BATCH_SIZE);
+        // Many threads acknowledging tasks in bursts.
+        simulateWorker(16, 1000, 3000);
+        // A single thread that could only finish three tasks within the timeout.
+        simulateWorker(1, 9000, 50);
+    }
+
+    /** @return the largest batch handed to the worker. */
+    private int simulateWorker (int nThreads, long taskMillis, int nTasks) {
+        Job job = new Job("job");
+        for (int taskId = 0; taskId < nTasks; taskId++) {
+            AnalystClusterRequest task = new AnalystClusterRequest();
+            task.taskId = taskId;
+            task.jobId = "job";
+            job.addTask(task);
+        }
+        WorkerThroughput throughput = new WorkerThroughput(() -> now);
+        long[] busyUntil = new long[nThreads];
+        int[] taskOnThread = new int[nThreads];
+        Arrays.fill(taskOnThread, -1);
+        Queue<AnalystClusterRequest> workerQueue = new ArrayDeque<>();
+        int maxBatchSize = 0;
+
+        long step = 100;
+        long end = now + 24 * 3600 * 1000;
+        for (; now < end && !job.isComplete(); now += step) {
+            // Threads finish their tasks and acknowledge them, then take the next queued task.
+            for (int t = 0; t < nThreads; t++) {
+                if (taskOnThread[t] >= 0 && busyUntil[t] <= now) {
+                    assertEquals("worker", job.markTaskCompleted(taskOnThread[t]));
+                    throughput.recordCompletion(taskOnThread[t]);
+                    taskOnThread[t] = -1;
+                }
+                if (taskOnThread[t] < 0 && !workerQueue.isEmpty()) {
+                    taskOnThread[t] = workerQueue.poll().taskId;
+                    busyUntil[t] = now + taskMillis;
+                }
+            }
+            // The worker polls at every step, and the broker hands it a batch sized to its throughput, if it has room.
+            int batchSize = throughput.getBatchSize();
+            maxBatchSize = Math.max(maxBatchSize, batchSize);
+            if (batchSize > 0) {
+                List<AnalystClusterRequest> batch = job.pollTasks(batchSize);
+                job.markTasksDelivered(batch, "worker", now);
+                throughput.recordDelivery(batch.stream().mapToInt(task -> task.taskId).toArray());
+                workerQueue.addAll(batch);
+            }
+
+            assertEquals("No task should be redelivered", 0, job.redeliver(now));
+        }
+        assertTrue(job.isComplete());
+        return maxBatchSize;
+    }
+
+    /** Deliver tasks one at a time and acknowledge each after the given time. */
+    private void deliverAndComplete (int firstTaskId, int nTasks, long millisPerTask) {
+        for (int taskId = firstTaskId; taskId < firstTaskId + nTasks; taskId++) {
+            throughput.recordDelivery(new int[] { taskId });
+            now += millisPerTask;
+            throughput.recordCompletion(taskId);
+        }
+    }
+
+}
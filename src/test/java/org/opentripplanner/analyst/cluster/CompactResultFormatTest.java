@@ -0,0 +1,78 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.analyst.Histogram;
+import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.analyst.ResultSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+public class CompactResultFormatTest extends TestCase {
+
+    /** Make sure times and histograms read back from the compact format match what would have been saved as JSON */
+    @Test
+    public void testRoundTrip () throws Exception {
+        PointSet targets = new PointSet(6);
+        targets.properties.put("jobs", new int[] { 10, 0, 25, 3, 7, 1000 });
+        targets.properties.put("people", new int[] { 1, 2, 3, 4, 5, 6 });
+        int[] best = { 0, 65, 600, Integer.MAX_VALUE, 1200, 4000 };
+        int[] worst = { 30, 900, 1800, Integer.MAX_VALUE, Integer.MAX_VALUE, 7000 };
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompactResultFormat.Writer writer = new CompactResultFormat.Writer("job", "origin", null);
+        writer.writeResultSet(ResultEnvelope.Which.BEST_CASE, best, targets, true, true);
+        writer.writeResultSet(ResultEnvelope.Which.WORST_CASE, worst, targets, false, true);
+        writer.finish(out);
+
+        ResultEnvelope envelope = CompactResultFormat.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("job", envelope.jobId);
+        assertEquals("origin", envelope.id);
+        assertNull(envelope.destinationPointsetId);
+        assertNull(envelope.avgCase);
+
+        assertEquals(best.length, envelope.bestCase.times.length);
+        for (int i = 0; i < best.length; i++) {
+            assertEquals(best[i], envelope.bestCase.times[i]);
+        }
+        assertNull(envelope.worstCase.times);
+
+        assertSameHistograms(new ResultSet(best, targets, false, true, false), envelope.bestCase);
+        assertSameHistograms(new ResultSet(worst, targets, false, true, false), envelope.worstCase);
+    }
+
+    /** Make sure a task that fails after some of its result sets were computed cannot be read as a valid result */
+    @Test
+    public void testFailure () throws Exception {
+        PointSet targets = new PointSet(2);
+        targets.properties.put("jobs", new int[] { 10, 0 });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompactResultFormat.Writer writer = new CompactResultFormat.Writer("job", "origin", null);
+        writer.writeResultSet(ResultEnvelope.Which.BEST_CASE, new int[] { 60, 120 }, targets, true, true);
+        writer.fail(out, "java.lang.IllegalStateException: oops");
+
+        try {
+            CompactResultFormat.read(new ByteArrayInputStream(out.toByteArray()));
+            fail("Reading a failed task should throw an exception");
+        } catch (CompactResultFormat.FailedTaskException e) {
+            assertTrue(e.getMessage().contains("origin"));
+            assertTrue(e.getMessage().contains("oops"));
+        }
+    }
+
+    private static void assertSameHistograms (ResultSet expected, ResultSet actual) {
+        assertEquals(expected.histograms.keySet(), actual.histograms.keySet());
+        for (Map.Entry<String, Histogram> e : expected.histograms.entrySet()) {
+            Histogram histogram = actual.histograms.get(e.getKey());
+            assertEquals(e.getValue().counts.length, histogram.counts.length);
+            for (int i = 0; i < histogram.counts.length; i++) {
+                assertEquals(e.getValue().counts[i], histogram.counts[i]);
+                assertEquals(e.getValue().sums[i], histogram.sums[i]);
+            }
+        }
+    }
+
+}
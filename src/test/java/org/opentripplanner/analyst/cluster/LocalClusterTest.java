@@ -0,0 +1,60 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+public class LocalClusterTest extends TestCase {
+
+    /** Statistics stored by a worker are read back for the right job, and a missing file means no statistics. */
+    @Test
+    public void testReadStatistics () throws Exception {
+        File file = File.createTempFile("statistics", ".json");
+        try {
+            LocalTaskStatisticsStore store = new LocalTaskStatisticsStore(file);
+            store.store(statistics("job", 1000, 400));
+            store.store(statistics("other", 1100, 300));
+            store.store(statistics("job", 1200, 500));
+
+            List<TaskStatistics> stats = LocalCluster.readStatistics(file, "job");
+            assertEquals(2, stats.size());
+            assertEquals(1000, stats.get(0).computeDate);
+            assertEquals(500, stats.get(1).total);
+            assertTrue(LocalCluster.readStatistics(file, "none").isEmpty());
+        } finally {
+            file.delete();
+        }
+        assertTrue(LocalCluster.readStatistics(file, "job").isEmpty());
+    }
+
+    /** Utilization is the busy time of all the threads over the time from the first task to the end of the job. */
+    @Test
+    public void testUtilization () {
+        List<TaskStatistics> stats = Arrays.asList(statistics("job", 1000, 400), statistics("job", 1200, 600));
+        // Two threads over 1000 msec, busy for 1000 msec in all.
+        assertEquals(0.5, LocalCluster.utilization(stats, 2, 2000), 1e-9);
+        assertEquals(1.0, LocalCluster.utilization(stats, 1, 2000), 1e-9);
+    }
+
+    @Test
+    public void testPercentile () {
+        int[] values = { 10, 20, 30, 40, 50, 60, 70, 80, 90, 100 };
+        assertEquals(50, LocalCluster.percentile(values, 50));
+        assertEquals(90, LocalCluster.percentile(values, 90));
+        assertEquals(100, LocalCluster.percentile(values, 99));
+        assertEquals(10, LocalCluster.percentile(values, 0));
+        assertEquals(7, LocalCluster.percentile(new int[] { 7 }, 50));
+    }
+
+    private static TaskStatistics statistics (String jobId, long computeDate, int total) {
+        TaskStatistics ts = new TaskStatistics();
+        ts.jobId = jobId;
+        ts.computeDate = computeDate;
+        ts.total = total;
+        return ts;
+    }
+
+}
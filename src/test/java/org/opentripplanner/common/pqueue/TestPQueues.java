@@ -12,7 +12,7 @@ import junit.framework.TestCase;
 public class TestPQueues extends TestCase { 
     private static final int N = 50000;
 
-    public void doQueue(BinHeap<Integer> q,
+    public void doQueue(OTPPriorityQueue<Integer> q,
                         List<Integer> input, List<Integer> expected) {
         List<Integer> result = new ArrayList<Integer>(N);
         int expectedSum = 0;
@@ -45,7 +45,7 @@ public class TestPQueues extends TestCase {
         assertTrue(sum == expectedSum);
     }
     
-    public void fillQueue(BinHeap<Integer> q, List<Integer> input) {
+    public void fillQueue(OTPPriorityQueue<Integer> q, List<Integer> input) {
         for (Integer i : input) {
             q.insert(i, i * 0.5);
         }
@@ -77,6 +77,10 @@ public class TestPQueues extends TestCase {
         }
         doQueue(new BinHeap<Integer>(), input, expected);
         fillQueue(new BinHeap<Integer>(), input);
+        doQueue(new FourAryHeap<Integer>(), input, expected);
+        fillQueue(new FourAryHeap<Integer>(), input);
+        // start small to exercise resizing
+        doQueue(new FourAryHeap<Integer>(10), input, expected);
     }
 
     /*
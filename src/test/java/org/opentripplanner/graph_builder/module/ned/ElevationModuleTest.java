@@ -0,0 +1,138 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.geometry.GeneralEnvelope;
+import org.junit.Test;
+import org.opengis.coverage.Coverage;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.graph_builder.services.ned.ElevationGridCoverageFactory;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+public class ElevationModuleTest {
+
+    private static final double WEST = -122.70, SOUTH = 45.40, SIZE = 0.2;
+
+    /**
+     * Streets get exactly the same elevation profiles whether the elevation model is sampled on one thread or several,
+     * and when the profiles are read back from the cache. The grid of streets has several times EDGES_PER_TASK edges,
+     * so the threads really share the work.
+     */
+    @Test
+    public void testParallelSampling() throws Exception {
+        List<PackedCoordinateSequence> oneThread = buildProfiles(1, null);
+        List<PackedCoordinateSequence> fourThreads = buildProfiles(4, null);
+        assertProfilesEqual(oneThread, fourThreads);
+
+        File directory = Files.createTempDirectory("elevation-profiles").toFile();
+        try {
+            File cacheFile = new File(directory, "router.profiles");
+            assertProfilesEqual(oneThread, buildProfiles(4, cacheFile));
+            assertTrue(cacheFile.exists());
+            assertProfilesEqual(oneThread, buildProfiles(4, cacheFile));
+        } finally {
+            for (File f : directory.listFiles()) f.delete();
+            directory.delete();
+        }
+    }
+
+    /** Build a grid of streets over a synthetic elevation model and return the profile of each street. */
+    private static List<PackedCoordinateSequence> buildProfiles(int threads, File cacheFile) {
+        Graph graph = new Graph();
+        int n = 40;
+        double spacing = 0.004;
+        IntersectionVertex[][] vertices = new IntersectionVertex[n][n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                vertices[i][j] = new IntersectionVertex(graph, "v" + i + "_" + j,
+                        WEST + 0.01 + i * spacing, SOUTH + 0.01 + j * spacing);
+            }
+        }
+        List<StreetWithElevationEdge> edges = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                if (i + 1 < n) edges.add(makeStreet(vertices[i][j], vertices[i + 1][j], edges.size()));
+                if (j + 1 < n) edges.add(makeStreet(vertices[i][j], vertices[i][j + 1], edges.size()));
+            }
+        }
+
+        ElevationModule module = new ElevationModule(new SyntheticCoverageFactory(), 1);
+        module.setThreads(threads);
+        if (cacheFile != null) {
+            module.setCacheFile(cacheFile, "synthetic");
+        }
+        module.buildGraph(graph, new HashMap<>());
+
+        List<PackedCoordinateSequence> profiles = new ArrayList<>();
+        for (StreetWithElevationEdge edge : edges) {
+            profiles.add(edge.getElevationProfile());
+        }
+        return profiles;
+    }
+
+    private static StreetWithElevationEdge makeStreet(IntersectionVertex from, IntersectionVertex to, long wayId) {
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { from.getCoordinate(), to.getCoordinate() });
+        StreetWithElevationEdge edge = new StreetWithElevationEdge(from, to, geometry, "street " + wayId,
+                geometry.getLength() * 111000, StreetTraversalPermission.ALL, false);
+        edge.wayId = wayId;
+        return edge;
+    }
+
+    private static void assertProfilesEqual(List<PackedCoordinateSequence> expected,
+            List<PackedCoordinateSequence> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int e = 0; e < expected.size(); e++) {
+            PackedCoordinateSequence a = expected.get(e);
+            PackedCoordinateSequence b = actual.get(e);
+            assertNotNull(a);
+            assertNotNull(b);
+            assertEquals(a.size(), b.size());
+            for (int i = 0; i < a.size(); i++) {
+                assertEquals(a.getX(i), b.getX(i), 0);
+                assertEquals(a.getY(i), b.getY(i), 0);
+            }
+        }
+    }
+
+    /** Smooth hills over a square of longitude and latitude. */
+    private static class SyntheticCoverageFactory implements ElevationGridCoverageFactory {
+
+        @Override
+        public Coverage getGridCoverage() {
+            int cells = 200;
+            float[][] elevations = new float[cells][cells];
+            for (int row = 0; row < cells; row++) {
+                for (int col = 0; col < cells; col++) {
+                    elevations[row][col] = (float) (100 + 40 * Math.sin(row * 0.1) * Math.cos(col * 0.07));
+                }
+            }
+            GeneralEnvelope envelope = new GeneralEnvelope(new double[] { WEST, SOUTH },
+                    new double[] { WEST + SIZE, SOUTH + SIZE });
+            envelope.setCoordinateReferenceSystem(GeometryUtils.WGS84_XY);
+            return new GridCoverageFactory().create("synthetic", elevations, envelope);
+        }
+
+        @Override
+        public void checkInputs() { }
+
+        @Override
+        public void setGraph(Graph graph) { }
+    }
+}
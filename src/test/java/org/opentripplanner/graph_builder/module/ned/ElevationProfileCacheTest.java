@@ -0,0 +1,104 @@
+package org.opentripplanner.graph_builder.module.ned;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class ElevationProfileCacheTest {
+
+    private static final String SETTINGS = "dem.tif 1234 5678 samples=10.000000 multiplier=1.000000";
+
+    private static final Coordinate[] GEOMETRY_A = {
+            new Coordinate(-122.60, 45.50), new Coordinate(-122.61, 45.51) };
+
+    private static final Coordinate[] GEOMETRY_B = {
+            new Coordinate(-122.62, 45.52), new Coordinate(-122.63, 45.53), new Coordinate(-122.64, 45.53) };
+
+    private static final PackedCoordinateSequence PROFILE_A = new PackedCoordinateSequence.Double(
+            new Coordinate[] { new Coordinate(0, 12.5), new Coordinate(10, 13.25), new Coordinate(17.5, 14) });
+
+    private static final PackedCoordinateSequence PROFILE_B = new PackedCoordinateSequence.Double(
+            new Coordinate[] { new Coordinate(0, 100), new Coordinate(30, 98.5) });
+
+    private File directory;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("elevation-profiles").toFile();
+        file = new File(directory, "router.profiles");
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : directory.listFiles()) f.delete();
+        directory.delete();
+    }
+
+    /** Profiles saved by one build are found by the next, but only for the same way and exact same geometry. */
+    @Test
+    public void testRoundTrip() {
+        ElevationProfileCache cache = new ElevationProfileCache(file, SETTINGS);
+        assertNull(cache.get(1, GEOMETRY_A));
+        cache.put(1, GEOMETRY_A, PROFILE_A);
+        cache.put(2, GEOMETRY_B, PROFILE_B);
+        cache.save();
+
+        cache = new ElevationProfileCache(file, SETTINGS);
+        assertProfileEquals(PROFILE_A, cache.get(1, GEOMETRY_A));
+        assertProfileEquals(PROFILE_B, cache.get(2, GEOMETRY_B));
+        assertNull(cache.get(2, GEOMETRY_A));
+        Coordinate[] moved = { GEOMETRY_A[0], new Coordinate(GEOMETRY_A[1].x + 1e-9, GEOMETRY_A[1].y) };
+        assertNull(cache.get(1, moved));
+    }
+
+    /** Profiles made with other elevation data or settings are not reused. */
+    @Test
+    public void testSettingsMismatch() {
+        ElevationProfileCache cache = new ElevationProfileCache(file, SETTINGS);
+        cache.put(1, GEOMETRY_A, PROFILE_A);
+        cache.save();
+
+        assertNull(new ElevationProfileCache(file, SETTINGS.replace("multiplier=1", "multiplier=2"))
+                .get(1, GEOMETRY_A));
+        assertNull(new ElevationProfileCache(file, "NED tiles from S3 bucket other-bucket").get(1, GEOMETRY_A));
+        assertNotNull(new ElevationProfileCache(file, SETTINGS).get(1, GEOMETRY_A));
+    }
+
+    /** Only the profiles used in the latest build are saved. */
+    @Test
+    public void testUnusedProfilesDropped() {
+        ElevationProfileCache cache = new ElevationProfileCache(file, SETTINGS);
+        cache.put(1, GEOMETRY_A, PROFILE_A);
+        cache.put(2, GEOMETRY_B, PROFILE_B);
+        cache.save();
+
+        cache = new ElevationProfileCache(file, SETTINGS);
+        cache.put(1, GEOMETRY_A, cache.get(1, GEOMETRY_A));
+        cache.save();
+
+        cache = new ElevationProfileCache(file, SETTINGS);
+        assertProfileEquals(PROFILE_A, cache.get(1, GEOMETRY_A));
+        assertNull(cache.get(2, GEOMETRY_B));
+    }
+
+    private static void assertProfileEquals(PackedCoordinateSequence expected, PackedCoordinateSequence actual) {
+        assertNotNull(actual);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getX(i), actual.getX(i), 0);
+            assertEquals(expected.getY(i), actual.getY(i), 0);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.opentripplanner.graph_builder.module.osm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+public class OSMNodeStoreTest {
+
+    @Test
+    public void testUntaggedNodes() {
+        checkUntaggedNodes(new OSMNodeStore());
+    }
+
+    @Test
+    public void testMappedNodes() throws Exception {
+        File directory = Files.createTempDirectory("osm-node-store").toFile();
+        try {
+            checkUntaggedNodes(new OSMNodeStore(directory));
+        } finally {
+            for (File file : directory.listFiles()) file.delete();
+            directory.delete();
+        }
+    }
+
+    /** Add nodes in random order over several batches, with duplicates, and look them all up. */
+    private void checkUntaggedNodes(OSMNodeStore store) {
+        Random random = new Random(42);
+        int nNodes = 10000;
+        long[] ids = new long[nNodes];
+        for (int i = 0; i < nNodes; i++) {
+            ids[i] = i * 3 + 1;
+        }
+        for (int i = nNodes - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long tmp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = tmp;
+        }
+        for (int i = 0; i < nNodes; i++) {
+            store.put(makeNode(ids[i]));
+            if (i % 3000 == 0) {
+                // Force a merge, then add the same node again with different coordinates.
+                assertTrue(store.containsKey(ids[i]));
+                OSMNode duplicate = makeNode(ids[i]);
+                duplicate.lat += 1;
+                store.put(duplicate);
+            }
+        }
+        for (long id = 0; id < nNodes * 3 + 1; id++) {
+            OSMNode node = store.get(id);
+            if (id % 3 == 1) {
+                assertEquals(id, node.getId());
+                assertEquals(makeNode(id).lat, node.lat, 1e-7);
+                assertEquals(makeNode(id).lon, node.lon, 1e-7);
+                assertTrue(store.containsKey(id));
+            } else {
+                assertNull(node);
+                assertFalse(store.containsKey(id));
+            }
+        }
+        assertEquals(nNodes, store.size());
+    }
+
+    @Test
+    public void testTaggedNodes() {
+        OSMNodeStore store = new OSMNodeStore();
+        OSMNode tagged = makeNode(5);
+        tagged.addTag("highway", "bus_stop");
+        store.put(tagged);
+        store.put(makeNode(6));
+
+        OSMNode virtual = makeNode(-100000);
+        store.put(virtual);
+
+        // Tagged and virtual nodes are kept as they are, untagged nodes are rebuilt from their coordinates.
+        assertSame(tagged, store.get(5));
+        assertSame(virtual, store.get(-100000));
+        assertEquals(makeNode(6), store.get(6));
+        assertEquals(3, store.size());
+    }
+
+    private static OSMNode makeNode(long id) {
+        OSMNode node = new OSMNode();
+        node.setId(id);
+        node.lat = 45.5 + id * 1e-5;
+        node.lon = -122.6 - id * 1e-5;
+        return node;
+    }
+}
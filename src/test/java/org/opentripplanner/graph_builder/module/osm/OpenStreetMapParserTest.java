@@ -4,8 +4,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.io.File;
@@ -14,6 +21,8 @@ import java.net.URLDecoder;
 
 import org.junit.Test;
 
+import crosby.binary.Fileformat;
+
 
 
 import org.opentripplanner.openstreetmap.model.OSMMap;
@@ -23,6 +32,7 @@ import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderI
 import org.opentripplanner.openstreetmap.impl.BinaryFileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.impl.FileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.impl.OpenStreetMapParser;
+import org.opentripplanner.openstreetmap.impl.ParallelBinaryFileBasedOpenStreetMapProviderImpl;
 import org.opentripplanner.openstreetmap.impl.StreamedFileBasedOpenStreetMapProviderImpl;
 
 public class OpenStreetMapParserTest {
@@ -53,6 +63,72 @@ public class OpenStreetMapParserTest {
         testParser(map);
     }
 
+    @Test
+    public void testParallelBinaryParser() throws Exception {
+        ParallelBinaryFileBasedOpenStreetMapProviderImpl pr = new ParallelBinaryFileBasedOpenStreetMapProviderImpl();
+        OSMMap map = new OSMMap();
+        pr.setPath(new File(URLDecoder.decode(getClass().getResource("map.osm.pbf").getPath(), "UTF-8")));
+        pr.setThreads(4);
+        pr.readOSM(map);
+        testParser(map);
+    }
+
+    /**
+     * A corrupt block must make the parallel parser fail, and the thread reading the file must stop even though the
+     * queue of blocks behind the corrupt one is full.
+     */
+    @Test(timeout = 30000)
+    public void testParallelBinaryParserCorruptBlock() throws Exception {
+        List<byte[]> headers = new ArrayList<>();
+        List<byte[]> blobs = new ArrayList<>();
+        File original = new File(URLDecoder.decode(getClass().getResource("map.osm.pbf").getPath(), "UTF-8"));
+        try (DataInputStream in = new DataInputStream(new FileInputStream(original))) {
+            while (in.available() > 0) {
+                byte[] header = new byte[in.readInt()];
+                in.readFully(header);
+                headers.add(header);
+                byte[] blob = new byte[Fileformat.BlobHeader.parseFrom(header).getDatasize()];
+                in.readFully(blob);
+                blobs.add(blob);
+            }
+        }
+        // Write the OSM header block, a corrupt data block, then many copies of the real data blocks.
+        File corrupt = File.createTempFile("corrupt", ".osm.pbf");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(corrupt))) {
+                for (int copy = 0; copy < 20; copy++) {
+                    for (int b = 0; b < headers.size(); b++) {
+                        if (copy > 0 && b == 0) continue;
+                        byte[] blob = blobs.get(b);
+                        if (copy == 0 && b == 1) {
+                            blob = new byte[blob.length];
+                            Arrays.fill(blob, (byte) 0xFF);
+                        }
+                        out.writeInt(headers.get(b).length);
+                        out.write(headers.get(b));
+                        out.write(blob);
+                    }
+                }
+            }
+            ParallelBinaryFileBasedOpenStreetMapProviderImpl pr = new ParallelBinaryFileBasedOpenStreetMapProviderImpl();
+            pr.setPath(corrupt);
+            pr.setThreads(1);
+            try {
+                pr.readOSM(new OSMMap());
+                fail("Corrupt PBF block was not detected");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("pbf-reader")) {
+                    thread.join();
+                }
+            }
+        } finally {
+            corrupt.delete();
+        }
+    }
+
     @Test
     public void testXMLParser() throws Exception {
         FileBasedOpenStreetMapProviderImpl pr = new FileBasedOpenStreetMapProviderImpl();
@@ -0,0 +1,81 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.analyst.scenario.ConvertToFrequency;
+import org.opentripplanner.analyst.scenario.RemoveTrip;
+import org.opentripplanner.analyst.scenario.Scenario;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+public class RaptorWorkerDataCacheTest extends TestCase {
+
+    /** Make sure tables are shared between identical requests, but not between requests for different time windows */
+    @Test
+    public void testCacheKeys () throws Exception {
+        Graph g = buildGraphNoTransit();
+        addTransit(g);
+        link(g);
+        g.index(new DefaultStreetVertexIndexFactory());
+
+        RaptorWorkerDataCache cache = new RaptorWorkerDataCache(100);
+        RaptorWorkerData morning = cache.get(request(7), g, null, new TaskStatistics());
+        assertSame(morning, cache.get(request(7), g, null, new TaskStatistics()));
+        assertEquals(1, cache.size());
+
+        RaptorWorkerData evening = cache.get(request(17), g, null, new TaskStatistics());
+        assertNotSame(morning, evening);
+        assertEquals(2, cache.size());
+    }
+
+    /** Make sure scenarios are told apart by their modifications, not only by their client-chosen IDs */
+    @Test
+    public void testScenarioKeys () throws Exception {
+        Graph g = buildGraphNoTransit();
+        addTransit(g);
+        link(g);
+        g.index(new DefaultStreetVertexIndexFactory());
+
+        ConvertToFrequency ctf = new ConvertToFrequency();
+        ctf.groupBy = ConvertToFrequency.ConversionGroup.ROUTE_DIRECTION;
+        ctf.routeId = new String[] { "route" };
+        ctf.windowStart = 5 * 3600;
+        ctf.windowEnd = 10 * 3600;
+        ProfileRequest frequencyRequest = request(7);
+        frequencyRequest.scenario = new Scenario(1);
+        frequencyRequest.scenario.modifications = Arrays.asList(ctf);
+
+        RaptorWorkerDataCache cache = new RaptorWorkerDataCache(100);
+        RaptorWorkerData frequencies = cache.get(frequencyRequest, g, null, new TaskStatistics());
+        assertTrue(frequencies.hasFrequencies);
+        // Applying the modification filled in its converted trips, which must not change the key.
+        assertSame(frequencies, cache.get(frequencyRequest, g, null, new TaskStatistics()));
+
+        RemoveTrip rt = new RemoveTrip();
+        rt.routeId = Arrays.asList("route");
+        ProfileRequest removalRequest = request(7);
+        removalRequest.scenario = new Scenario(1);
+        removalRequest.scenario.modifications = Arrays.asList(rt);
+
+        RaptorWorkerData removal = cache.get(removalRequest, g, null, new TaskStatistics());
+        assertNotSame(frequencies, removal);
+        assertFalse(removal.hasFrequencies);
+        assertEquals(2, cache.size());
+    }
+
+    private static ProfileRequest request (int hour) {
+        ProfileRequest req = new ProfileRequest();
+        req.fromTime = hour * 3600;
+        req.toTime = (hour + 2) * 3600;
+        req.date = new LocalDate(2015, 6, 10);
+        req.walkSpeed = 1.3f;
+        req.maxWalkTime = 20;
+        return req;
+    }
+}
@@ -0,0 +1,64 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.util.Arrays;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test that searching the departure minutes in parallel blocks gives the same results as searching them in sequence.
+ */
+public class RaptorWorkerTest extends TestCase {
+
+    @Test
+    public void testParallelSearch () throws Exception {
+        Graph g = buildGraphNoTransit();
+        addPerpendicularRoutes(g);
+        link(g);
+        g.index(new DefaultStreetVertexIndexFactory());
+
+        ProfileRequest req = new ProfileRequest();
+        req.fromLon = req.toLon = -83.0007;
+        req.fromLat = req.toLat = 39.9621;
+        req.fromTime = 7 * 3600;
+        req.toTime = 9 * 3600;
+        req.date = new LocalDate(2015, 6, 10);
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        req.transitModes = new TraverseModeSet("TRANSIT");
+
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, g, null, new TaskStatistics());
+        TIntIntMap accessTimes = new RepeatedRaptorProfileRouter(g, req).findInitialStops(false, data);
+        int[] nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+
+        PropagatedTimesStore sequential = new RaptorWorker(data, req)
+                .runRaptor(g, accessTimes, nonTransitTimes, new TaskStatistics());
+
+        RaptorWorker worker = new RaptorWorker(data, req);
+        worker.parallelism = 4;
+        PropagatedTimesStore parallel = worker.runRaptor(g, accessTimes, nonTransitTimes, new TaskStatistics());
+
+        int reached = 0;
+        for (int target = 0; target < data.nTargets; target++) {
+            // a sequential search also keeps trips arriving within a minute after MAX_DURATION
+            if (sequential.maxs[target] < RaptorWorker.MAX_DURATION) {
+                assertEquals(sequential.mins[target], parallel.mins[target]);
+                assertEquals(sequential.maxs[target], parallel.maxs[target]);
+                assertEquals(sequential.avgs[target], parallel.avgs[target]);
+                reached++;
+            }
+        }
+
+        // make sure the comparison was not vacuous
+        assertTrue(reached > 0);
+    }
+}
@@ -0,0 +1,56 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+import static org.opentripplanner.profile.RaptorWorkerTimetable.MIN_BOARD_TIME_SECONDS;
+
+public class RaptorWorkerTimetableTest extends TestCase {
+
+    /** Make sure the first departure is found both by binary search over many trips and by a scan over a few */
+    @Test
+    public void testFindDepartureAfter () {
+        for (int nTrips : new int[] { 3, 40 }) {
+            // trips every ten minutes from 8 AM, taking five minutes from one stop to the next and dwelling 30 seconds
+            RaptorWorkerTimetable timetable = new RaptorWorkerTimetable(nTrips, 3);
+            for (int trip = 0; trip < nTrips; trip++) {
+                timetable.setTripTimes(trip, times(8 * 3600 + trip * 600, 300, 30, 3));
+            }
+            assertTrue(timetable.departuresSorted);
+            assertEquals(nTrips, timetable.nTrips);
+
+            assertEquals(0, timetable.findDepartureAfter(0, 0));
+            // a departure exactly at the end of the boarding slack cannot be caught
+            assertEquals(1, timetable.findDepartureAfter(0, 8 * 3600 + 30 - MIN_BOARD_TIME_SECONDS));
+            assertEquals(0, timetable.findDepartureAfter(0, 8 * 3600 + 29 - MIN_BOARD_TIME_SECONDS));
+            assertEquals(2, timetable.findDepartureAfter(1, 8 * 3600 + 900));
+            assertEquals(-1, timetable.findDepartureAfter(2, 24 * 3600));
+
+            assertEquals(8 * 3600 + 600 + 330, timetable.getArrival(1, 1));
+            assertEquals(8 * 3600 + 600 + 360, timetable.getDeparture(1, 1));
+        }
+    }
+
+    /** Make sure the first trip in order is found, not the first departure in time, when trips overtake each other */
+    @Test
+    public void testOvertaking () {
+        int nTrips = 20;
+        RaptorWorkerTimetable timetable = new RaptorWorkerTimetable(nTrips, 2);
+        for (int trip = 0; trip < nTrips; trip++) {
+            timetable.setTripTimes(trip, times(8 * 3600 + trip * 600, 300, 30, 2));
+        }
+        // an express leaving after trip 10 and arriving at the second stop before it
+        timetable.setTripTimes(11, new int[] { 8 * 3600 + 6060, 8 * 3600 + 6060, 8 * 3600 + 6100, 8 * 3600 + 6100 });
+        assertFalse(timetable.departuresSorted);
+        assertEquals(10, timetable.findDepartureAfter(1, 8 * 3600 + 6000));
+    }
+
+    private static int[] times (int start, int hopTime, int dwellTime, int nStops) {
+        int[] times = new int[nStops * 2];
+        for (int s = 0; s < nStops; s++) {
+            times[s * 2] = start + s * (hopTime + dwellTime);
+            times[s * 2 + 1] = times[s * 2] + dwellTime;
+        }
+        return times;
+    }
+}
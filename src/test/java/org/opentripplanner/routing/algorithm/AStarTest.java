@@ -1,6 +1,7 @@
 package org.opentripplanner.routing.algorithm;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
 
@@ -103,6 +104,58 @@ public class AStarTest {
         assertEquals("leary_20th", states.get(6).getVertex().getLabel());
     }
 
+    @Test
+    public void testForwardDenseSearchState() {
+        RoutingRequest options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.denseSearchState = true;
+        options.setRoutingContext(graph, graph.getVertex("56th_24th"), graph.getVertex("leary_20th"));
+        ShortestPathTree tree = new AStar().getShortestPathTree(options);
+
+        GraphPath path = tree.getPath(graph.getVertex("leary_20th"), false);
+
+        List<State> states = path.states;
+
+        assertEquals(7, states.size());
+
+        assertEquals("56th_24th", states.get(0).getVertex().getLabel());
+        assertEquals("market_24th", states.get(1).getVertex().getLabel());
+        assertEquals("market_ballard", states.get(2).getVertex().getLabel());
+        assertEquals("market_22nd", states.get(3).getVertex().getLabel());
+        assertEquals("market_leary", states.get(4).getVertex().getLabel());
+        assertEquals("leary_vernon", states.get(5).getVertex().getLabel());
+        assertEquals("leary_20th", states.get(6).getVertex().getLabel());
+        assertTrue(tree.getVertices().contains(graph.getVertex("leary_20th")));
+        assertEquals(tree.getVertexCount(), tree.getVertices().size());
+    }
+
+    /** A dense tree still gives the same answers after a later search on the same thread has reused its index. */
+    @Test
+    public void testSuccessiveDenseSearches() {
+        RoutingRequest options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.denseSearchState = true;
+        options.setRoutingContext(graph, graph.getVertex("56th_24th"), graph.getVertex("leary_20th"));
+        ShortestPathTree first = new AStar().getShortestPathTree(options);
+        int vertexCount = first.getVertexCount();
+
+        RoutingRequest otherOptions = new RoutingRequest();
+        otherOptions.walkSpeed = 1.0;
+        otherOptions.denseSearchState = true;
+        otherOptions.setRoutingContext(graph, graph.getVertex("leary_20th"), graph.getVertex("56th_24th"));
+        ShortestPathTree second = new AStar().getShortestPathTree(otherOptions);
+
+        assertEquals(vertexCount, first.getVertexCount());
+        assertEquals(7, first.getPath(graph.getVertex("leary_20th"), false).states.size());
+        assertNotNull(second.getPath(graph.getVertex("56th_24th"), false));
+        for (Vertex vertex : first.getVertices()) {
+            for (State state : first.getStates(vertex)) {
+                assertTrue(first.visit(state));
+                assertFalse(second.visit(state));
+            }
+        }
+    }
+
     @Test
     public void testBack() {
 
@@ -202,6 +202,34 @@ public class TimetableSnapshotTest {
         snapshot.commit();
     }
 
+    @Test
+    public void testClearAfterCommit() {
+        ServiceDate today = new ServiceDate();
+        TripPattern pattern = patternIndex.get(new FeedScopedId("agency", "1.1"));
+
+        TripDescriptor.Builder tripDescriptorBuilder = TripDescriptor.newBuilder();
+
+        tripDescriptorBuilder.setTripId("1.1");
+        tripDescriptorBuilder.setScheduleRelationship(ScheduleRelationship.CANCELED);
+
+        TripUpdate.Builder tripUpdateBuilder = TripUpdate.newBuilder();
+
+        tripUpdateBuilder.setTrip(tripDescriptorBuilder);
+
+        TripUpdate tripUpdate = tripUpdateBuilder.build();
+
+        TimetableSnapshot resolver = new TimetableSnapshot();
+        updateResolver(resolver, pattern, tripUpdate, "agency", today);
+        TimetableSnapshot snapshot = resolver.commit();
+        Timetable updated = snapshot.resolve(pattern, today);
+        assertNotSame(pattern.scheduledTimetable, updated);
+
+        // Clearing the buffer must not be visible through the snapshot, which shares its unmodified shards
+        resolver.clear("agency");
+        assertEquals(pattern.scheduledTimetable, resolver.resolve(pattern, today));
+        assertEquals(updated, snapshot.resolve(pattern, today));
+    }
+
     @Test
     public void testPurge() {
         ServiceDate today = new ServiceDate();
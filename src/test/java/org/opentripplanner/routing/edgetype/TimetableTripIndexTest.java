@@ -0,0 +1,74 @@
+package org.opentripplanner.routing.edgetype;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentripplanner.model.FeedScopedId;
+import org.opentripplanner.model.Stop;
+import org.opentripplanner.model.StopTime;
+import org.opentripplanner.model.Trip;
+import org.opentripplanner.routing.trippattern.Deduplicator;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+public class TimetableTripIndexTest {
+
+    private static final int N_STOPS = 3;
+
+    /** Make a trip departing the first stop at the given time, with the given running time on each hop. */
+    private static TripTimes makeTripTimes(String id, int serviceCode, int departure, int runningTime) {
+        Trip trip = new Trip();
+        trip.setId(new FeedScopedId("agency", id));
+        List<StopTime> stopTimes = new ArrayList<>();
+        for (int i = 0; i < N_STOPS; i++) {
+            StopTime stopTime = new StopTime();
+            Stop stop = new Stop();
+            stop.setId(new FeedScopedId("agency", "S" + i));
+            stopTime.setStop(stop);
+            stopTime.setArrivalTime(departure + i * runningTime);
+            stopTime.setDepartureTime(departure + i * runningTime);
+            stopTime.setStopSequence(i);
+            stopTimes.add(stopTime);
+        }
+        TripTimes tripTimes = new TripTimes(trip, stopTimes, new Deduplicator());
+        tripTimes.serviceCode = serviceCode;
+        return tripTimes;
+    }
+
+    @Test
+    public void testOrderAndSearch() {
+        List<TripTimes> tripTimes = new ArrayList<>();
+        tripTimes.add(makeTripTimes("slow", 0, 100, 100)); // 100, 200, 300
+        tripTimes.add(makeTripTimes("fast", 0, 150, 10));  // 150, 160, 170, overtakes "slow" at the second stop
+        tripTimes.add(makeTripTimes("early", 0, 50, 10));  // 50, 60, 70
+        tripTimes.add(makeTripTimes("tie", 0, 100, 100));  // same times as "slow"
+        tripTimes.add(makeTripTimes("other", 1, 0, 10));   // different service
+        TimetableTripIndex index = new TimetableTripIndex(tripTimes, N_STOPS);
+
+        assertEquals(5, index.nTrips);
+        assertArrayEquals(new int[] {0, 1}, index.serviceCodes);
+        assertArrayEquals(new int[] {2, 0, 3, 1}, index.byDeparture[0][0]);
+        assertArrayEquals(new int[] {2, 1, 0, 3}, index.byDeparture[0][1]);
+        // No overtaking between the second and third stops, so the order array is shared.
+        assertSame(index.byDeparture[0][1], index.byDeparture[0][2]);
+        assertNotSame(index.byDeparture[0][0], index.byDeparture[0][1]);
+        assertArrayEquals(new int[] {4}, index.byArrival[1][2]);
+
+        int[] order = index.byDeparture[0][0];
+        assertEquals(0, TimetableTripIndex.firstDepartureAtOrAfter(tripTimes, order, 0, 0));
+        assertEquals(1, TimetableTripIndex.firstDepartureAtOrAfter(tripTimes, order, 0, 51));
+        assertEquals(1, TimetableTripIndex.firstDepartureAtOrAfter(tripTimes, order, 0, 100));
+        assertEquals(4, TimetableTripIndex.firstDepartureAtOrAfter(tripTimes, order, 0, 151));
+
+        order = index.byArrival[0][1];
+        assertEquals(-1, TimetableTripIndex.lastArrivalAtOrBefore(tripTimes, order, 1, 59));
+        assertEquals(1, TimetableTripIndex.lastArrivalAtOrBefore(tripTimes, order, 1, 160));
+        assertEquals(3, TimetableTripIndex.lastArrivalAtOrBefore(tripTimes, order, 1, 200));
+    }
+
+}
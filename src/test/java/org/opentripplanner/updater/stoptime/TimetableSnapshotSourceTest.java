@@ -12,6 +12,7 @@ import java.io.File;
 import java.text.ParseException;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 import org.junit.Before;
@@ -162,6 +163,33 @@ public class TimetableSnapshotSourceTest {
         assertEquals(RealTimeState.CANCELED, tripTimes.getRealTimeState());
     }
 
+    @Test
+    public void testDiffFullDatasets() throws InvalidProtocolBufferException {
+        final FeedScopedId tripId = new FeedScopedId(feedId, "1.1");
+        final Trip trip = graph.index.tripForId.get(tripId);
+        final TripPattern pattern = graph.index.patternForTrip.get(trip);
+        final int tripIndex = pattern.scheduledTimetable.getTripIndex(tripId);
+
+        updater.diffFullDatasets = true;
+        updater.maxSnapshotFrequency = (-1);
+
+        updater.applyTripUpdates(graph, true, Arrays.asList(TripUpdate.parseFrom(cancellation)), feedId);
+        final TimetableSnapshot snapshot = updater.getTimetableSnapshot();
+        assertEquals(RealTimeState.CANCELED,
+                snapshot.resolve(pattern, serviceDate).getTripTimes(tripIndex).getRealTimeState());
+
+        // An unchanged full dataset does not touch the buffer, so the snapshot is kept
+        updater.applyTripUpdates(graph, true, Arrays.asList(TripUpdate.parseFrom(cancellation)), feedId);
+        assertSame(snapshot, updater.getTimetableSnapshot());
+
+        // A trip that is no longer in the full dataset returns to its schedule
+        updater.applyTripUpdates(graph, true, Collections.<TripUpdate>emptyList(), feedId);
+        final TimetableSnapshot newSnapshot = updater.getTimetableSnapshot();
+        assertNotSame(snapshot, newSnapshot);
+        assertSame(pattern.scheduledTimetable.getTripTimes(tripIndex),
+                newSnapshot.resolve(pattern, serviceDate).getTripTimes(tripIndex));
+    }
+
     @Test
     public void testHandleDelayedTrip() {
         final FeedScopedId tripId = new FeedScopedId(feedId, "1.1");
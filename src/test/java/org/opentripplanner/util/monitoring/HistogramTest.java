@@ -0,0 +1,39 @@
+package org.opentripplanner.util.monitoring;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void testPrometheusText() {
+        Histogram histogram = new Histogram("test_seconds", "A test histogram.", 1, 0.5);
+        histogram.observe(0.25);
+        histogram.observe(0.5); // bounds are inclusive
+        histogram.observe(0.75);
+        histogram.observe(2);
+        assertEquals(4, histogram.getCount());
+        assertEquals(3.5, histogram.getSum(), 1e-9);
+
+        StringBuilder sb = new StringBuilder();
+        histogram.writePrometheus(sb);
+        assertEquals("# HELP test_seconds A test histogram.\n" +
+                "# TYPE test_seconds histogram\n" +
+                "test_seconds_bucket{le=\"0.5\"} 2\n" +
+                "test_seconds_bucket{le=\"1\"} 3\n" +
+                "test_seconds_bucket{le=\"+Inf\"} 4\n" +
+                "test_seconds_sum 3.5\n" +
+                "test_seconds_count 4\n", sb.toString());
+    }
+
+    @Test
+    public void testRequestMetrics() {
+        RequestMetrics.ASTAR_VISITED_STATES.observe(500);
+        String text = RequestMetrics.toPrometheusText();
+        assertTrue(text.contains("# TYPE otp_plan_request_seconds histogram\n"));
+        assertTrue(text.contains("otp_astar_visited_states_bucket{le=\"1000\"} "));
+    }
+
+}